@@ -345,6 +345,8 @@ public class PGraphicsJava2D extends PGraphics {
   @Override
   public void beginDraw() {
     g2 = checkImage();
+    culledShapeCount = 0;
+    drawnShapeCount = 0;
 
     // Calling getGraphics() seems to nuke several settings.
     // It seems to be re-creating a new Graphics2D object each time.
@@ -1666,7 +1668,8 @@ public class PGraphicsJava2D extends PGraphics {
     /**
      * Update the pixels of the cache image. Already determined that the tint
      * has changed, or the pixels have changed, so should just go through
-     * with the update without further checks.
+     * with the update without further checks. Only the modified regions of
+     * the source are copied, a tint change marks the whole image beforehand.
      */
     public void update(PImage source, boolean tint, int tintColor) {
       //int bufferType = BufferedImage.TYPE_INT_ARGB;
@@ -1689,12 +1692,54 @@ public class PGraphicsJava2D extends PGraphics {
         image = new BufferedImage(source.pixelWidth, source.pixelHeight,
                                   BufferedImage.TYPE_INT_ARGB);
       }
+      if (tintedTemp == null || tintedTemp.length != source.pixelWidth) {
+        tintedTemp = new int[source.pixelWidth];
+      }
+
+      if (!tint && targetType == RGB && (source.pixels[0] >> 24 == 0)) {
+        // If it's an RGB image and the high bits aren't set, need to set
+        // the high bits to opaque because we're drawing ARGB images.
+        source.filter(OPAQUE);
+        // Opting to just manipulate the image here, since it shouldn't
+        // affect anything else (and alpha(get(x, y)) should return 0xff).
+        // Wel also make no guarantees about the values of the pixels array
+        // in a PImage and how the high bits will be set.
+        // (This also marks the whole image as modified.)
+      }
+
+      int count = source.getModifiedRegionCount();
+      int[] regions = source.getModifiedRegions();
+      if (count == 0) {
+        updateRegion(source, tint, tintColor, targetType,
+                     0, 0, source.pixelWidth, source.pixelHeight);
+      }
+      for (int i = 0; i < count; i++) {
+        int j = 4 * i;
+        updateRegion(source, tint, tintColor, targetType,
+                     regions[j], regions[j + 1], regions[j + 2], regions[j + 3]);
+      }
+      this.tinted = tint;
+      this.tintedColor = tintColor;
+
+//      GraphicsConfiguration gc = parent.getGraphicsConfiguration();
+//      compat = gc.createCompatibleImage(image.getWidth(),
+//                                        image.getHeight(),
+//                                        Transparency.TRANSLUCENT);
+//
+//      Graphics2D g = compat.createGraphics();
+//      g.drawImage(image, 0, 0, null);
+//      g.dispose();
+    }
+
+
+    protected void updateRegion(PImage source, boolean tint, int tintColor,
+                                int targetType, int x1, int y1, int x2, int y2) {
+      int w = x2 - x1;
+      if (w <= 0 || y2 <= y1) return;
+      int stride = source.pixelWidth;
 
       WritableRaster wr = image.getRaster();
       if (tint) {
-        if (tintedTemp == null || tintedTemp.length != source.pixelWidth) {
-          tintedTemp = new int[source.pixelWidth];
-        }
         int a2 = (tintColor >> 24) & 0xff;
 //        System.out.println("tint color is " + a2);
 //        System.out.println("source.pixels[0] alpha is " + (source.pixels[0] >>> 24));
@@ -1706,9 +1751,9 @@ public class PGraphicsJava2D extends PGraphics {
         if (targetType == RGB) {
           // The target image is opaque, meaning that the source image has no
           // alpha (is not ARGB), and the tint has no alpha.
-          int index = 0;
-          for (int y = 0; y < source.pixelHeight; y++) {
-            for (int x = 0; x < source.pixelWidth; x++) {
+          for (int y = y1; y < y2; y++) {
+            int index = y * stride + x1;
+            for (int x = 0; x < w; x++) {
               int argb1 = source.pixels[index++];
               int r1 = (argb1 >> 16) & 0xff;
               int g1 = (argb1 >> 8) & 0xff;
@@ -1722,7 +1767,7 @@ public class PGraphicsJava2D extends PGraphics {
                   ((g2 * g1) & 0xff00) |
                   (((b2 * b1) & 0xff00) >> 8);
             }
-            wr.setDataElements(0, y, source.pixelWidth, 1, tintedTemp);
+            wr.setDataElements(x1, y, w, 1, tintedTemp);
           }
           // could this be any slower?
 //          float[] scales = { tintR, tintG, tintB };
@@ -1735,19 +1780,19 @@ public class PGraphicsJava2D extends PGraphics {
           if (source.format == RGB &&
               (tintColor & 0xffffff) == 0xffffff) {
             int hi = tintColor & 0xff000000;
-            int index = 0;
-            for (int y = 0; y < source.pixelHeight; y++) {
-              for (int x = 0; x < source.pixelWidth; x++) {
+            for (int y = y1; y < y2; y++) {
+              int index = y * stride + x1;
+              for (int x = 0; x < w; x++) {
                 tintedTemp[x] = hi | (source.pixels[index++] & 0xFFFFFF);
               }
-              wr.setDataElements(0, y, source.pixelWidth, 1, tintedTemp);
+              wr.setDataElements(x1, y, w, 1, tintedTemp);
             }
           } else {
-            int index = 0;
-            for (int y = 0; y < source.pixelHeight; y++) {
+            for (int y = y1; y < y2; y++) {
+              int index = y * stride + x1;
               if (source.format == RGB) {
                 int alpha = tintColor & 0xFF000000;
-                for (int x = 0; x < source.pixelWidth; x++) {
+                for (int x = 0; x < w; x++) {
                   int argb1 = source.pixels[index++];
                   int r1 = (argb1 >> 16) & 0xff;
                   int g1 = (argb1 >> 8) & 0xff;
@@ -1758,7 +1803,7 @@ public class PGraphicsJava2D extends PGraphics {
                       (((b2 * b1) & 0xff00) >> 8);
                 }
               } else if (source.format == ARGB) {
-                for (int x = 0; x < source.pixelWidth; x++) {
+                for (int x = 0; x < w; x++) {
                   int argb1 = source.pixels[index++];
                   int a1 = (argb1 >> 24) & 0xff;
                   int r1 = (argb1 >> 16) & 0xff;
@@ -1772,13 +1817,13 @@ public class PGraphicsJava2D extends PGraphics {
                 }
               } else if (source.format == ALPHA) {
                 int lower = tintColor & 0xFFFFFF;
-                for (int x = 0; x < source.pixelWidth; x++) {
+                for (int x = 0; x < w; x++) {
                   int a1 = source.pixels[index++];
                   tintedTemp[x] =
                       (((a2 * a1) & 0xff00) << 16) | lower;
                 }
               }
-              wr.setDataElements(0, y, source.pixelWidth, 1, tintedTemp);
+              wr.setDataElements(x1, y, w, 1, tintedTemp);
             }
           }
           // Not sure why ARGB images take the scales in this order...
@@ -1787,30 +1832,18 @@ public class PGraphicsJava2D extends PGraphics {
 //          RescaleOp op = new RescaleOp(scales, offsets, null);
 //          op.filter(image, image);
         }
-      } else {  // !tint
-        if (targetType == RGB && (source.pixels[0] >> 24 == 0)) {
-          // If it's an RGB image and the high bits aren't set, need to set
-          // the high bits to opaque because we're drawing ARGB images.
-          source.filter(OPAQUE);
-          // Opting to just manipulate the image here, since it shouldn't
-          // affect anything else (and alpha(get(x, y)) should return 0xff).
-          // Wel also make no guarantees about the values of the pixels array
-          // in a PImage and how the high bits will be set.
-        }
+      } else if (x1 == 0 && y1 == 0 &&
+                 w == source.pixelWidth && y2 == source.pixelHeight) {
         // If no tint, just shove the pixels on in there verbatim
         wr.setDataElements(0, 0, source.pixelWidth, source.pixelHeight, source.pixels);
-      }
-      this.tinted = tint;
-      this.tintedColor = tintColor;
 
-//      GraphicsConfiguration gc = parent.getGraphicsConfiguration();
-//      compat = gc.createCompatibleImage(image.getWidth(),
-//                                        image.getHeight(),
-//                                        Transparency.TRANSLUCENT);
-//
-//      Graphics2D g = compat.createGraphics();
-//      g.drawImage(image, 0, 0, null);
-//      g.dispose();
+      } else {
+        // Partial update, one row of the region at a time
+        for (int y = y1; y < y2; y++) {
+          System.arraycopy(source.pixels, y * stride + x1, tintedTemp, 0, w);
+          wr.setDataElements(x1, y, w, 1, tintedTemp);
+        }
+      }
     }
   }
 
@@ -1833,6 +1866,38 @@ public class PGraphicsJava2D extends PGraphics {
   //public void shape(PShape shape, float x, float y, float c, float d)
 
 
+  @Override
+  protected boolean boundsInView(float[] bounds) {
+    if (bounds[0] > bounds[3] || bounds[1] > bounds[4]) return false;
+    for (int i = 0; i < 6; i++) {
+      if (Float.isInfinite(bounds[i])) return true;
+    }
+
+    // corners of the box in device space, compared with the image size
+    g2.getTransform().getMatrix(transform);
+    float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < 4; i++) {
+      float x = (i & 1) == 0 ? bounds[0] : bounds[3];
+      float y = (i & 2) == 0 ? bounds[1] : bounds[4];
+      float sx = (float) (transform[0] * x + transform[2] * y + transform[4]);
+      float sy = (float) (transform[1] * x + transform[3] * y + transform[5]);
+      minX = Math.min(minX, sx);
+      minY = Math.min(minY, sy);
+      maxX = Math.max(maxX, sx);
+      maxY = Math.max(maxY, sy);
+    }
+    return maxX >= 0 && maxY >= 0 && minX <= pixelWidth && minY <= pixelHeight;
+  }
+
+
+  @Override
+  protected float screenScale(float[] bounds) {
+    // the same for the whole shape, since the transform is affine
+    return (float) Math.sqrt(Math.abs(g2.getTransform().getDeterminant()));
+  }
+
+
   //////////////////////////////////////////////////////////////
 
   // SHAPE I/O
@@ -69,15 +69,20 @@ import org.xml.sax.SAXException;
 import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.regex.*;
+import java.util.stream.Stream;
 import java.util.zip.*;
 
 import processing.data.*;
@@ -733,6 +738,26 @@ public class PApplet implements PConstants {
    */
   public int frameCount;
 
+  /**
+   * Number of times update() has been called, when it's enabled with
+   * updateRate().
+   */
+  public int updateCount;
+
+  /**
+   * How far the time of the current frame is between the last update() and
+   * the next one, from 0 to 1. Use it in draw() to interpolate between the
+   * previous and the current state of the simulation, so motion stays
+   * smooth when the frame rate and the update rate are different.
+   */
+  public float updateAlpha;
+
+  /** Time between update() calls, 0 when updateRate() isn't used. */
+  protected long updatePeriodNanos;
+  protected int updateMaxSteps;
+  protected long updateLastNanos;
+  protected long updateAccumulator;
+
   /** true if the sketch has stopped permanently. */
   public volatile boolean finished;
 
@@ -793,6 +818,13 @@ public class PApplet implements PConstants {
 
   static public final String ARGS_DENSITY = "--density";
 
+  /**
+   * Render this many frames without a window, as fast as possible, then
+   * exit. For batch rendering with saveFrame() on machines without a
+   * display, see PSurfaceNone.
+   */
+  static public final String ARGS_RENDER_FRAMES = "--render-frames";
+
   /**
    * When run externally to a PdeEditor,
    * this is sent by the sketch when it quits.
@@ -957,18 +989,25 @@ public class PApplet implements PConstants {
     // PApplet to cache and the values to stick through subsequent runs.
     // Instead make it a runtime thing and a local variable.
     GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-    GraphicsDevice device = ge.getDefaultScreenDevice();
-    displayDevices = ge.getScreenDevices();
+    if (GraphicsEnvironment.isHeadless()) {
+      // no screens, only possible when rendering offline (--render-frames)
+      displayDevices = new GraphicsDevice[0];
 
-    // Default or unparsed will be -1, spanning will be 0, actual displays will
-    // be numbered from 1 because it's too weird to say "display 0" in prefs.
-    if (display > 0 && display <= displayDevices.length) {
-      device = displayDevices[display-1];
+    } else {
+      GraphicsDevice device = ge.getDefaultScreenDevice();
+      displayDevices = ge.getScreenDevices();
+
+      // Default or unparsed will be -1, spanning will be 0, actual displays
+      // will be numbered from 1 because it's too weird to say "display 0"
+      // in prefs.
+      if (display > 0 && display <= displayDevices.length) {
+        device = displayDevices[display-1];
+      }
+      // Set displayWidth and displayHeight for people still using those.
+      DisplayMode displayMode = device.getDisplayMode();
+      displayWidth = displayMode.getWidth();
+      displayHeight = displayMode.getHeight();
     }
-    // Set displayWidth and displayHeight for people still using those.
-    DisplayMode displayMode = device.getDisplayMode();
-    displayWidth = displayMode.getWidth();
-    displayHeight = displayMode.getHeight();
 
     // Here's where size(), fullScreen(), smooth(N) and noSmooth() might
     // be called, conjuring up the demons of various rendering configurations.
@@ -1849,6 +1888,17 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * Called at a fixed rate before draw() when enabled with updateRate(),
+   * for simulations that have to advance by the same amount of time each
+   * step, however fast the sketch is drawing. Runs on the animation thread,
+   * like draw(), and shouldn't draw anything.
+   *
+   * @see PApplet#updateRate(float)
+   */
+  public void update() { }
+
+
   //////////////////////////////////////////////////////////////
 
 
@@ -2382,6 +2432,22 @@ public class PApplet implements PConstants {
   /** Last time in nanoseconds that frameRate was checked */
   protected long frameRateLastNanos = 0;
 
+  /** How the surface waits between frames, see framePacing(). */
+  protected int framePacing = SLEEP_PACING;
+
+  /**
+   * When the surface wanted the current frame to start, and the frame
+   * period, used for the lateness in frameStats(). 0 when the surface
+   * doesn't pace its own frames.
+   */
+  protected long frameDueNanos;
+  protected long framePeriodNanos;
+
+  protected PFrameStats frameStats = new PFrameStats(600);
+
+  /** Number of frames to render offline, 0 to run normally. */
+  protected int renderFrames;
+
 
   public void handleDraw() {
     //debug("handleDraw() " + g + " " + looping + " " + redraw + " valid:" + this.isValid() + " visible:" + this.isVisible());
@@ -2471,6 +2537,10 @@ public class PApplet implements PConstants {
       pmouseX = dmouseX;
       pmouseY = dmouseY;
 
+      if (updatePeriodNanos > 0) {
+        handleUpdates(now);
+      }
+
         //println("Calling draw()");
       draw();
         //println("Done calling draw()");
@@ -2487,6 +2557,10 @@ public class PApplet implements PConstants {
 
       handleMethods("draw");
 
+      if (frameRecorder != null) {
+        frameRecorder.capture(g);
+      }
+
       redraw = false;  // unset 'redraw' flag in case it was set
       // (only do this once draw() has run, not just setup())
     }
@@ -2506,6 +2580,10 @@ public class PApplet implements PConstants {
     }
 
     frameRateLastNanos = now;
+    if (frameCount != 0) {
+      long late = (frameDueNanos == 0) ? 0 : Math.max(0, now - frameDueNanos);
+      frameStats.record(System.nanoTime() - now, late, framePeriodNanos);
+    }
     frameCount++;
   }
 
@@ -2619,7 +2697,7 @@ public class PApplet implements PConstants {
   //////////////////////////////////////////////////////////////
 
 
-  BlockingQueue<Event> eventQueue = new LinkedBlockingQueue<>();
+  PEventQueue eventQueue = new PEventQueue(1024);
   private final Object eventQueueDequeueLock = new Object[0];
 
 
@@ -2636,10 +2714,21 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * The queue of mouse and key events waiting for the animation thread,
+   * with counters for how deep it gets under heavy input.
+   * hint(ENABLE_EVENT_COALESCING) handles a run of mouse moves or drags
+   * as the last one only.
+   */
+  public PEventQueue eventQueue() {
+    return eventQueue;
+  }
+
+
   protected void dequeueEvents() {
     synchronized (eventQueueDequeueLock) {
-      while (!eventQueue.isEmpty()) {
-        Event e = eventQueue.remove();
+      Event e;
+      while ((e = eventQueue.poll()) != null) {
         switch (e.getFlavor()) {
         case Event.MOUSE:
           handleMouseEvent((MouseEvent) e);
@@ -3411,6 +3500,105 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * Choose how the sketch waits between frames. SLEEP_PACING (the default)
+   * sleeps for the rest of the frame, which can be off by a millisecond or
+   * more depending on the OS. PRECISE_PACING sleeps until shortly before
+   * the next frame and then waits for it exactly, using a little more CPU
+   * for smoother animation at high frame rates. FIXED_PACING keeps the
+   * frames on a fixed schedule: after a slow frame, the next ones run right
+   * away until the sketch has caught up, so the number of frames drawn
+   * matches the time passed, unless it falls more than a few frames behind.
+   * <p>
+   * Only used by the default renderer, FX2D and OpenGL are paced by their
+   * toolkits.
+   *
+   * @param pacing SLEEP_PACING, PRECISE_PACING, or FIXED_PACING
+   * @see PApplet#frameRate(float)
+   * @see PApplet#frameStats()
+   */
+  public void framePacing(int pacing) {
+    if (pacing != SLEEP_PACING && pacing != PRECISE_PACING &&
+        pacing != FIXED_PACING) {
+      throw new IllegalArgumentException("Use SLEEP_PACING, PRECISE_PACING, " +
+                                         "or FIXED_PACING with framePacing()");
+    }
+    framePacing = pacing;
+  }
+
+
+  /**
+   * Call update() a fixed number of times per second, independent of the
+   * frame rate. Before each draw(), update() runs as many times as needed
+   * to catch up with the time that has passed, so if drawing slows down,
+   * the simulation doesn't. When drawing is faster than the update rate,
+   * some frames get no update, and updateAlpha says how far the frame is
+   * between two updates.
+   * <p>
+   * At most 5 updates run before a single frame. If the sketch falls
+   * further behind than that (for instance, update() itself is too slow),
+   * the extra time is dropped and the simulation slows down, instead of
+   * trying to catch up forever. Use updateRate(0) to stop calling update().
+   *
+   * @param ups number of update() calls per second
+   * @see PApplet#update()
+   * @see PApplet#updateAlpha
+   */
+  public void updateRate(float ups) {
+    updateRate(ups, 5);
+  }
+
+
+  /**
+   * @param maxSteps most updates to run before a single frame
+   */
+  public void updateRate(float ups, int maxSteps) {
+    updatePeriodNanos = (ups > 0) ? (long) (1e9 / ups) : 0;
+    updateMaxSteps = Math.max(1, maxSteps);
+    // start counting from the next frame
+    updateLastNanos = 0;
+    updateAccumulator = 0;
+    updateAlpha = 0;
+  }
+
+
+  // Run the update() steps that are due, with the time accumulated since
+  // the last frame, and set the interpolation for draw().
+  protected void handleUpdates(long now) {
+    if (updateLastNanos == 0) {
+      updateLastNanos = now;
+    }
+    updateAccumulator += now - updateLastNanos;
+    updateLastNanos = now;
+
+    int steps = 0;
+    while (updateAccumulator >= updatePeriodNanos) {
+      if (steps == updateMaxSteps) {
+        // too far behind, drop the whole periods that are left
+        updateAccumulator %= updatePeriodNanos;
+        break;
+      }
+      update();
+      updateCount++;
+      updateAccumulator -= updatePeriodNanos;
+      steps++;
+    }
+    updateAlpha = (float) updateAccumulator / updatePeriodNanos;
+  }
+
+
+  /**
+   * Timing of the last 600 frames: how long each one took, and how late it
+   * started. Use frameStats().reset() to start over, for instance after
+   * loading is done.
+   *
+   * @see PApplet#framePacing(int)
+   */
+  public PFrameStats frameStats() {
+    return frameStats;
+  }
+
+
   //////////////////////////////////////////////////////////////
 
 
@@ -3830,6 +4018,11 @@ public class PApplet implements PConstants {
       handleMethods("dispose");
     }
 
+    if (requestImageLoader != null) {
+      requestImageLoader.dispose();
+    }
+    endRecording();
+
     if (platform == MACOSX) {
       try {
         final String td = "processing.core.ThinkDifferent";
@@ -3989,6 +4182,50 @@ public class PApplet implements PConstants {
   }
 
 
+  PFrameRecorder frameRecorder;
+
+
+  /**
+   * Save every frame to disk, starting with the next one, until
+   * endRecording() is called. The pattern works like saveFrame(), with
+   * #### replaced by the frame number. Saving happens on separate threads,
+   * and if they can't keep up, draw() waits for them.
+   *
+   * @param pattern file name for the frames, e.g. "frames/####.png"
+   * @see PFrameRecorder
+   */
+  public PFrameRecorder beginRecording(String pattern) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    return beginRecording(pattern, Math.max(2, cores), PFrameRecorder.BLOCK);
+  }
+
+
+  /**
+   * @param buffers number of frames that can be waiting to be saved
+   * @param policy what to do when all buffers are waiting to be saved:
+   * PFrameRecorder.BLOCK, DROP, or GROW
+   */
+  public PFrameRecorder beginRecording(String pattern, int buffers, int policy) {
+    endRecording();
+    int cores = Runtime.getRuntime().availableProcessors();
+    frameRecorder = new PFrameRecorder(this, pattern, buffers,
+                                       Math.max(1, cores - 1), policy);
+    return frameRecorder;
+  }
+
+
+  /**
+   * Stop recording frames, and wait for the remaining frames to be saved.
+   * The recorder returned by beginRecording() still has the statistics.
+   */
+  public void endRecording() {
+    if (frameRecorder != null) {
+      frameRecorder.finish();
+      frameRecorder = null;
+    }
+  }
+
+
   /**
    * Check a string for #### signs to see if the frame number should be
    * inserted. Used for functions like saveFrame() and beginRecord() to
@@ -5099,6 +5336,11 @@ public class PApplet implements PConstants {
 
   Random internalRandom;
 
+  // Source of the streams handed out by randomStream(), reset by randomSeed()
+  final Object randomStreamLock = new Object();
+  long randomStreamSeed;
+  PRandom randomStreams;
+
   /**
    *
    */
@@ -5201,6 +5443,65 @@ public class PApplet implements PConstants {
       internalRandom = new Random();
     }
     internalRandom.setSeed(seed);
+    synchronized (randomStreamLock) {
+      randomStreamSeed = seed;
+      randomStreams = new PRandom(seed);
+    }
+  }
+
+
+  /**
+   * Fill the array with random values from low up to (but not including)
+   * high, the same values as calling random(low, high) for each element.
+   *
+   * @param values array to fill
+   * @param low lower limit
+   * @param high upper limit
+   * @see PApplet#random(float,float)
+   */
+  public final void randomFill(float[] values, float low, float high) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random(low, high);
+    }
+  }
+
+
+  /**
+   * Returns a new stream of random numbers, independent from random() and
+   * from the other streams, for use by a single thread or task. After a
+   * call to randomSeed(), streams requested in the same order are always
+   * the same. Requesting streams can be done from any thread.
+   *
+   * @see PRandom
+   * @see PApplet#randomSeed(long)
+   */
+  public PRandom randomStream() {
+    synchronized (randomStreamLock) {
+      if (randomStreams == null) {
+        randomStreamSeed = new Random().nextLong();
+        randomStreams = new PRandom(randomStreamSeed);
+      }
+      return randomStreams.split();
+    }
+  }
+
+
+  /**
+   * Returns the stream of random numbers for the given id, for example the
+   * index of a worker thread or of a chunk of work. After a call to
+   * randomSeed(), the same id always gives the same stream, regardless of
+   * the order in which they're requested.
+   *
+   * @param id any number that identifies the thread or task
+   */
+  public PRandom randomStream(long id) {
+    synchronized (randomStreamLock) {
+      if (randomStreams == null) {
+        randomStreamSeed = new Random().nextLong();
+        randomStreams = new PRandom(randomStreamSeed);
+      }
+      return new PRandom(PRandom.streamSeed(randomStreamSeed, id));
+    }
   }
 
 
@@ -5506,6 +5807,19 @@ public class PApplet implements PConstants {
       g.awaitAsyncSaveCompletion(filename);
     }
 
+    PImageCache cache = PImageCache.shared();
+    if (cache != null) {
+      return cache.load(this, filename, extension);
+    }
+    return loadImageActual(filename, extension);
+  }
+
+
+  /**
+   * Decode an image, bypassing the PImageCache. Called by loadImage(),
+   * and by the cache itself on a miss.
+   */
+  protected PImage loadImageActual(String filename, String extension) {
     if (extension == null) {
       String lower = filename.toLowerCase();
       int dot = filename.lastIndexOf('.');
@@ -5630,9 +5944,9 @@ public class PApplet implements PConstants {
   }
 
 
-  static private final String REQUEST_IMAGE_THREAD_PREFIX = "requestImage";
-  // fixed-size thread pool used by requestImage()
-  ExecutorService requestImagePool;
+  static private final String REQUEST_IMAGE_THREAD_PREFIX = PImageLoader.THREAD_PREFIX;
+  // queue and thread pool used by requestImage()
+  PImageLoader requestImageLoader;
 
 
   public PImage requestImage(String filename) {
@@ -5663,42 +5977,40 @@ public class PApplet implements PConstants {
    * @see PApplet#loadImage(String, String)
    */
   public PImage requestImage(String filename, String extension) {
-    // Make sure saving to this file completes before trying to load it
-    // Has to be called on main thread, because P2D and P3D need GL functions
-    if (g != null) {
-      g.awaitAsyncSaveCompletion(filename);
-    }
-    PImage vessel = createImage(0, 0, ARGB);
+    return imageLoader().request(filename, extension).image;
+  }
 
-    // if the image loading thread pool hasn't been created, create it
-    if (requestImagePool == null) {
-      ThreadFactory factory = new ThreadFactory() {
-        public Thread newThread(Runnable r) {
-          return new Thread(r, REQUEST_IMAGE_THREAD_PREFIX);
-        }
-      };
-      requestImagePool = Executors.newFixedThreadPool(4, factory);
-    }
-    requestImagePool.execute(() -> {
-      PImage actual = loadImage(filename, extension);
 
-      // An error message should have already printed
-      if (actual == null) {
-        vessel.width = -1;
-        vessel.height = -1;
+  /**
+   * Returns the loader used by requestImage(), creating it with the default
+   * settings if necessary. Use its request() methods to set a priority or a
+   * target size, or to be able to cancel a request.
+   *
+   * @nowebref
+   */
+  public PImageLoader imageLoader() {
+    if (requestImageLoader == null) {
+      requestImageLoader = new PImageLoader(this);
+    }
+    return requestImageLoader;
+  }
 
-      } else {
-        vessel.width = actual.width;
-        vessel.height = actual.height;
-        vessel.format = actual.format;
-        vessel.pixels = actual.pixels;
 
-        vessel.pixelWidth = actual.width;
-        vessel.pixelHeight = actual.height;
-        vessel.pixelDensity = 1;
-      }
-    });
-    return vessel;
+  /**
+   * Replace the loader used by requestImage() with one using the specified
+   * number of threads and queue size. Pending requests on the previous
+   * loader are cancelled.
+   *
+   * @nowebref
+   * @param threads number of decoding threads
+   * @param maxQueued max number of pending requests, or 0 for no limit
+   */
+  public PImageLoader imageLoader(int threads, int maxQueued) {
+    if (requestImageLoader != null) {
+      requestImageLoader.dispose();
+    }
+    requestImageLoader = new PImageLoader(this, threads, maxQueued);
+    return requestImageLoader;
   }
 
 
@@ -6920,7 +7232,7 @@ public class PApplet implements PConstants {
     try {
       InputStream is = new FileInputStream(file);
       if (file.getName().toLowerCase().endsWith(".gz")) {
-        is = new GZIPInputStream(is);
+        is = createGZIPInput(is, false);
       }
       return createReader(is);
 
@@ -6937,10 +7249,15 @@ public class PApplet implements PConstants {
    * following lines any more I'm gonna send Sun my medical bills.
    */
   static public BufferedReader createReader(InputStream input) {
+    return createReader(input, 8192);
+  }
+
+
+  static BufferedReader createReader(InputStream input, int bufferSize) {
     InputStreamReader isr =
       new InputStreamReader(input, StandardCharsets.UTF_8);
 
-    BufferedReader reader = new BufferedReader(isr);
+    BufferedReader reader = new BufferedReader(isr, bufferSize);
     // consume the Unicode BOM (byte order marker) if present
     try {
       reader.mark(1);
@@ -6982,22 +7299,35 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * @param append true to add to the end of the file instead of replacing
+   * it. A .gz file gets another compressed section, which is still read
+   * back as one file by createInput().
+   */
+  public PrintWriter createWriter(String filename, boolean append) {
+    return createWriter(saveFile(filename), append);
+  }
+
+
   /**
    * @nowebref
    * I want to print lines to a file. I have RSI from typing these
    * eight lines of code so many times.
    */
   static public PrintWriter createWriter(File file) {
+    return createWriter(file, false);
+  }
+
+
+  /**
+   * @nowebref
+   */
+  static public PrintWriter createWriter(File file, boolean append) {
     if (file == null) {
       throw new RuntimeException("File passed to createWriter() was null");
     }
     try {
-      createPath(file);  // make sure in-between folders exist
-      OutputStream output = new FileOutputStream(file);
-      if (file.getName().toLowerCase().endsWith(".gz")) {
-        output = new GZIPOutputStream(output);
-      }
-      return createWriter(output);
+      return createWriter(openOutput(file, append));
 
     } catch (Exception e) {
       throw new RuntimeException("Couldn't create a writer for " +
@@ -7011,13 +7341,236 @@ public class PApplet implements PConstants {
    * It's the JavaSoft API engineers who need to explain themselves.
    */
   static public PrintWriter createWriter(OutputStream output) {
-    BufferedOutputStream bos = new BufferedOutputStream(output, 8192);
+    BufferedOutputStream bos =
+      new BufferedOutputStream(output, WRITE_BUFFER_SIZE);
     OutputStreamWriter osw =
       new OutputStreamWriter(bos, StandardCharsets.UTF_8);
     return new PrintWriter(osw);
   }
 
 
+  /**
+   * Same as createWriter(), but the file is written by a separate thread,
+   * so print() and println() only copy the text into a buffer and return.
+   * Use it for logs or data that's written every frame, so that draw()
+   * doesn't wait for the disk. If the disk falls behind by more than a few
+   * MB, writes wait until it catches up.
+   * <p>
+   * flush() hands the text to the writing thread without waiting for it.
+   * close() waits until everything has been written, and has to be called
+   * before the sketch exits, or the end of the file may be lost. Use
+   * checkError() after close() to find out whether anything went wrong.
+   *
+   * @param filename name of the file to be created
+   * @see PApplet#createWriter(String)
+   */
+  public PrintWriter createAsyncWriter(String filename) {
+    return createAsyncWriter(saveFile(filename), false);
+  }
+
+
+  public PrintWriter createAsyncWriter(String filename, boolean append) {
+    return createAsyncWriter(saveFile(filename), append);
+  }
+
+
+  /**
+   * @nowebref
+   */
+  static public PrintWriter createAsyncWriter(File file, boolean append) {
+    if (file == null) {
+      throw new RuntimeException("File passed to createAsyncWriter() was null");
+    }
+    try {
+      // not a PrintWriter, since that would swallow the IOExceptions
+      // that AsyncWriter reports through checkError()
+      Writer target =
+        new BufferedWriter(new OutputStreamWriter(openOutput(file, append),
+                                                  StandardCharsets.UTF_8),
+                           WRITE_BUFFER_SIZE);
+      return new PrintWriter(new AsyncWriter(target, file.getName()));
+
+    } catch (Exception e) {
+      throw new RuntimeException("Couldn't create a writer for " +
+                                 file.getAbsolutePath(), e);
+    }
+  }
+
+
+  // Opens a file for writing, creating the folders and adding compression
+  // for .gz files. Not buffered, the callers add their own buffer.
+  static private OutputStream openOutput(File file,
+                                         boolean append) throws IOException {
+    createPath(file);  // make sure in-between folders exist
+    OutputStream output = new FileOutputStream(file, append);
+    if (file.getName().toLowerCase().endsWith(".gz")) {
+      output = createGZIPOutput(output);
+    }
+    return output;
+  }
+
+
+  // With more than one core, gzip output is compressed in blocks on
+  // several threads.
+  static private OutputStream createGZIPOutput(OutputStream output)
+    throws IOException {
+    if (Runtime.getRuntime().availableProcessors() > 1) {
+      return new ParallelGZIPOutputStream(output);
+    }
+    return new GZIPOutputStream(output, WRITE_BUFFER_SIZE);
+  }
+
+
+  // With readAhead and more than one core, input is decompressed ahead on
+  // its own thread. That thread only stops when the stream is closed, so
+  // only use it where the stream never leaves PApplet and is always closed.
+  static private InputStream createGZIPInput(InputStream input,
+                                             boolean readAhead)
+    throws IOException {
+    // reads the header right away, so a bad file fails here
+    InputStream gzip = new GZIPInputStream(input, LINE_BUFFER_SIZE);
+    if (readAhead && Runtime.getRuntime().availableProcessors() > 1) {
+      return new ReadAheadInputStream(gzip, "gzip read-ahead");
+    }
+    // buffered has to go *around* the GZ, otherwise 25x slower
+    return new BufferedInputStream(gzip);
+  }
+
+
+  /**
+   * Hands text to a thread that writes it to another Writer. Text is
+   * collected into chunks, and a bounded queue of chunks limits how far
+   * the thread can fall behind.
+   */
+  static class AsyncWriter extends Writer {
+    static final int QUEUE_SIZE = 64;
+    static final char[] FLUSH = new char[0];
+    static final char[] CLOSE = new char[0];
+
+    Writer target;
+    BlockingQueue<char[]> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    Thread thread;
+
+    char[] chunk = new char[WRITE_BUFFER_SIZE];
+    int count;
+    boolean closed;
+    volatile IOException failure;
+
+
+    AsyncWriter(Writer target, String name) {
+      this.target = target;
+      thread = new Thread(this::writeLoop, "createAsyncWriter " + name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      ensureOpen();
+      while (len > 0) {
+        int n = Math.min(len, chunk.length - count);
+        System.arraycopy(cbuf, off, chunk, count, n);
+        count += n;
+        off += n;
+        len -= n;
+        if (count == chunk.length) {
+          handOff();
+        }
+      }
+    }
+
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      ensureOpen();
+      while (len > 0) {
+        int n = Math.min(len, chunk.length - count);
+        str.getChars(off, off + n, chunk, count);
+        count += n;
+        off += n;
+        len -= n;
+        if (count == chunk.length) {
+          handOff();
+        }
+      }
+    }
+
+
+    @Override
+    public void flush() throws IOException {
+      ensureOpen();
+      handOff();
+      put(FLUSH);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      handOff();
+      put(CLOSE);
+      closed = true;
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      if (failure != null) throw failure;
+    }
+
+
+    void ensureOpen() throws IOException {
+      if (closed) throw new IOException("Writer already closed");
+      if (failure != null) throw failure;
+    }
+
+
+    void handOff() throws IOException {
+      if (count > 0) {
+        // the chunk isn't reused, so the writing thread can keep it
+        put((count == chunk.length) ? chunk : Arrays.copyOf(chunk, count));
+        chunk = new char[WRITE_BUFFER_SIZE];
+        count = 0;
+      }
+    }
+
+
+    void put(char[] item) throws IOException {
+      try {
+        queue.put(item);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+
+
+    void writeLoop() {
+      while (true) {
+        char[] item;
+        try {
+          item = queue.take();
+        } catch (InterruptedException e) {
+          continue;
+        }
+        try {
+          if (item == CLOSE) {
+            target.close();
+            return;
+          } else if (item == FLUSH) {
+            target.flush();
+          } else if (failure == null) {
+            target.write(item);
+          }
+        } catch (IOException e) {
+          if (failure == null) failure = e;
+          if (item == CLOSE) return;
+        }
+      }
+    }
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -7095,14 +7648,19 @@ public class PApplet implements PConstants {
    *
    */
   public InputStream createInput(String filename) {
+    return createInput(filename, false);
+  }
+
+
+  // readAhead is only for callers that close the stream themselves
+  private InputStream createInput(String filename, boolean readAhead) {
     InputStream input = createInputRaw(filename);
     if (input != null) {
       // if it's gzip-encoded, automatically decode
       final String lower = filename.toLowerCase();
       if (lower.endsWith(".gz") || lower.endsWith(".svgz")) {
         try {
-          // buffered has to go *around* the GZ, otherwise 25x slower
-          return new BufferedInputStream(new GZIPInputStream(input));
+          return createGZIPInput(input, readAhead);
 
         } catch (IOException e) {
           printStackTrace(e);
@@ -7279,6 +7837,11 @@ public class PApplet implements PConstants {
    * @nowebref
    */
   static public InputStream createInput(File file) {
+    return createInput(file, false);
+  }
+
+
+  static private InputStream createInput(File file, boolean readAhead) {
     if (file == null) {
       throw new IllegalArgumentException("File passed to createInput() was null");
     }
@@ -7290,7 +7853,7 @@ public class PApplet implements PConstants {
       InputStream input = new FileInputStream(file);
       final String lower = file.getName().toLowerCase();
       if (lower.endsWith(".gz") || lower.endsWith(".svgz")) {
-        return new BufferedInputStream(new GZIPInputStream(input));
+        return createGZIPInput(input, readAhead);
       }
       return new BufferedInputStream(input);
 
@@ -7394,7 +7957,7 @@ public class PApplet implements PConstants {
       }
     }
 
-    InputStream is = createInput(filename);
+    InputStream is = createInput(filename, true);
     if (is != null) {
       byte[] outgoing = loadBytes(is);
       try {
@@ -7445,8 +8008,8 @@ public class PApplet implements PConstants {
       return null;
     }
 
+    InputStream input = null;
     try {
-      InputStream input;
       int length;
 
       if (file.getName().toLowerCase().endsWith(".gz")) {
@@ -7459,8 +8022,7 @@ public class PApplet implements PConstants {
         length = (b1 << 24) | (b2 << 16) + (b3 << 8) + b4;
         raf.close();
 
-        // buffered has to go *around* the GZ, otherwise 25x slower
-        input = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
+        input = createGZIPInput(new FileInputStream(file), true);
 
       } else {
         long len = file.length();
@@ -7480,9 +8042,111 @@ public class PApplet implements PConstants {
       while ((count = input.read(buffer, offset, length - offset)) > 0) {
         offset += count;
       }
-      input.close();
+      // The gzip trailer only has the size of the last member, which isn't
+      // the whole file when it was written in blocks (or is over 4GB).
+      int next = (offset == length) ? input.read() : -1;
+      if (next != -1) {
+        long size = Math.min(2L * length, Integer.MAX_VALUE - 8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) size);
+        out.write(buffer, 0, offset);
+        out.write(next);
+        out.write(loadBytes(input));
+        buffer = out.toByteArray();
+      } else if (offset < length) {
+        buffer = Arrays.copyOf(buffer, offset);
+      }
       return buffer;
 
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+
+    } finally {
+      // also stops the read-ahead thread when reading failed
+      if (input != null) {
+        try {
+          input.close();
+        } catch (IOException e) { }
+      }
+    }
+  }
+
+
+  /**
+   * Same as loadBytes(), but the file is mapped into memory instead of
+   * being read, so only the parts that are actually used get loaded by the
+   * operating system, and large files don't need a copy on the heap. The
+   * buffer is read-only, and can be read in any order with the absolute
+   * get() methods.
+   * <p>
+   * Only files on disk can be mapped. Anything else (.gz files, URLs, or
+   * files inside the sketch's jar) is read with loadBytes() and wrapped in
+   * a read-only buffer. A single buffer can't be larger than 2GB, use
+   * mapBytes(File, long, int) to map a part of a larger file.
+   *
+   * @param filename name of a file in the data folder or a URL.
+   * @see PApplet#loadBytes(String)
+   */
+  public ByteBuffer mapBytes(String filename) {
+    if (filename == null) return null;
+
+    if (!filename.toLowerCase().endsWith(".gz")) {
+      File file = null;
+      try {
+        // same lookup as createInputRaw()
+        file = new File(dataPath(filename));
+        if (!file.exists()) {
+          file = sketchFile(filename);
+        }
+      } catch (SecurityException se) { }
+
+      if (file != null && file.isFile()) {
+        return mapBytes(file);
+      }
+    }
+
+    byte[] bytes = loadBytes(filename);
+    return (bytes == null) ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+
+  /**
+   * @nowebref
+   */
+  static public ByteBuffer mapBytes(File file) {
+    if (!file.exists()) {
+      System.err.println(file + " does not exist, mapBytes() will return null");
+      return null;
+    }
+    if (file.getName().toLowerCase().endsWith(".gz")) {
+      byte[] bytes = loadBytes(file);
+      return (bytes == null) ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    long length = file.length();
+    if (length > Integer.MAX_VALUE) {
+      System.err.println("Cannot map a file larger than " + Integer.MAX_VALUE +
+                         " bytes at once, use mapBytes(file, offset, length)");
+      return null;
+    }
+    return mapBytes(file, 0, (int) length);
+  }
+
+
+  /**
+   * Map length bytes of a file, starting at offset, for reading parts
+   * of files too large to map at once.
+   *
+   * @nowebref
+   */
+  static public ByteBuffer mapBytes(File file, long offset, int length) {
+    // the mapping stays valid after the channel is closed
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                StandardOpenOption.READ)) {
+      long available = Math.max(0, channel.size() - offset);
+      return channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                         Math.min(length, available));
+
     } catch (IOException e) {
       e.printStackTrace();
       return null;
@@ -7499,7 +8163,7 @@ public class PApplet implements PConstants {
       return null;
     }
 
-    InputStream is = createInput(file);
+    InputStream is = createInput(file, true);
     if (is != null) {
       String[] outgoing = loadStrings(is);
       try {
@@ -7558,7 +8222,7 @@ public class PApplet implements PConstants {
    * @see PApplet#saveBytes(String, byte[])
    */
   public String[] loadStrings(String filename) {
-    InputStream is = createInput(filename);
+    InputStream is = createInput(filename, true);
     if (is != null) {
       String[] strArr = loadStrings(is);
       try {
@@ -7623,6 +8287,168 @@ public class PApplet implements PConstants {
   }
 
 
+  /** Buffer size for streamLines() and processLines(), in chars. */
+  static final int LINE_BUFFER_SIZE = 1 << 16;
+
+  /** Buffer size for createWriter() and createOutput(), in bytes. */
+  static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+
+  /**
+   * Same as loadStrings(), but the lines are read one at a time while the
+   * stream is consumed, so files of any size can be read without holding
+   * them in memory. Files ending in .gz are decompressed. The stream has
+   * to be closed when done, best done with try-with-resources:
+   * <pre>
+   * try (Stream&lt;String&gt; lines = streamLines("log.txt")) {
+   *   lines.filter(line -&gt; line.contains("ERROR")).forEach(...);
+   * }
+   * </pre>
+   * Returns null and prints an error if the file can't be opened. Errors
+   * while reading are thrown as UncheckedIOException.
+   *
+   * @param filename name of the file or url to read
+   * @see PApplet#loadStrings(String)
+   * @see PApplet#processLines(String, int, Consumer)
+   */
+  public Stream<String> streamLines(String filename) {
+    InputStream is = createInput(filename);
+    if (is == null) {
+      System.err.println("The file \"" + filename + "\" " +
+                         "is missing or inaccessible, make sure " +
+                         "the URL is valid or that the file has been " +
+                         "added to your sketch and is readable.");
+      return null;
+    }
+    return streamLines(is);
+  }
+
+
+  /**
+   * @nowebref
+   */
+  static public Stream<String> streamLines(File file) {
+    InputStream is = createInput(file);
+    return (is == null) ? null : streamLines(is);
+  }
+
+
+  /**
+   * @nowebref
+   */
+  static public Stream<String> streamLines(InputStream input) {
+    BufferedReader reader = createReader(input, LINE_BUFFER_SIZE);
+    return reader.lines().onClose(() -> {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+
+  /**
+   * Read a file line by line, and pass the lines to handler in arrays of
+   * up to batchSize lines. Batches are handled on several threads at once,
+   * so the handler has to be thread-safe, and batches may finish in any
+   * order. Only a few batches are held in memory at a time, since reading
+   * waits for the handler to catch up. Returns once every line has been
+   * handled, or rethrows the first exception thrown by the handler.
+   * <p>
+   * Returns false and prints an error if the file can't be opened or read.
+   *
+   * @param filename name of the file or url to read
+   * @param batchSize number of lines passed to each call of the handler
+   * @param handler called with each batch of lines
+   * @see PApplet#streamLines(String)
+   */
+  public boolean processLines(String filename, int batchSize,
+                              Consumer<String[]> handler) {
+    InputStream is = createInput(filename, true);
+    if (is == null) {
+      System.err.println("The file \"" + filename + "\" " +
+                         "is missing or inaccessible, make sure " +
+                         "the URL is valid or that the file has been " +
+                         "added to your sketch and is readable.");
+      return false;
+    }
+    return processLines(is, batchSize, handler);
+  }
+
+
+  /**
+   * @nowebref
+   */
+  static public boolean processLines(InputStream input, int batchSize,
+                                     Consumer<String[]> handler) {
+    batchSize = Math.max(1, batchSize);
+    int threads = PThreadPool.threads();
+    // two batches per thread, so the next one is ready when a thread is done
+    int permits = 2 * threads;
+    Semaphore pending = new Semaphore(permits);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    // the batches can't wait behind this task when already on the pool
+    ExecutorService pool = (threads > 1 && !PThreadPool.isWorker()) ?
+      PThreadPool.pool() : null;
+
+    boolean success = true;
+    try (BufferedReader reader = createReader(input, LINE_BUFFER_SIZE)) {
+      String[] batch = new String[batchSize];
+      int count = 0;
+      String line;
+      while (failure.get() == null && (line = reader.readLine()) != null) {
+        batch[count++] = line;
+        if (count == batchSize) {
+          handleLines(pool, pending, failure, handler, batch);
+          batch = new String[batchSize];
+          count = 0;
+        }
+      }
+      if (count > 0 && failure.get() == null) {
+        handleLines(pool, pending, failure, handler,
+                    Arrays.copyOf(batch, count));
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      success = false;
+
+    } finally {
+      // wait for the batches still running
+      pending.acquireUninterruptibly(permits);
+    }
+
+    Throwable cause = failure.get();
+    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+    if (cause instanceof Error) throw (Error) cause;
+    if (cause != null) throw new RuntimeException(cause);
+    return success;
+  }
+
+
+  static private void handleLines(ExecutorService pool, Semaphore pending,
+                                  AtomicReference<Throwable> failure,
+                                  Consumer<String[]> handler, String[] batch) {
+    pending.acquireUninterruptibly();
+    Runnable task = () -> {
+      try {
+        if (failure.get() == null) {
+          handler.accept(batch);
+        }
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+      } finally {
+        pending.release();
+      }
+    };
+    if (pool == null) {
+      task.run();
+    } else {
+      pool.execute(task);
+    }
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -7658,17 +8484,30 @@ public class PApplet implements PConstants {
     return createOutput(saveFile(filename));
   }
 
+
+  /**
+   * @param append true to add to the end of the file instead of replacing it
+   */
+  public OutputStream createOutput(String filename, boolean append) {
+    return createOutput(saveFile(filename), append);
+  }
+
+
   /**
    * @nowebref
    */
   static public OutputStream createOutput(File file) {
+    return createOutput(file, false);
+  }
+
+
+  /**
+   * @nowebref
+   */
+  static public OutputStream createOutput(File file, boolean append) {
     try {
-      createPath(file);  // make sure the path exists
-      OutputStream output = new FileOutputStream(file);
-      if (file.getName().toLowerCase().endsWith(".gz")) {
-        return new BufferedOutputStream(new GZIPOutputStream(output));
-      }
-      return new BufferedOutputStream(output);
+      return new BufferedOutputStream(openOutput(file, append),
+                                      WRITE_BUFFER_SIZE);
 
     } catch (IOException e) {
       e.printStackTrace();
@@ -7802,6 +8641,15 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * @param append true to add the bytes to the end of the file, which
+   * writes to it directly instead of going through a temporary file
+   */
+  public void saveBytes(String filename, byte[] data, boolean append) {
+    saveBytes(saveFile(filename), data, append);
+  }
+
+
   /**
    * Creates a temporary file based on the name/extension of another file
    * and in the same parent directory. Ensures that the same extension is used
@@ -7868,6 +8716,26 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * @nowebref
+   */
+  static public void saveBytes(File file, byte[] data, boolean append) {
+    if (!append) {
+      saveBytes(file, data);
+      return;
+    }
+    OutputStream output = createOutput(file, true);
+    if (output != null) {
+      saveBytes(output, data);
+      try {
+        output.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+
   /**
    * @nowebref
    * Spews a buffer of bytes to an OutputStream.
@@ -7917,11 +8785,33 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * @param append true to add the lines to the end of the file
+   */
+  public void saveStrings(String filename, String data[], boolean append) {
+    saveStrings(saveFile(filename), data, append);
+  }
+
+
   /**
    * @nowebref
    */
   static public void saveStrings(File file, String data[]) {
-    saveStrings(createOutput(file), data);
+    saveStrings(file, data, false);
+  }
+
+
+  /**
+   * @nowebref
+   */
+  static public void saveStrings(File file, String data[], boolean append) {
+    try {
+      // no BufferedOutputStream from createOutput(), createWriter() has one
+      saveStrings(openOutput(file, append), data);
+
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
   }
 
 
@@ -10709,16 +11599,6 @@ public class PApplet implements PConstants {
     }
     */
 
-    // Catch any HeadlessException to provide more useful feedback
-    try {
-      // Call validate() while resize events are in progress
-      Toolkit.getDefaultToolkit().setDynamicLayout(true);
-    } catch (HeadlessException e) {
-      System.err.println("Cannot run sketch without a display. Read this for possible solutions:");
-      System.err.println("https://github.com/processing/processing/wiki/Running-without-a-Display");
-      System.exit(1);
-    }
-
     // So that the system proxy setting are used by default
     System.setProperty("java.net.useSystemProxies", "true");
 
@@ -10742,6 +11622,7 @@ public class PApplet implements PConstants {
     boolean present = false;
 //    boolean spanDisplays = false;
     int density = -1;
+    int renderFrames = 0;
 
     String param = null, value = null;
     String folder = calcSketchPath();
@@ -10795,6 +11676,13 @@ public class PApplet implements PConstants {
             density = -1;
             System.err.println(ARGS_DENSITY + " should be 1 or 2");
           }
+
+        } else if (param.equals(ARGS_RENDER_FRAMES)) {
+          renderFrames = parseInt(value, 0);
+          if (renderFrames <= 0) {
+            System.err.println(ARGS_RENDER_FRAMES + " should be a number of frames");
+            renderFrames = 0;
+          }
         }
 
       } else {
@@ -10818,6 +11706,19 @@ public class PApplet implements PConstants {
       argIndex++;
     }
 
+    // Catch any HeadlessException to provide more useful feedback
+    // (not needed when rendering offline, no window is opened)
+    if (renderFrames == 0) {
+      try {
+        // Call validate() while resize events are in progress
+        Toolkit.getDefaultToolkit().setDynamicLayout(true);
+      } catch (HeadlessException e) {
+        System.err.println("Cannot run sketch without a display. Read this for possible solutions:");
+        System.err.println("https://github.com/processing/processing/wiki/Running-without-a-Display");
+        System.exit(1);
+      }
+    }
+
 //    // Now that sketch path is passed in args after the sketch name
 //    // it's not set in the above loop(the above loop breaks after
 //    // finding sketch name). So setting sketch path here.
@@ -10869,6 +11770,8 @@ public class PApplet implements PConstants {
 
     sketch.present = present;
 
+    sketch.renderFrames = renderFrames;
+
     // For 3.0.1, moved this above handleSettings() so that loadImage() can be
     // used inside settings(). Sets a terrible precedent, but the alternative
     // of not being able to size a sketch to an image is driving people loopy.
@@ -10930,6 +11833,12 @@ public class PApplet implements PConstants {
     }
     */
 
+    if (sketch.renderFrames > 0) {
+      // nothing to place or show, just draw
+      sketch.startSurface();
+      return;
+    }
+
     if (present) {
       if (hideStop) {
         stopColor = 0;  // they'll get the hint
@@ -10974,6 +11883,20 @@ public class PApplet implements PConstants {
 
   protected PSurface initSurface() {
     g = createPrimaryGraphics();
+    if (renderFrames > 0) {
+      if (g.isGL()) {
+        System.err.println(ARGS_RENDER_FRAMES + " needs a renderer that " +
+                           "can draw without a window, like JAVA2D");
+        renderFrames = 0;
+
+      } else {
+        // no window, and pipeline saveFrame() while the next frame draws
+        surface = g.surface = new PSurfaceNone(g);
+        g.hint(ENABLE_ASYNC_SAVEFRAME);
+        surface.initOffscreen(this);
+        return surface;
+      }
+    }
     surface = g.createSurface();
 
     // Create fake Frame object to warn user about the changes
@@ -12915,6 +13838,30 @@ public class PApplet implements PConstants {
   }
 
 
+  public void beginInstances(PShape shape) {
+    if (recorder != null) recorder.beginInstances(shape);
+    g.beginInstances(shape);
+  }
+
+
+  public void instance(float x, float y) {
+    if (recorder != null) recorder.instance(x, y);
+    g.instance(x, y);
+  }
+
+
+  public void instance(float x, float y, float angle, float scale, int color) {
+    if (recorder != null) recorder.instance(x, y, angle, scale, color);
+    g.instance(x, y, angle, scale, color);
+  }
+
+
+  public void endInstances() {
+    if (recorder != null) recorder.endInstances();
+    g.endInstances();
+  }
+
+
   public void textAlign(int alignX) {
     if (recorder != null) recorder.textAlign(alignX);
     g.textAlign(alignX);
@@ -523,5 +523,27 @@ public interface PConstants {
   static final int DISABLE_ASYNC_SAVEFRAME    =  12;
   static final int ENABLE_ASYNC_SAVEFRAME     = -12;
 
-  static final int HINT_COUNT                 =  13;
+  static final int ENABLE_PARALLEL_TESSELLATION  =  13;
+  static final int DISABLE_PARALLEL_TESSELLATION = -13;
+
+  static final int ENABLE_FAST_DEPTH_SORT     =  14;
+  static final int DISABLE_FAST_DEPTH_SORT    = -14;
+
+  static final int ENABLE_SHAPE_CULLING       =  15;
+  static final int DISABLE_SHAPE_CULLING      = -15;
+
+  static final int ENABLE_EVENT_COALESCING    =  16;
+  static final int DISABLE_EVENT_COALESCING   = -16;
+
+  static final int HINT_COUNT                 =  17;
+
+
+  // frame pacing, see framePacing()
+
+  /** Sleep until the next frame, the default. */
+  static final int SLEEP_PACING   = 0;
+  /** Sleep until just before the next frame, then wait for it exactly. */
+  static final int PRECISE_PACING = 1;
+  /** Wait exactly, and run late frames right away to catch up. */
+  static final int FIXED_PACING   = 2;
 }
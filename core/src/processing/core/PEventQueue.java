@@ -0,0 +1,230 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+
+package processing.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import processing.event.Event;
+import processing.event.MouseEvent;
+
+
+/**
+ * Queue for the mouse and key events that are passed from the event
+ * threads to the animation thread, get it with eventQueue() in PApplet.
+ * <p>
+ * Events are stored in a fixed ring of slots, so adding one doesn't lock
+ * or allocate anything. Several threads can add events at once, and only
+ * one thread at a time takes them out. If the ring fills up (draw() is
+ * stalled during a storm of events), the extra events wait in an ordinary
+ * linked queue, so none are lost and the event threads never block.
+ * <p>
+ * With hint(ENABLE_EVENT_COALESCING), a run of mouse moves (or drags)
+ * with nothing else in between is handled as the last one only, so
+ * mouseMoved() and mouseDragged() run once per run instead of for every
+ * position the device reported.
+ */
+public class PEventQueue {
+  protected final int mask;
+  protected final AtomicReferenceArray<Event> slots;
+  // sequence number of each slot, says whether it's free or filled
+  protected final AtomicLongArray sequences;
+  protected final AtomicLong tail = new AtomicLong();
+  protected volatile long head;
+
+  protected final ConcurrentLinkedQueue<Event> overflow =
+    new ConcurrentLinkedQueue<>();
+  protected final AtomicLong overflowed = new AtomicLong();
+  protected volatile long overflowTaken;
+
+  protected volatile boolean coalescing;
+  protected volatile long coalesced;
+  protected volatile int maxDepth;
+
+
+  /** @param capacity number of slots, rounded up to a power of two */
+  public PEventQueue(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    mask = size - 1;
+    slots = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+
+  /** Add an event, from any thread. */
+  public void add(Event event) {
+    // once events have overflowed, keep adding them there until they've
+    // been taken, so that they're handled in order
+    if (!overflow.isEmpty() || !offer(event)) {
+      overflow.add(event);
+      overflowed.incrementAndGet();
+    }
+  }
+
+
+  protected boolean offer(Event event) {
+    long pos = tail.get();
+    while (true) {
+      int index = (int) (pos & mask);
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          slots.lazySet(index, event);
+          sequences.set(index, pos + 1);  // publish the slot
+          return true;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        return false;  // full
+      } else {
+        pos = tail.get();  // another thread took this slot
+      }
+    }
+  }
+
+
+  /**
+   * Take the next event, or null if there are none. An event that's being
+   * added at this very moment may only be returned by the next call. Only
+   * one thread may call this at a time, PApplet makes sure of that.
+   */
+  public Event poll() {
+    int depth = getDepth();
+    if (depth > maxDepth) maxDepth = depth;
+
+    Event event = take();
+    if (event != null && coalescing) {
+      Event next;
+      while ((next = peek()) != null && canCoalesce(event, next)) {
+        event = take();
+        coalesced++;
+      }
+    }
+    return event;
+  }
+
+
+  // The ring is emptied before the overflow, which only has later events.
+  // A slot that's been claimed but not filled yet holds an earlier event
+  // than the overflow, so wait for it, and take nothing for now.
+  protected Event take() {
+    int index = (int) (head & mask);
+    if (sequences.get(index) == head + 1) {
+      Event event = slots.get(index);
+      slots.lazySet(index, null);
+      // free the slot for the next time around the ring
+      sequences.set(index, head + mask + 1);
+      head++;
+      return event;
+    }
+    if (tail.get() != head) return null;
+
+    Event event = overflow.poll();
+    if (event != null) overflowTaken++;
+    return event;
+  }
+
+
+  protected Event peek() {
+    int index = (int) (head & mask);
+    if (sequences.get(index) == head + 1) {
+      return slots.get(index);
+    }
+    return (tail.get() != head) ? null : overflow.peek();
+  }
+
+
+  static protected boolean canCoalesce(Event event, Event next) {
+    if (event.getFlavor() != Event.MOUSE || next.getFlavor() != Event.MOUSE) {
+      return false;
+    }
+    int action = event.getAction();
+    return (action == MouseEvent.MOVE || action == MouseEvent.DRAG) &&
+      next.getAction() == action &&
+      next.getModifiers() == event.getModifiers() &&
+      ((MouseEvent) next).getButton() == ((MouseEvent) event).getButton();
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  public void setCoalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+  }
+
+
+  public boolean isCoalescing() {
+    return coalescing;
+  }
+
+
+  /** Events waiting to be handled. */
+  public int getDepth() {
+    // size() of the overflow would have to count the whole list
+    return (int) (tail.get() - head + overflowed.get() - overflowTaken);
+  }
+
+
+  /** Most events that were waiting at once. */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+
+  /** Number of events added since the start. */
+  public long getEventCount() {
+    return tail.get() + overflowed.get();
+  }
+
+
+  /** Events that didn't fit in the ring. */
+  public long getOverflowCount() {
+    return overflowed.get();
+  }
+
+
+  /** Mouse events skipped because a later one replaced them. */
+  public long getCoalescedCount() {
+    return coalesced;
+  }
+
+
+  @Override
+  public String toString() {
+    return "PEventQueue[" + getEventCount() + " events, depth " +
+      getDepth() + "/" + getCapacity() + ", max " + maxDepth + ", " +
+      coalesced + " coalesced, " + getOverflowCount() + " overflowed]";
+  }
+}
@@ -108,8 +108,17 @@ public class PFont implements PConstants {
   protected int descent;
 
   /**
-   * A more efficient array lookup for straight ASCII characters. For Unicode
-   * characters, a QuickSort-style search is used.
+   * Direct lookup of the glyph index for any char, split in pages of 256
+   * chars that are only allocated once a glyph in their range is added.
+   * Entries are -1 for chars without a glyph. Fonts set up by subclasses
+   * without this table fall back to a binary search of the glyphs.
+   */
+  protected int[][] glyphTable;
+
+  /**
+   * Glyph indices for chars below 128, kept for subclasses. This is the
+   * first page of glyphTable (so it has 256 entries), and stays in sync
+   * with it.
    */
   protected int[] ascii;
 
@@ -221,8 +230,7 @@ public class PFont implements PConstants {
     int initialCount = 10;
     glyphs = new Glyph[initialCount];
 
-    ascii = new int[128];
-    Arrays.fill(ascii, -1);
+    initGlyphTable();
 
     int mbox3 = size * 3;
 
@@ -263,9 +271,7 @@ public class PFont implements PConstants {
       for (char c : charset) {
         if (font.canDisplay(c)) {
           Glyph glyf = new Glyph(c);
-          if (glyf.value < 128) {
-            ascii[glyf.value] = glyphCount;
-          }
+          setGlyphIndex(glyf.value, glyphCount);
           glyf.index = glyphCount;
           glyphs[glyphCount++] = glyf;
         }
@@ -365,16 +371,12 @@ public class PFont implements PConstants {
     // allocate enough space for the character info
     glyphs = new Glyph[glyphCount];
 
-    ascii = new int[128];
-    Arrays.fill(ascii, -1);
+    initGlyphTable();
 
     // read the information about the individual characters
     for (int i = 0; i < glyphCount; i++) {
       Glyph glyph = new Glyph(is);
-      // cache locations of the ascii charset
-      if (glyph.value < 128) {
-        ascii[glyph.value] = i;
-      }
+      setGlyphIndex(glyph.value, i);
       glyph.index = i;
       glyphs[i] = glyph;
     }
@@ -458,29 +460,24 @@ public class PFont implements PConstants {
     if (glyphCount == 0) {
       glyph.index = 0;
       glyphs[glyphCount] = glyph;
-      if (glyph.value < 128) {
-        ascii[glyph.value] = 0;
-      }
+      setGlyphIndex(glyph.value, 0);
 
     } else if (glyphs[glyphCount-1].value < glyph.value) {
+      glyph.index = glyphCount;
       glyphs[glyphCount] = glyph;
-      if (glyph.value < 128) {
-        ascii[glyph.value] = glyphCount;
-      }
+      setGlyphIndex(glyph.value, glyphCount);
 
     } else {
       for (int i = 0; i < glyphCount; i++) {
         if (glyphs[i].value > c) {
           for (int j = glyphCount; j > i; --j) {
             glyphs[j] = glyphs[j-1];
-            if (glyphs[j].value < 128) {
-              ascii[glyphs[j].value] = j;
-            }
+            glyphs[j].index = j;
+            setGlyphIndex(glyphs[j].value, j);
           }
           glyph.index = i;
           glyphs[i] = glyph;
-          // cache locations of the ascii charset
-          if (c < 128) ascii[c] = i;
+          setGlyphIndex(c, i);
           break;
         }
       }
@@ -489,6 +486,26 @@ public class PFont implements PConstants {
   }
 
 
+  protected void initGlyphTable() {
+    glyphTable = new int[256][];
+    ascii = new int[256];
+    Arrays.fill(ascii, -1);
+    glyphTable[0] = ascii;
+  }
+
+
+  protected void setGlyphIndex(int c, int index) {
+    if (glyphTable == null || c < 0 || c > 0xFFFF) return;
+    int[] page = glyphTable[c >> 8];
+    if (page == null) {
+      page = new int[256];
+      Arrays.fill(page, -1);
+      glyphTable[c >> 8] = page;
+    }
+    page[c & 0xFF] = index;
+  }
+
+
   public String getName() {
     return name;
   }
@@ -637,10 +654,15 @@ public class PFont implements PConstants {
     //if (value.length == 0) return -1;
     if (glyphCount == 0) return -1;
 
-    // quicker lookup for the ascii fellers
-    if (c < 128) return ascii[c];
+    if (glyphTable != null) {
+      int[] page = glyphTable[c >> 8];
+      return (page == null) ? -1 : page[c & 0xFF];
+    }
+
+    // a subclass may have only set up the ascii table
+    if (ascii != null && c < 128) return ascii[c];
 
-    // some other unicode char, hunt it out
+    // no table set up by a subclass, hunt it out
     //return index_hunt(c, 0, value.length-1);
     return indexHunt(c, 0, glyphCount-1);
   }
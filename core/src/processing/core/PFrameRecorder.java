@@ -0,0 +1,302 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/**
+ * Records every frame drawn by a sketch to an image sequence, started
+ * with beginRecording() and stopped with endRecording().
+ * <p>
+ * Frames are copied into a ring of reusable pixel buffers and handed to
+ * encoder threads, so the animation thread only pays for the copy. When
+ * all buffers are waiting to be encoded, the back-pressure policy decides
+ * what happens to the next frame: BLOCK waits for a buffer (the recording
+ * is complete, but the sketch slows down), DROP skips the frame (the sketch
+ * keeps its frame rate, the sequence has gaps), and GROW allocates another
+ * buffer (nothing is lost, at the cost of memory).
+ */
+public class PFrameRecorder {
+  static public final int BLOCK = 0;
+  static public final int DROP = 1;
+  static public final int GROW = 2;
+
+  protected PApplet parent;
+  protected String pattern;
+  protected int policy;
+
+  /** Buffers ready to receive a frame. */
+  protected BlockingQueue<Frame> free;
+  /** Frames waiting for an encoder. */
+  protected BlockingQueue<Frame> pending = new LinkedBlockingQueue<>();
+
+  protected Thread[] encoders;
+  protected int bufferCount;
+  protected int buffersCreated;
+  protected volatile boolean finished;
+
+  // statistics, guarded by this
+  protected long captured;
+  protected long written;
+  protected long dropped;
+  protected long failed;
+  protected long encodeNanosTotal;
+  protected long encodeNanosMax;
+  protected long latencyNanosMax;
+  protected int maxQueueDepth;
+  protected int encoding;
+
+  static final Frame STOP = new Frame();
+
+
+  /**
+   * @param pattern file name for the frames, with #### replaced by the
+   * frame number, same as saveFrame()
+   * @param buffers number of pixel buffers in the ring
+   * @param threads number of encoder threads
+   * @param policy BLOCK, DROP, or GROW
+   */
+  public PFrameRecorder(PApplet parent, String pattern,
+                        int buffers, int threads, int policy) {
+    if (policy != BLOCK && policy != DROP && policy != GROW) {
+      throw new IllegalArgumentException("Use BLOCK, DROP, or GROW " +
+                                         "for the recording policy");
+    }
+    this.parent = parent;
+    this.pattern = pattern;
+    this.policy = policy;
+    this.bufferCount = Math.max(1, buffers);
+    // unbounded, so GROW can return extra buffers to it
+    free = new LinkedBlockingQueue<>();
+
+    encoders = new Thread[Math.max(1, threads)];
+    for (int i = 0; i < encoders.length; i++) {
+      encoders[i] = new Thread(this::encodeLoop, "PFrameRecorder-" + i);
+      encoders[i].setDaemon(true);
+      encoders[i].start();
+    }
+  }
+
+
+  /**
+   * Copy the current contents of the renderer into the next free buffer
+   * and queue it for saving. Called by PApplet at the end of each draw().
+   */
+  public void capture(PGraphics g) {
+    if (finished) return;
+
+    Frame frame = takeBuffer();
+    if (frame == null) {
+      synchronized (this) {
+        dropped++;
+      }
+      return;
+    }
+
+    g.loadPixels();
+    if (frame.image == null ||
+        frame.image.pixelWidth != g.pixelWidth ||
+        frame.image.pixelHeight != g.pixelHeight) {
+      frame.image = new PImage(g.pixelWidth, g.pixelHeight);
+      frame.image.parent = parent;
+    }
+    int count = Math.min(g.pixels.length, frame.image.pixels.length);
+    System.arraycopy(g.pixels, 0, frame.image.pixels, 0, count);
+    frame.image.format = (g.format == PConstants.ARGB) ?
+      PConstants.ARGB : PConstants.RGB;
+    frame.path = parent.savePath(parent.insertFrame(pattern));
+    frame.captureNanos = System.nanoTime();
+
+    pending.add(frame);
+    synchronized (this) {
+      captured++;
+      maxQueueDepth = Math.max(maxQueueDepth, pending.size());
+    }
+  }
+
+
+  protected Frame takeBuffer() {
+    Frame frame = free.poll();
+    if (frame != null) return frame;
+
+    synchronized (this) {
+      if (buffersCreated < bufferCount) {
+        buffersCreated++;
+        return new Frame();
+      }
+      if (policy == GROW) {
+        buffersCreated++;
+        bufferCount++;
+        return new Frame();
+      }
+    }
+    if (policy == DROP) return null;
+
+    try {
+      return free.take();
+    } catch (InterruptedException e) {
+      return null;
+    }
+  }
+
+
+  protected void encodeLoop() {
+    while (true) {
+      Frame frame;
+      try {
+        frame = pending.take();
+      } catch (InterruptedException e) {
+        continue;
+      }
+      if (frame == STOP) return;
+
+      synchronized (this) {
+        encoding++;
+      }
+      long start = System.nanoTime();
+      boolean success = false;
+      try {
+        success = frame.image.save(frame.path);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+      long done = System.nanoTime();
+
+      synchronized (this) {
+        encoding--;
+        if (success) {
+          written++;
+        } else {
+          failed++;
+        }
+        long encodeNanos = done - start;
+        encodeNanosTotal += encodeNanos;
+        encodeNanosMax = Math.max(encodeNanosMax, encodeNanos);
+        latencyNanosMax = Math.max(latencyNanosMax, done - frame.captureNanos);
+      }
+      free.add(frame);
+    }
+  }
+
+
+  /**
+   * Stop accepting frames, wait for the queued ones to be written, and
+   * shut down the encoder threads.
+   */
+  public void finish() {
+    if (finished) return;
+    finished = true;
+    for (int i = 0; i < encoders.length; i++) {
+      pending.add(STOP);
+    }
+    for (Thread encoder : encoders) {
+      try {
+        encoder.join();
+      } catch (InterruptedException e) { }
+    }
+    free.clear();
+  }
+
+
+  public boolean isFinished() {
+    return finished;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /** Frames waiting to be encoded, plus those being encoded right now. */
+  public synchronized int getQueueDepth() {
+    return pending.size() + encoding;
+  }
+
+
+  public synchronized int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+
+  /** Number of pixel buffers in the ring, which changes with GROW. */
+  public synchronized int getBufferCount() {
+    return bufferCount;
+  }
+
+
+  public synchronized long getFramesCaptured() {
+    return captured;
+  }
+
+
+  public synchronized long getFramesWritten() {
+    return written;
+  }
+
+
+  /** Frames skipped because no buffer was free, with the DROP policy. */
+  public synchronized long getFramesDropped() {
+    return dropped;
+  }
+
+
+  /** Frames that couldn't be saved. */
+  public synchronized long getFramesFailed() {
+    return failed;
+  }
+
+
+  /** Average time spent encoding and writing a single frame. */
+  public synchronized float getAverageEncodeMillis() {
+    long count = written + failed;
+    return (count == 0) ? 0 : (float) (encodeNanosTotal / 1e6 / count);
+  }
+
+
+  public synchronized float getMaxEncodeMillis() {
+    return (float) (encodeNanosMax / 1e6);
+  }
+
+
+  /** Longest time from the end of a draw() to its frame being on disk. */
+  public synchronized float getMaxLatencyMillis() {
+    return (float) (latencyNanosMax / 1e6);
+  }
+
+
+  @Override
+  public synchronized String toString() {
+    return "PFrameRecorder[" + captured + " captured, " + written +
+      " written, " + dropped + " dropped, " + failed + " failed, queue " +
+      getQueueDepth() + "/" + bufferCount + ", avg encode " +
+      PApplet.nf(getAverageEncodeMillis(), 0, 1) + " ms]";
+  }
+
+
+  static protected class Frame {
+    PImage image;
+    String path;
+    long captureNanos;
+  }
+}
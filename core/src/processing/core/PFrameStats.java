@@ -0,0 +1,153 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+
+package processing.core;
+
+import java.util.Arrays;
+
+
+/**
+ * Timing of the most recent frames, get it with frameStats() in PApplet.
+ * For each frame it keeps how long handleDraw() took (draw() plus
+ * everything around it), and how late the frame started compared to when
+ * the frame rate said it should have. Times are in milliseconds.
+ * <p>
+ * Lateness is only measured when the sketch paces its own frames, with
+ * the default renderer. FX2D and OpenGL are paced by their toolkits, and
+ * report a lateness of 0.
+ */
+public class PFrameStats {
+  protected long[] drawNanos;
+  protected long[] lateNanos;
+  protected int index;
+  protected int size;
+
+  // over all frames since the last reset()
+  protected long frames;
+  protected long missed;
+  protected long drawNanosMin = Long.MAX_VALUE;
+  protected long drawNanosMax;
+  protected long lateNanosMax;
+
+
+  /** @param capacity number of frames used for the percentiles */
+  public PFrameStats(int capacity) {
+    drawNanos = new long[Math.max(1, capacity)];
+    lateNanos = new long[drawNanos.length];
+  }
+
+
+  /**
+   * Add a frame. A frame counts as missed when it starts at least one
+   * full period late.
+   */
+  public synchronized void record(long draw, long late, long period) {
+    drawNanos[index] = draw;
+    lateNanos[index] = late;
+    index = (index + 1) % drawNanos.length;
+    if (size < drawNanos.length) size++;
+
+    frames++;
+    if (period > 0 && late >= period) missed++;
+    drawNanosMin = Math.min(drawNanosMin, draw);
+    drawNanosMax = Math.max(drawNanosMax, draw);
+    lateNanosMax = Math.max(lateNanosMax, late);
+  }
+
+
+  public synchronized void reset() {
+    index = 0;
+    size = 0;
+    frames = 0;
+    missed = 0;
+    drawNanosMin = Long.MAX_VALUE;
+    drawNanosMax = 0;
+    lateNanosMax = 0;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  public synchronized long getFrameCount() {
+    return frames;
+  }
+
+
+  /** Frames that started a whole frame period (or more) late. */
+  public synchronized long getMissedFrames() {
+    return missed;
+  }
+
+
+  public synchronized float getMinDrawMillis() {
+    return (frames == 0) ? 0 : (float) (drawNanosMin / 1e6);
+  }
+
+
+  public synchronized float getMaxDrawMillis() {
+    return (float) (drawNanosMax / 1e6);
+  }
+
+
+  /**
+   * Draw time that the given percentage of recent frames stayed under,
+   * for instance 50 for the median, or 99 for the slowest frames.
+   */
+  public synchronized float getDrawMillis(float percentile) {
+    return percentile(drawNanos, percentile);
+  }
+
+
+  public synchronized float getMaxLateMillis() {
+    return (float) (lateNanosMax / 1e6);
+  }
+
+
+  /** Same as getDrawMillis(), for how late the frames started. */
+  public synchronized float getLateMillis(float percentile) {
+    return percentile(lateNanos, percentile);
+  }
+
+
+  // nearest rank, on a sorted copy of the recent frames
+  protected float percentile(long[] values, float percentile) {
+    if (size == 0) return 0;
+    long[] sorted = Arrays.copyOf(values, size);
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100 * size) - 1;
+    rank = Math.max(0, Math.min(size - 1, rank));
+    return (float) (sorted[rank] / 1e6);
+  }
+
+
+  @Override
+  public synchronized String toString() {
+    return "PFrameStats[" + frames + " frames, " + missed + " missed, draw " +
+      PApplet.nf(getDrawMillis(50), 0, 2) + " ms median, " +
+      PApplet.nf(getDrawMillis(99), 0, 2) + " ms p99, " +
+      PApplet.nf(getMaxDrawMillis(), 0, 2) + " ms max, late " +
+      PApplet.nf(getLateMillis(99), 0, 2) + " ms p99, " +
+      PApplet.nf(getMaxLateMillis(), 0, 2) + " ms max]";
+  }
+}
@@ -36,6 +36,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.WeakHashMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -218,6 +219,11 @@ public class PGraphics extends PImage implements PConstants {
    */
   protected boolean[] hints = new boolean[HINT_COUNT];
 
+  /** Child shapes skipped and drawn with hint(ENABLE_SHAPE_CULLING). */
+  protected int culledShapeCount;
+  protected int drawnShapeCount;
+  protected float[] shapeBounds = new float[6];
+
   // ........................................................
 
   /**
@@ -653,6 +659,16 @@ public class PGraphics extends PImage implements PConstants {
   protected int[] textBreakStart;
   protected int[] textBreakStop;
 
+  /**
+   * Strings recently measured and broken into lines, least recently used
+   * first, so that labels drawn on every frame are only laid out once.
+   */
+  protected TextLayoutCache textLayouts;
+  protected TextLayoutKey textLayoutProbe = new TextLayoutKey();
+  static protected final int MAX_TEXT_LAYOUTS = 256;
+  /** Longer strings are laid out every time, instead of being cached. */
+  static protected final int MAX_TEXT_LAYOUT_LENGTH = 1024;
+
   // ........................................................
 
   public boolean edge = true;
@@ -1172,6 +1188,11 @@ public class PGraphics extends PImage implements PConstants {
     } else if (which == DISABLE_KEY_REPEAT) {
       parent.keyRepeatEnabled = false;
     }
+    if (which == ENABLE_EVENT_COALESCING) {
+      parent.eventQueue.setCoalescing(true);
+    } else if (which == DISABLE_EVENT_COALESCING) {
+      parent.eventQueue.setCoalescing(false);
+    }
     if (which > 0) {
       hints[which] = true;
     } else {
@@ -4099,6 +4120,103 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * Called for each child of a group shape before drawing it. With
+   * hint(ENABLE_SHAPE_CULLING), returns true if the bounding box of the
+   * child is entirely out of view, so the child can be skipped.
+   */
+  protected boolean cullShape(PShape shape) {
+    if (!hints[ENABLE_SHAPE_CULLING] || !shape.isVisible()) {
+      return false;
+    }
+    if (shapeInView(shape)) {
+      drawnShapeCount++;
+      return false;
+    }
+    culledShapeCount++;
+    return true;
+  }
+
+
+  protected boolean shapeInView(PShape shape) {
+    return boundsInView(shape.getBounds(shapeBounds));
+  }
+
+
+  /**
+   * Returns false if the box, given as { minX, minY, minZ, maxX, maxY,
+   * maxZ } in the current model coordinates, is entirely out of view.
+   * Renderers that can't tell always return true.
+   */
+  protected boolean boundsInView(float[] bounds) {
+    return true;
+  }
+
+
+  /**
+   * Number of child shapes skipped by hint(ENABLE_SHAPE_CULLING) since
+   * beginDraw().
+   */
+  public int getCulledShapeCount() {
+    return culledShapeCount;
+  }
+
+
+  /**
+   * Number of child shapes tested by hint(ENABLE_SHAPE_CULLING) and drawn
+   * since beginDraw().
+   */
+  public int getDrawnShapeCount() {
+    return drawnShapeCount;
+  }
+
+
+  /**
+   * Size in pixels of one unit of the current model coordinates around the
+   * box, given as { minX, minY, minZ, maxX, maxY, maxZ }. Used to choose
+   * the level of detail of a shape, see PShape.setLOD(). Renderers that
+   * can't tell return infinity, so shapes are always drawn in full.
+   */
+  protected float screenScale(float[] bounds) {
+    return Float.POSITIVE_INFINITY;
+  }
+
+
+  /**
+   * Start drawing many copies of the same shape, each one placed with
+   * instance(), and finish with endInstances(). The shape is tessellated
+   * only once, so this is much faster than calling shape() for each copy.
+   * Only available with P2D and P3D.
+   */
+  public void beginInstances(PShape shape) {
+    showMissingWarning("beginInstances");
+  }
+
+
+  public void instance(float x, float y) {
+    instance(x, y, 0, 1, 0xFFFFFFFF);
+  }
+
+
+  /**
+   * Draw a copy of the shape passed to beginInstances().
+   *
+   * @param x x-coordinate of the copy
+   * @param y y-coordinate of the copy
+   * @param angle rotation of the copy, in radians
+   * @param scale size of the copy relative to the shape
+   * @param color tint multiplied with the colors of the shape
+   */
+  public void instance(float x, float y, float angle, float scale, int color) {
+    showMissingWarning("instance");
+  }
+
+
+  public void endInstances() {
+    showMissingWarning("endInstances");
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -4512,28 +4630,7 @@ public class PGraphics extends PImage implements PConstants {
     if (textFont == null) {
       defaultFontOrDeath("textWidth");
     }
-
-    int length = str.length();
-    if (length > textWidthBuffer.length) {
-      textWidthBuffer = new char[length + 10];
-    }
-    str.getChars(0, length, textWidthBuffer, 0);
-
-    float wide = 0;
-    int index = 0;
-    int start = 0;
-
-    while (index < length) {
-      if (textWidthBuffer[index] == '\n') {
-        wide = Math.max(wide, textWidthImpl(textWidthBuffer, start, index));
-        start = index+1;
-      }
-      index++;
-    }
-    if (start < length) {
-      wide = Math.max(wide, textWidthImpl(textWidthBuffer, start, index));
-    }
-    return wide;
+    return textLayout(str, -1).width;
   }
 
 
@@ -4657,12 +4754,13 @@ public class PGraphics extends PImage implements PConstants {
       defaultFontOrDeath("text");
     }
 
-    int length = str.length();
-    if (length > textBuffer.length) {
-      textBuffer = new char[length + 10];
+    TextLayout layout = textLayout(str, -1);
+    y += textOffsetY(layout.newlineCount * textLeading);
+    for (int i = 0; i < layout.lineCount; i++) {
+      // each line but the last one ends with a newline
+      textLayoutLine(layout, i, x, y);
+      y += textLeading;
     }
-    str.getChars(0, length, textBuffer, 0);
-    text(textBuffer, 0, length, x, y);
   }
 
 
@@ -4683,22 +4781,7 @@ public class PGraphics extends PImage implements PConstants {
         high += textLeading;
       }
     }
-    if (textAlignY == CENTER) {
-      // for a single line, this adds half the textAscent to y
-      // for multiple lines, subtract half the additional height
-      //y += (textAscent() - textDescent() - high)/2;
-      y += (textAscent() - high)/2;
-    } else if (textAlignY == TOP) {
-      // for a single line, need to add textAscent to y
-      // for multiple lines, no different
-      y += textAscent();
-    } else if (textAlignY == BOTTOM) {
-      // for a single line, this is just offset by the descent
-      // for multiple lines, subtract leading for each line
-      y -= textDescent() + high;
-    //} else if (textAlignY == BASELINE) {
-      // do nothing
-    }
+    y += textOffsetY(high);
 
 //    int start = 0;
     int index = 0;
@@ -4716,6 +4799,30 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * Offset of the first baseline for the current textAlign() vertical
+   * setting, for a block of text that's high plus one line.
+   */
+  protected float textOffsetY(float high) {
+    if (textAlignY == CENTER) {
+      // for a single line, this adds half the textAscent to y
+      // for multiple lines, subtract half the additional height
+      //y += (textAscent() - textDescent() - high)/2;
+      return (textAscent() - high)/2;
+    } else if (textAlignY == TOP) {
+      // for a single line, need to add textAscent to y
+      // for multiple lines, no different
+      return textAscent();
+    } else if (textAlignY == BOTTOM) {
+      // for a single line, this is just offset by the descent
+      // for multiple lines, subtract leading for each line
+      return -(textDescent() + high);
+    }
+    // BASELINE, do nothing
+    return 0;
+  }
+
+
   /**
    * Same as above but with a z coordinate.
    */
@@ -4800,35 +4907,7 @@ public class PGraphics extends PImage implements PConstants {
 //    // if the box is already too small, tell em to f off
 //    if (currentY > y2) return;
 
-    float spaceWidth = textWidth(' ');
-
-    if (textBreakStart == null) {
-      textBreakStart = new int[20];
-      textBreakStop = new int[20];
-    }
-    textBreakCount = 0;
-
-    int length = str.length();
-    if (length + 1 > textBuffer.length) {
-      textBuffer = new char[length + 1];
-    }
-    str.getChars(0, length, textBuffer, 0);
-    // add a fake newline to simplify calculations
-    textBuffer[length++] = '\n';
-
-    int sentenceStart = 0;
-    for (int i = 0; i < length; i++) {
-      if (textBuffer[i] == '\n') {
-//        currentY = textSentence(textBuffer, sentenceStart, i,
-//                                lineX, boxWidth, currentY, y2, spaceWidth);
-        boolean legit =
-          textSentence(textBuffer, sentenceStart, i, boxWidth, spaceWidth);
-        if (!legit) break;
-//      if (Float.isNaN(currentY)) break;  // word too big (or error)
-//      if (currentY > y2) break;  // past the box
-        sentenceStart = i + 1;
-      }
-    }
+    TextLayout layout = textLayout(str, boxWidth);
 
     // lineX is the position where the text starts, which is adjusted
     // to left/center/right based on the current textAlign
@@ -4846,27 +4925,27 @@ public class PGraphics extends PImage implements PConstants {
     // outside the box. [0151]
     float topAndBottom = textAscent() + textDescent();
     int lineFitCount = 1 + PApplet.floor((boxHeight - topAndBottom) / textLeading);
-    int lineCount = Math.min(textBreakCount, lineFitCount);
+    int lineCount = Math.min(layout.lineCount, lineFitCount);
 
     if (textAlignY == CENTER) {
       float lineHigh = textAscent() + textLeading * (lineCount - 1);
       float y = y1 + textAscent() + (boxHeight - lineHigh) / 2;
       for (int i = 0; i < lineCount; i++) {
-        textLineAlignImpl(textBuffer, textBreakStart[i], textBreakStop[i], lineX, y);
+        textLayoutLine(layout, i, lineX, y);
         y += textLeading;
       }
 
     } else if (textAlignY == BOTTOM) {
       float y = y2 - textDescent() - textLeading * (lineCount - 1);
       for (int i = 0; i < lineCount; i++) {
-        textLineAlignImpl(textBuffer, textBreakStart[i], textBreakStop[i], lineX, y);
+        textLayoutLine(layout, i, lineX, y);
         y += textLeading;
       }
 
     } else {  // TOP or BASELINE just go to the default
       float y = y1 + textAscent();
       for (int i = 0; i < lineCount; i++) {
-        textLineAlignImpl(textBuffer, textBreakStart[i], textBreakStop[i], lineX, y);
+        textLayoutLine(layout, i, lineX, y);
         y += textLeading;
       }
     }
@@ -4978,6 +5057,181 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * Break the string into lines and measure them with the current font
+   * and size, or reuse the result from the last time the same string was
+   * laid out with them.
+   *
+   * @param boxWidth width of the box to wrap the lines into, same as
+   * text(str, x1, y1, x2, y2), or -1 to only break lines at newlines
+   */
+  protected TextLayout textLayout(String str, float boxWidth) {
+    if (str.length() > MAX_TEXT_LAYOUT_LENGTH) {
+      return createTextLayout(str, boxWidth);
+    }
+    if (textLayouts == null) {
+      textLayouts = new TextLayoutCache();
+    }
+
+    // look up with a reusable key, so a hit doesn't allocate
+    textLayoutProbe.set(textFont, textSize, boxWidth, str);
+    TextLayout layout = textLayouts.get(textLayoutProbe);
+    if (layout == null) {
+      layout = createTextLayout(str, boxWidth);
+      TextLayoutKey key = new TextLayoutKey();
+      key.set(textFont, textSize, boxWidth, str);
+      textLayouts.put(key, layout);
+    }
+    return layout;
+  }
+
+
+  protected TextLayout createTextLayout(String str, float boxWidth) {
+    TextLayout layout = new TextLayout();
+    int length = str.length();
+
+    if (boxWidth < 0) {
+      layout.chars = str.toCharArray();
+      layout.lineStart = new int[4];
+      layout.lineStop = new int[4];
+      int start = 0;
+      for (int i = 0; i < length; i++) {
+        if (layout.chars[i] == '\n') {
+          layout.addLine(start, i);
+          layout.newlineCount++;
+          start = i + 1;
+        }
+      }
+      if (start < length) {
+        layout.addLine(start, length);
+      }
+
+    } else {
+      float spaceWidth = textWidth(' ');
+
+      if (textBreakStart == null) {
+        textBreakStart = new int[20];
+        textBreakStop = new int[20];
+      }
+      textBreakCount = 0;
+
+      // add a fake newline to simplify calculations
+      char[] buffer = new char[length + 1];
+      str.getChars(0, length, buffer, 0);
+      buffer[length++] = '\n';
+
+      int sentenceStart = 0;
+      for (int i = 0; i < length; i++) {
+        if (buffer[i] == '\n') {
+          boolean legit =
+            textSentence(buffer, sentenceStart, i, boxWidth, spaceWidth);
+          if (!legit) break;  // word too big (or error)
+          sentenceStart = i + 1;
+        }
+      }
+      layout.chars = buffer;
+      layout.lineCount = textBreakCount;
+      layout.lineStart = PApplet.subset(textBreakStart, 0, textBreakCount);
+      layout.lineStop = PApplet.subset(textBreakStop, 0, textBreakCount);
+    }
+
+    layout.lineWidth = new float[layout.lineCount];
+    for (int i = 0; i < layout.lineCount; i++) {
+      layout.lineWidth[i] = textWidthImpl(layout.chars, layout.lineStart[i],
+                                          layout.lineStop[i]);
+      layout.width = Math.max(layout.width, layout.lineWidth[i]);
+    }
+    return layout;
+  }
+
+
+  /**
+   * Same as textLineAlignImpl(), with the width of the line already known.
+   */
+  protected void textLayoutLine(TextLayout layout, int line,
+                                float x, float y) {
+    if (textAlign == CENTER) {
+      x -= layout.lineWidth[line] / 2f;
+
+    } else if (textAlign == RIGHT) {
+      x -= layout.lineWidth[line];
+    }
+
+    textLineImpl(layout.chars, layout.lineStart[line], layout.lineStop[line],
+                 x, y);
+  }
+
+
+  /** Lines of a string, laid out with a particular font and size. */
+  static protected class TextLayout {
+    char[] chars;
+    int lineCount;
+    int[] lineStart;
+    int[] lineStop;
+    float[] lineWidth;
+    /** Width of the widest line. */
+    float width;
+    int newlineCount;
+
+    void addLine(int start, int stop) {
+      if (lineCount == lineStart.length) {
+        lineStart = PApplet.expand(lineStart);
+        lineStop = PApplet.expand(lineStop);
+      }
+      lineStart[lineCount] = start;
+      lineStop[lineCount] = stop;
+      lineCount++;
+    }
+  }
+
+
+  static protected class TextLayoutKey {
+    PFont font;
+    float size;
+    float boxWidth;
+    String str;
+
+    void set(PFont font, float size, float boxWidth, String str) {
+      this.font = font;
+      this.size = size;
+      this.boxWidth = boxWidth;
+      this.str = str;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = System.identityHashCode(font);
+      result = 31 * result + Float.floatToIntBits(size);
+      result = 31 * result + Float.floatToIntBits(boxWidth);
+      return 31 * result + str.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof TextLayoutKey)) return false;
+      TextLayoutKey other = (TextLayoutKey) o;
+      return font == other.font && size == other.size &&
+        boxWidth == other.boxWidth && str.equals(other.str);
+    }
+  }
+
+
+  /** Keeps the most recently used layouts, up to MAX_TEXT_LAYOUTS. */
+  static protected class TextLayoutCache
+    extends LinkedHashMap<TextLayoutKey, TextLayout> {
+    private static final long serialVersionUID = 1L;
+
+    TextLayoutCache() {
+      super(64, 0.75f, true);  // access order
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<TextLayoutKey, TextLayout> eldest) {
+      return size() > MAX_TEXT_LAYOUTS;
+    }
+  }
+
+
   public void text(int num, float x, float y) {
     text(String.valueOf(num), x, y);
   }
@@ -139,6 +139,18 @@ public class PImage implements PConstants, Cloneable {
   protected boolean modified;
   protected int mx1, my1, mx2, my2;
 
+  /**
+   * Separate modified rectangles (x1, y1, x2, y2 for each), so renderers
+   * can update small edits in different corners of a large image without
+   * refreshing everything in between. The mx1/my1/mx2/my2 bounds above
+   * always contain all of them.
+   */
+  protected int[] modifiedRegions;
+  protected int modifiedRegionCount;
+
+  /** Past this many regions, they're collapsed into their bounds. */
+  static final int MAX_MODIFIED_REGIONS = 8;
+
   /** Loaded pixels flag */
   public boolean loaded = false;
 
@@ -382,11 +394,78 @@ public class PImage implements PConstants, Cloneable {
     my1 = 0;
     mx2 = pixelWidth;
     my2 = pixelHeight;
+    modifiedRegionCount = 0;
   }
 
 
   public void setModified(boolean m) {  // ignore
     modified = m;
+    modifiedRegionCount = 0;
+  }
+
+
+  /**
+   * Number of separate modified rectangles. If the image is modified, this
+   * is at least 1, and if only the bounds are known it's exactly 1.
+   */
+  public int getModifiedRegionCount() {  // ignore
+    if (!modified) return 0;
+    return (modifiedRegionCount == 0) ? 1 : modifiedRegionCount;
+  }
+
+
+  /**
+   * Returns the modified rectangles as x1, y1, x2, y2 for each of them,
+   * with getModifiedRegionCount() entries in use. The array is reused,
+   * so copy it if the values are needed after the next modification.
+   */
+  public int[] getModifiedRegions() {  // ignore
+    if (modifiedRegions == null) {
+      modifiedRegions = new int[4 * MAX_MODIFIED_REGIONS];
+    }
+    if (modifiedRegionCount == 0) {
+      modifiedRegions[0] = mx1;
+      modifiedRegions[1] = my1;
+      modifiedRegions[2] = mx2;
+      modifiedRegions[3] = my2;
+    }
+    return modifiedRegions;
+  }
+
+
+  /**
+   * Add a rectangle to the list of modified regions, merging it into an
+   * existing one that it overlaps. Called by updatePixels(x, y, w, h).
+   */
+  protected void addModifiedRegion(int x1, int y1, int x2, int y2) {
+    if (modifiedRegions == null) {
+      modifiedRegions = new int[4 * MAX_MODIFIED_REGIONS];
+    }
+    int[] r = modifiedRegions;
+    for (int i = 0; i < modifiedRegionCount; i++) {
+      int j = 4 * i;
+      if (x1 <= r[j + 2] && x2 >= r[j] && y1 <= r[j + 3] && y2 >= r[j + 1]) {
+        r[j] = Math.min(r[j], x1);
+        r[j + 1] = Math.min(r[j + 1], y1);
+        r[j + 2] = Math.max(r[j + 2], x2);
+        r[j + 3] = Math.max(r[j + 3], y2);
+        return;
+      }
+    }
+    if (modifiedRegionCount == MAX_MODIFIED_REGIONS) {
+      // too many separate edits, just use the bounds of all of them
+      r[0] = mx1;
+      r[1] = my1;
+      r[2] = mx2;
+      r[3] = my2;
+      modifiedRegionCount = 1;
+      return;
+    }
+    int j = 4 * modifiedRegionCount++;
+    r[j] = x1;
+    r[j + 1] = y1;
+    r[j + 2] = x2;
+    r[j + 3] = y2;
   }
 
 
@@ -467,10 +546,9 @@ public class PImage implements PConstants, Cloneable {
    *
    * ( end auto-generated )
    * <h3>Advanced</h3>
-   * Mark the pixels in this region as needing an update.
-   * This is not currently used by any of the renderers, however the api
-   * is structured this way in the hope of being able to use this to
-   * speed things up in the future.
+   * Mark the pixels in this region as needing an update. Separate calls
+   * are kept as separate regions (up to a small limit), which the Java2D
+   * and OpenGL renderers use to only refresh the parts that changed.
    * @webref pimage:pixels
    * @brief Updates the image with the data in its pixels[] array
    * @usage web_application
@@ -483,7 +561,19 @@ public class PImage implements PConstants, Cloneable {
     int x2 = x + w;
     int y2 = y + h;
 
+    // clipped copy of this rectangle for the region list
+    int rx1 = PApplet.max(0, PApplet.min(x, x2));
+    int ry1 = PApplet.max(0, PApplet.min(y, y2));
+    int rx2 = PApplet.min(pixelWidth, PApplet.max(x, x2));
+    int ry2 = PApplet.min(pixelHeight, PApplet.max(y, y2));
+
+    if (modified && modifiedRegionCount == 0) {
+      // only the bounds were set so far, keep them as the first region
+      addModifiedRegion(mx1, my1, mx2, my2);
+    }
+
     if (!modified) {
+      modifiedRegionCount = 0;
       mx1 = PApplet.max(0, x);
       mx2 = PApplet.min(pixelWidth, x2);
       my1 = PApplet.max(0, y);
@@ -501,6 +591,10 @@ public class PImage implements PConstants, Cloneable {
       if (y2 < my1) my1 = PApplet.max(0, y2);
       if (y2 > my2) my2 = PApplet.min(pixelHeight, y2);
     }
+
+    if (rx1 < rx2 && ry1 < ry2) {
+      addModifiedRegion(rx1, ry1, rx2, ry2);
+    }
   }
 
 
@@ -1879,7 +1973,8 @@ public class PImage implements PConstants, Cloneable {
                   pixels, pixelWidth, pixelHeight, dx, dy, dx2, dy2, mode);
       //src.updatePixels();
     }
-    updatePixels();
+    updatePixels(PApplet.min(dx, dx2), PApplet.min(dy, dy2),
+                 PApplet.abs(dw), PApplet.abs(dh));
   }
 
 
@@ -3204,6 +3299,70 @@ int testFunction(int dst, int src) {
   }
 
 
+  /**
+   * Writes a PNG using PNGEncoder, which compresses on several threads.
+   * Use PNGEncoder.setLevel() and setFilter() to trade file size for speed.
+   */
+  protected boolean savePNG(OutputStream output) {
+    try {
+      PNGEncoder.encode(this, output);
+      return true;
+
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return false;
+  }
+
+
+  /**
+   * Writes the pixels uncompressed, as a Netpbm PAM file. This is the
+   * quickest way to get frames to disk when recording a sequence, and
+   * the files can be read by ffmpeg or ImageMagick to be compressed later.
+   * <UL>
+   * <LI><TT>ALPHA</TT> &rarr; GRAYSCALE (uses lowest byte)
+   * <LI><TT>RGB</TT> &rarr; RGB
+   * <LI><TT>ARGB</TT> &rarr; RGB_ALPHA
+   * </UL>
+   */
+  protected boolean savePAM(OutputStream output) {
+    int depth = PNGEncoder.bytesPerPixel(format);
+    String tupleType = (format == ARGB) ? "RGB_ALPHA" :
+      ((format == ALPHA) ? "GRAYSCALE" : "RGB");
+    String header =
+      "P7\nWIDTH " + pixelWidth + "\nHEIGHT " + pixelHeight +
+      "\nDEPTH " + depth + "\nMAXVAL 255\nTUPLTYPE " + tupleType +
+      "\nENDHDR\n";
+    try {
+      output.write(header.getBytes("US-ASCII"));
+
+      byte[] row = new byte[pixelWidth * depth];
+      for (int y = 0; y < pixelHeight; y++) {
+        int index = y * pixelWidth;
+        int offset = 0;
+        for (int x = 0; x < pixelWidth; x++) {
+          int col = pixels[index++];
+          if (format == ALPHA) {
+            row[offset++] = (byte) col;
+          } else {
+            row[offset++] = (byte) (col >> 16);
+            row[offset++] = (byte) (col >> 8);
+            row[offset++] = (byte) col;
+            if (format == ARGB) row[offset++] = (byte) (col >>> 24);
+          }
+        }
+        output.write(row);
+      }
+      output.flush();
+      return true;
+
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return false;
+  }
+
+
   /**
    * Use ImageIO functions from Java 1.4 and later to handle image save.
    * Various formats are supported, typically jpeg, png, bmp, and wbmp.
@@ -3358,6 +3517,11 @@ int testFunction(int dst, int src) {
    * To get a list of the supported formats for writing, use: <BR>
    * <TT>println(javax.imageio.ImageIO.getReaderFormatNames())</TT>
    * <p>
+   * PNG files are written with PNGEncoder instead of ImageIO, because it
+   * uses all cores, and can be made faster still with PNGEncoder.setLevel(1).
+   * Use .pam to write uncompressed frames, which is
+   * even quicker and handy for sequences that get compressed afterwards.
+   * <p>
    * To use the original built-in image writers, use .tga or .tif as the
    * extension, or don't include an extension. When no extension is used,
    * the extension .tif will be added to the file name.
@@ -3397,6 +3561,17 @@ int testFunction(int dst, int src) {
     try {
       OutputStream os = null;
 
+      String lower = filename.toLowerCase();
+      if (lower.endsWith(".png") || lower.endsWith(".pam")) {
+        os = new BufferedOutputStream(new FileOutputStream(filename), 65536);
+        success = lower.endsWith(".png") ? savePNG(os) : savePAM(os);
+        os.close();
+        if (!success) {
+          System.err.println("Error while saving image.");
+        }
+        return success;
+      }
+
       if (saveImageFormats == null) {
         saveImageFormats = javax.imageio.ImageIO.getWriterFormatNames();
       }
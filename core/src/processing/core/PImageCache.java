@@ -0,0 +1,317 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Process-wide cache of decoded images used by loadImage(). Disabled by
+ * default, turn it on with PImageCache.enable().
+ * <p>
+ * Files are keyed by their canonical path, modification time and size, so
+ * an image that changes on disk is decoded again. Resources inside the
+ * sketch's jar are keyed by name. URLs are never cached.
+ * <p>
+ * Decoded images are held strongly up to a byte budget, least recently
+ * used first out. Evicted images move to a second tier of soft references,
+ * so they can still be reused if the garbage collector hasn't needed the
+ * memory. loadImage() always hands back a copy, so sketches modifying the
+ * pixels of a loaded image don't affect the cached version.
+ */
+public class PImageCache {
+  static private volatile PImageCache shared;
+
+  protected long maxBytes;
+  protected long bytes;
+
+  /** Strongly held images, in access order (least recent first). */
+  protected LinkedHashMap<String, PImage> recent =
+    new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Images pushed out of the strong tier. */
+  protected HashMap<String, SoftEntry> soft = new HashMap<>();
+  protected ReferenceQueue<PImage> collected = new ReferenceQueue<>();
+
+  protected long hits;
+  protected long softHits;
+  protected long misses;
+  protected long evictions;
+
+
+  public PImageCache(long maxBytes) {
+    this.maxBytes = Math.max(0, maxBytes);
+  }
+
+
+  /**
+   * Turn on the shared cache used by loadImage(), holding decoded images
+   * up to the specified number of bytes (4 bytes per pixel). If the cache
+   * is already on, only its budget is changed.
+   */
+  static public synchronized PImageCache enable(long maxBytes) {
+    if (shared == null) {
+      shared = new PImageCache(maxBytes);
+    } else {
+      shared.setMaxBytes(maxBytes);
+    }
+    return shared;
+  }
+
+
+  /** Turn off the shared cache and release everything it holds. */
+  static public synchronized void disable() {
+    if (shared != null) {
+      shared.clear();
+      shared = null;
+    }
+  }
+
+
+  /** The shared cache, or null if it hasn't been enabled. */
+  static public PImageCache shared() {
+    return shared;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Load an image through the cache, decoding it with the sketch's
+   * loadImageActual() on a miss.
+   */
+  public PImage load(PApplet sketch, String filename, String extension) {
+    String key = key(sketch, filename, extension);
+    if (key == null) {
+      return sketch.loadImageActual(filename, extension);
+    }
+
+    PImage cached = get(key);
+    if (cached == null) {
+      cached = sketch.loadImageActual(filename, extension);
+      // don't hold on to failures, or images with bad data
+      if (cached == null || cached.width <= 0 || cached.pixels == null) {
+        return cached;
+      }
+      put(key, cached);
+    }
+    PImage outgoing = cached.copy();
+    outgoing.parent = sketch;
+    return outgoing;
+  }
+
+
+  /**
+   * Build the key for a file, or return null if it shouldn't be cached.
+   */
+  protected String key(PApplet sketch, String filename, String extension) {
+    if (filename == null || filename.length() == 0) return null;
+
+    String suffix = (extension == null) ? "" : "|" + extension.toLowerCase();
+    try {
+      File file = new File(sketch.dataPath(filename));
+      if (!file.exists()) {
+        file = sketch.sketchFile(filename);
+      }
+      if (file.isFile()) {
+        return file.getCanonicalPath() + "|" + file.lastModified() +
+          "|" + file.length() + suffix;
+      }
+    } catch (IOException e) {
+      return null;
+    } catch (SecurityException e) {
+      return null;
+    }
+    if (filename.contains(":")) {
+      return null;  // most likely a URL, which may change at any time
+    }
+    // a resource inside the jar, which won't change while running
+    return "resource:" + filename + suffix;
+  }
+
+
+  public synchronized PImage get(String key) {
+    PImage image = recent.get(key);
+    if (image != null) {
+      hits++;
+      return image;
+    }
+    expungeCollected();
+    SoftEntry entry = soft.remove(key);
+    if (entry != null) {
+      image = entry.get();
+      if (image != null) {
+        // promote back to the strong tier
+        softHits++;
+        insert(key, image);
+        return image;
+      }
+    }
+    misses++;
+    return null;
+  }
+
+
+  public synchronized void put(String key, PImage image) {
+    soft.remove(key);
+    PImage previous = recent.remove(key);
+    if (previous != null) {
+      bytes -= sizeOf(previous);
+    }
+    insert(key, image);
+  }
+
+
+  protected void insert(String key, PImage image) {
+    long size = sizeOf(image);
+    if (size > maxBytes) {
+      // larger than the whole budget, only keep a soft reference
+      soft.put(key, new SoftEntry(key, image, collected));
+      return;
+    }
+    recent.put(key, image);
+    bytes += size;
+    trim();
+  }
+
+
+  /** Move least recently used images to the soft tier until under budget. */
+  protected void trim() {
+    Iterator<Map.Entry<String, PImage>> it = recent.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      Map.Entry<String, PImage> entry = it.next();
+      it.remove();
+      bytes -= sizeOf(entry.getValue());
+      soft.put(entry.getKey(),
+               new SoftEntry(entry.getKey(), entry.getValue(), collected));
+      evictions++;
+    }
+  }
+
+
+  /** Drop soft entries whose images have been garbage collected. */
+  protected void expungeCollected() {
+    Reference<? extends PImage> ref;
+    while ((ref = collected.poll()) != null) {
+      SoftEntry entry = (SoftEntry) ref;
+      if (soft.get(entry.key) == entry) {
+        soft.remove(entry.key);
+      }
+    }
+  }
+
+
+  static protected long sizeOf(PImage image) {
+    return (image.pixels == null) ? 0 : 4L * image.pixels.length;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = Math.max(0, maxBytes);
+    trim();
+  }
+
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+
+  /** Bytes used by the images held strongly. */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+
+  /** Number of images held strongly. */
+  public synchronized int size() {
+    return recent.size();
+  }
+
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+
+  /** Hits that were found in the soft reference tier. */
+  public synchronized long getSoftHits() {
+    return softHits;
+  }
+
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+
+  public synchronized void resetStats() {
+    hits = 0;
+    softHits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+
+
+  public synchronized void clear() {
+    recent.clear();
+    soft.clear();
+    bytes = 0;
+    expungeCollected();
+  }
+
+
+  @Override
+  public synchronized String toString() {
+    return "PImageCache[" + recent.size() + " images, " + bytes + " of " +
+      maxBytes + " bytes, " + hits + " hits (" + softHits + " soft), " +
+      misses + " misses, " + evictions + " evictions]";
+  }
+
+
+  static protected class SoftEntry extends SoftReference<PImage> {
+    final String key;
+
+    SoftEntry(String key, PImage image, ReferenceQueue<PImage> queue) {
+      super(image, queue);
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,390 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+/**
+ * Background image loading service used by requestImage(). Requests are
+ * kept in a bounded priority queue and decoded by a small pool of worker
+ * threads. Each request hands back a placeholder PImage right away, with
+ * the same conventions as requestImage(): width and height are 0 while
+ * the image is loading, and -1 if loading failed or was cancelled.
+ * <p>
+ * Requests may also specify a target size. If the format can be read with
+ * ImageIO, the image is decoded with source subsampling so that it's no
+ * smaller than the target size, which keeps memory use down when showing
+ * thumbnails of large images.
+ */
+public class PImageLoader {
+  /** Worker threads use this prefix, loadImage() checks for it. */
+  static final String THREAD_PREFIX = "requestImage";
+
+  static public final int DEFAULT_THREADS = 4;
+
+  protected PApplet parent;
+
+  protected Thread[] workers;
+
+  /** Pending requests, highest priority first, then in request order. */
+  protected final TreeSet<Request> queue = new TreeSet<>();
+
+  /** Max number of pending requests, or 0 for no limit. */
+  protected int maxQueued;
+
+  /** Used to keep requests with the same priority in FIFO order. */
+  protected long sequence;
+
+  protected volatile boolean disposed;
+
+
+  public PImageLoader(PApplet parent) {
+    this(parent, DEFAULT_THREADS, 0);
+  }
+
+
+  /**
+   * @param threads number of decoding threads
+   * @param maxQueued max number of pending requests, or 0 for no limit.
+   * When the queue is full, the lowest priority (and among those, the
+   * oldest) pending request is cancelled to make room for a new one.
+   */
+  public PImageLoader(PApplet parent, int threads, int maxQueued) {
+    this.parent = parent;
+    this.maxQueued = Math.max(0, maxQueued);
+    workers = new Thread[Math.max(1, threads)];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Thread(this::workerLoop, THREAD_PREFIX + "-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+
+  public Request request(String filename) {
+    return request(filename, null, 0, 0, 0);
+  }
+
+
+  public Request request(String filename, String extension) {
+    return request(filename, extension, 0, 0, 0);
+  }
+
+
+  public Request request(String filename, String extension, int priority) {
+    return request(filename, extension, priority, 0, 0);
+  }
+
+
+  /**
+   * Queue an image for loading. Has to be called from the animation thread,
+   * since it makes sure that any pending save to the same file completes.
+   *
+   * @param filename name of the file to load
+   * @param extension type of image to load, or null to use the file name
+   * @param priority requests with a higher priority are loaded first
+   * @param targetWidth width the image will be shown at, or 0 for full size
+   * @param targetHeight height the image will be shown at, or 0 for full size
+   */
+  public Request request(String filename, String extension, int priority,
+                         int targetWidth, int targetHeight) {
+    // Make sure saving to this file completes before trying to load it
+    // Has to be called on main thread, because P2D and P3D need GL functions
+    if (parent.g != null) {
+      parent.g.awaitAsyncSaveCompletion(filename);
+    }
+    Request request = new Request(filename, extension, priority,
+                                  targetWidth, targetHeight);
+    Request evicted = null;
+    synchronized (queue) {
+      if (disposed) {
+        request.finish(null);
+        return request;
+      }
+      request.order = sequence++;
+      queue.add(request);
+      if (maxQueued > 0 && queue.size() > maxQueued) {
+        evicted = oldestLowest();
+        queue.remove(evicted);
+      }
+      queue.notify();
+    }
+    if (evicted != null) {
+      evicted.cancel();
+    }
+    return request;
+  }
+
+
+  // The queue ends with the lowest priority, newest last, so walk back
+  // to the first request with that priority.
+  protected Request oldestLowest() {
+    Iterator<Request> it = queue.descendingIterator();
+    Request oldest = it.next();
+    while (it.hasNext()) {
+      Request request = it.next();
+      if (request.priority != oldest.priority) break;
+      oldest = request;
+    }
+    return oldest;
+  }
+
+
+  /** Number of requests waiting for a decoding thread. */
+  public int queued() {
+    synchronized (queue) {
+      return queue.size();
+    }
+  }
+
+
+  /** Cancel all pending requests. Images being decoded still complete. */
+  public void cancelAll() {
+    Request[] pending;
+    synchronized (queue) {
+      pending = queue.toArray(new Request[0]);
+      queue.clear();
+    }
+    for (Request request : pending) {
+      request.cancel();
+    }
+  }
+
+
+  /** Cancel all pending requests and stop the decoding threads. */
+  public void dispose() {
+    synchronized (queue) {
+      disposed = true;
+      queue.notifyAll();
+    }
+    cancelAll();
+  }
+
+
+  protected void workerLoop() {
+    while (true) {
+      Request request;
+      synchronized (queue) {
+        while (queue.isEmpty() && !disposed) {
+          try {
+            queue.wait();
+          } catch (InterruptedException e) { }
+        }
+        if (disposed) return;
+        request = queue.pollFirst();
+      }
+      if (request.isCancelled()) continue;
+
+      PImage actual = null;
+      try {
+        actual = decode(request);
+      } catch (Exception e) {
+        parent.printStackTrace(e);
+      }
+      request.finish(actual);
+    }
+  }
+
+
+  protected PImage decode(Request request) {
+    if (request.targetWidth > 0 || request.targetHeight > 0) {
+      PImage image = decodeSubsampled(request);
+      if (image != null) return image;
+    }
+    // cancelled while decoding: don't start over at full size
+    if (request.isCancelled()) return null;
+    return parent.loadImage(request.filename, request.extension);
+  }
+
+
+  /**
+   * Decode through ImageIO, skipping rows and columns in the source so that
+   * the result is still at least as large as the target size. Returns null
+   * if ImageIO can't read the file, so the caller can use loadImage(), or
+   * if the request was cancelled.
+   */
+  protected PImage decodeSubsampled(Request request) {
+    InputStream input = parent.createInput(request.filename);
+    if (input == null) return null;
+
+    ImageReader reader = null;
+    try (ImageInputStream iis = ImageIO.createImageInputStream(input)) {
+      if (iis == null) return null;
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) return null;
+      reader = readers.next();
+      reader.setInput(iis, true, true);
+      request.reader = reader;
+      if (request.isCancelled()) return null;
+
+      int w = reader.getWidth(0);
+      int h = reader.getHeight(0);
+      int step = Integer.MAX_VALUE;
+      if (request.targetWidth > 0) {
+        step = Math.min(step, w / request.targetWidth);
+      }
+      if (request.targetHeight > 0) {
+        step = Math.min(step, h / request.targetHeight);
+      }
+      step = Math.max(1, step);
+
+      ImageReadParam param = reader.getDefaultReadParam();
+      param.setSourceSubsampling(step, step, 0, 0);
+      BufferedImage bi = reader.read(0, param);
+      if (bi == null) return null;
+
+      PImage outgoing = new PImage(bi.getWidth(), bi.getHeight());
+      bi.getRGB(0, 0, outgoing.width, outgoing.height,
+                outgoing.pixels, 0, outgoing.width);
+      outgoing.checkAlpha();
+      outgoing.parent = parent;
+      return outgoing;
+
+    } catch (Exception e) {
+      // aborted by cancel(), or not readable by ImageIO
+      return null;
+
+    } finally {
+      request.reader = null;
+      if (reader != null) {
+        reader.dispose();
+      }
+      try {
+        input.close();
+      } catch (Exception e) { }
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Handle for a single queued image. The image field can be drawn right
+   * away, and will be filled in once the decode completes.
+   */
+  public class Request implements Comparable<Request> {
+    public final PImage image;
+
+    final String filename;
+    final String extension;
+    final int priority;
+    final int targetWidth;
+    final int targetHeight;
+    long order;
+
+    volatile boolean cancelled;
+    volatile boolean done;
+    volatile ImageReader reader;
+
+
+    Request(String filename, String extension, int priority,
+            int targetWidth, int targetHeight) {
+      this.filename = filename;
+      this.extension = extension;
+      this.priority = priority;
+      this.targetWidth = targetWidth;
+      this.targetHeight = targetHeight;
+      image = parent.createImage(0, 0, PConstants.ARGB);
+    }
+
+
+    public String getFilename() {
+      return filename;
+    }
+
+
+    public int getPriority() {
+      return priority;
+    }
+
+
+    public boolean isDone() {
+      return done;
+    }
+
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+
+    /**
+     * Stop loading this image. Removes it from the queue if it hasn't
+     * started yet, and aborts the decode if it's running. The image is
+     * marked with a width and height of -1, same as a failed load.
+     */
+    public void cancel() {
+      if (done) return;
+      cancelled = true;
+      synchronized (queue) {
+        queue.remove(this);
+      }
+      ImageReader r = reader;
+      if (r != null) {
+        r.abort();
+      }
+      finish(null);
+    }
+
+
+    synchronized void finish(PImage actual) {
+      if (done) return;
+      done = true;
+
+      // An error message should have already printed
+      if (actual == null || cancelled) {
+        image.width = -1;
+        image.height = -1;
+
+      } else {
+        image.format = actual.format;
+        image.pixels = actual.pixels;
+        image.pixelWidth = actual.width;
+        image.pixelHeight = actual.height;
+        image.pixelDensity = 1;
+        // set these last, since they're what sketches poll on
+        image.width = actual.width;
+        image.height = actual.height;
+      }
+    }
+
+
+    @Override
+    public int compareTo(Request o) {
+      if (priority != o.priority) {
+        return priority > o.priority ? -1 : 1;
+      }
+      return Long.compare(order, o.order);
+    }
+  }
+}
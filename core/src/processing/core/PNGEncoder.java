@@ -0,0 +1,462 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * PNG writer used by PImage.save(). By default the files come out about
+ * the same size as the ImageIO writer, setLevel(1) and setFilter(FILTER_SUB)
+ * make it several times faster, so that saveFrame() can keep up with a
+ * running sketch, at the cost of larger files.
+ * <p>
+ * The image is split into bands of rows, and each band is filtered and
+ * deflated on its own thread. Bands other than the last end with a sync
+ * flush, so the pieces concatenate into a single valid zlib stream and
+ * the result is a standard PNG file. The Adler-32 checksums of the bands
+ * are combined, rather than run again over the whole image.
+ */
+public class PNGEncoder {
+  static public final int FILTER_NONE = 0;
+  static public final int FILTER_SUB = 1;
+  static public final int FILTER_UP = 2;
+  static public final int FILTER_AVERAGE = 3;
+  static public final int FILTER_PAETH = 4;
+  /** Pick the filter for each row that gives the smallest sum of bytes. */
+  static public final int FILTER_ADAPTIVE = 5;
+
+  static final byte[] SIGNATURE = {
+    (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+  };
+
+  /** Uncompressed bytes of pixel data per band handed to a thread. */
+  static final int BAND_BYTES = 256 * 1024;
+
+  /** Written to the pHYs chunk, same as the 100 dpi used by ImageIO. */
+  static final int PIXELS_PER_METER = 3937;
+
+  static private volatile int level = 6;  // zlib default
+  static private volatile int filter = FILTER_ADAPTIVE;
+  static private volatile int threadCount =
+    Runtime.getRuntime().availableProcessors();
+
+
+  /**
+   * Set the deflate level used when saving PNG files, from 0 (stored,
+   * no compression) to 9 (smallest and slowest). The default is 6, with
+   * 1 files are somewhat larger but written several times faster.
+   */
+  static public void setLevel(int level) {
+    if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("PNG compression level must be " +
+                                         "between 0 and 9");
+    }
+    PNGEncoder.level = level;
+  }
+
+
+  static public int getLevel() {
+    return level;
+  }
+
+
+  /**
+   * Set the row filter, one of FILTER_NONE, FILTER_SUB, FILTER_UP,
+   * FILTER_AVERAGE, FILTER_PAETH, or FILTER_ADAPTIVE. ADAPTIVE (the
+   * default) tries all of them on each row, like ImageIO and libpng do.
+   * SUB is much cheaper and helps with gradients, PAETH is usually the
+   * best single filter for photographic content.
+   */
+  static public void setFilter(int filter) {
+    if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE) {
+      throw new IllegalArgumentException("Unknown PNG filter " + filter);
+    }
+    PNGEncoder.filter = filter;
+  }
+
+
+  static public int getFilter() {
+    return filter;
+  }
+
+
+  /**
+   * Set the number of threads used to compress a single image. Use 1 to
+   * encode on the calling thread only. The others come from PThreadPool,
+   * which is shared by all saves and has one thread per core.
+   */
+  static public void setThreads(int count) {
+    threadCount = Math.max(1, count);
+  }
+
+
+  static public int getThreads() {
+    return threadCount;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Write the image to the stream as a PNG. RGB images are written as
+   * 24-bit color, ARGB as 32-bit with alpha, and ALPHA images as 8-bit
+   * grayscale using the lowest byte of each pixel (same as TGA).
+   */
+  static public void encode(PImage image, OutputStream output) throws IOException {
+    final int width = image.pixelWidth;
+    final int height = image.pixelHeight;
+    final int[] pixels = image.pixels;
+    final int format = image.format;
+    final int bpp = bytesPerPixel(format);
+    final int rowBytes = 1 + width * bpp;  // leading filter type byte
+    final int level = PNGEncoder.level;
+    final int filter = PNGEncoder.filter;
+
+    int bandRows = Math.max(1, BAND_BYTES / rowBytes);
+    // an empty last band still ends the zlib stream when there are no rows
+    int bandCount = Math.max(1, (height + bandRows - 1) / bandRows);
+
+    Band[] bands = new Band[bandCount];
+    for (int i = 0; i < bandCount; i++) {
+      int start = i * bandRows;
+      int stop = Math.min(height, start + bandRows);
+      bands[i] = new Band(pixels, width, format, bpp, start, stop,
+                          i == bandCount - 1, level, filter);
+    }
+
+    PThreadPool.forEachRange(bandCount, threadCount, (from, to) -> {
+      for (int i = from; i < to; i++) {
+        bands[i].run();
+      }
+    });
+
+    output.write(SIGNATURE);
+
+    byte[] header = new byte[13];
+    putInt(header, 0, width);
+    putInt(header, 4, height);
+    header[8] = 8;  // bit depth
+    header[9] = (byte) colorType(format);
+    header[10] = 0;  // deflate
+    header[11] = 0;  // adaptive filtering (per-row filter byte)
+    header[12] = 0;  // no interlace
+    writeChunk(output, "IHDR", header, header.length);
+
+    byte[] density = new byte[9];
+    putInt(density, 0, PIXELS_PER_METER);
+    putInt(density, 4, PIXELS_PER_METER);
+    density[8] = 1;  // unit is the meter
+    writeChunk(output, "pHYs", density, density.length);
+
+    // zlib header: deflate with 32K window, no preset dictionary
+    byte[] zlibHeader = { 0x78, zlibLevelFlags(level) };
+    writeChunk(output, "IDAT", zlibHeader, zlibHeader.length);
+
+    long adler = 1;
+    for (Band band : bands) {
+      writeChunk(output, "IDAT", band.compressed, band.compressedLength);
+      adler = adler32Combine(adler, band.adler, band.length);
+    }
+    byte[] trailer = new byte[4];
+    putInt(trailer, 0, (int) adler);
+    writeChunk(output, "IDAT", trailer, trailer.length);
+
+    writeChunk(output, "IEND", new byte[0], 0);
+    output.flush();
+  }
+
+
+  /**
+   * Second byte of the zlib header, with the level in the same four
+   * groups that zlib uses, and the check bits for a 0x78 first byte.
+   */
+  static byte zlibLevelFlags(int level) {
+    if (level < 2) return 0x01;
+    if (level < 6) return 0x5E;
+    if (level == 6) return (byte) 0x9C;
+    return (byte) 0xDA;
+  }
+
+
+  static int bytesPerPixel(int format) {
+    if (format == PConstants.ARGB) return 4;
+    if (format == PConstants.ALPHA) return 1;
+    return 3;
+  }
+
+
+  static int colorType(int format) {
+    if (format == PConstants.ARGB) return 6;  // truecolor with alpha
+    if (format == PConstants.ALPHA) return 0;  // grayscale
+    return 2;  // truecolor
+  }
+
+
+  static void writeChunk(OutputStream output, String type,
+                         byte[] data, int length) throws IOException {
+    byte[] typeBytes = type.getBytes("US-ASCII");
+    byte[] number = new byte[4];
+    putInt(number, 0, length);
+    output.write(number);
+    output.write(typeBytes);
+    output.write(data, 0, length);
+
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, 0, length);
+    putInt(number, 0, (int) crc.getValue());
+    output.write(number);
+  }
+
+
+  static void putInt(byte[] b, int offset, int value) {
+    b[offset] = (byte) (value >>> 24);
+    b[offset + 1] = (byte) (value >>> 16);
+    b[offset + 2] = (byte) (value >>> 8);
+    b[offset + 3] = (byte) value;
+  }
+
+
+  /**
+   * Checksum of two concatenated blocks, given the checksum of each block
+   * and the length of the second. Same as adler32_combine() from zlib.
+   */
+  static long adler32Combine(long adler1, long adler2, long len2) {
+    final long BASE = 65521;
+    long rem = len2 % BASE;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = (rem * sum1) % BASE;
+    sum1 += (adler2 & 0xffff) + BASE - 1;
+    sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + BASE - rem;
+    if (sum1 >= BASE) sum1 -= BASE;
+    if (sum1 >= BASE) sum1 -= BASE;
+    if (sum2 >= (BASE << 1)) sum2 -= (BASE << 1);
+    if (sum2 >= BASE) sum2 -= BASE;
+    return sum1 | (sum2 << 16);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * A range of rows that's filtered and compressed independently. The row
+   * above the first row is read from the image, so filters that look at
+   * the previous row give the same result as a single-threaded encode.
+   */
+  static class Band implements Runnable {
+    final int[] pixels;
+    final int width;
+    final int format;
+    final int bpp;
+    final int start, stop;
+    final boolean last;
+    final int level;
+    final int filter;
+
+    byte[] compressed;
+    int compressedLength;
+    long adler;
+    long length;
+
+
+    Band(int[] pixels, int width, int format, int bpp, int start, int stop,
+         boolean last, int level, int filter) {
+      this.pixels = pixels;
+      this.width = width;
+      this.format = format;
+      this.bpp = bpp;
+      this.start = start;
+      this.stop = stop;
+      this.last = last;
+      this.level = level;
+      this.filter = filter;
+    }
+
+
+    @Override
+    public void run() {
+      int stride = width * bpp;
+      byte[] prev = new byte[stride];
+      byte[] curr = new byte[stride];
+      if (start > 0 && filter >= FILTER_UP) {
+        unpack(start - 1, prev);
+      }
+
+      byte[] filtered = new byte[(stop - start) * (stride + 1)];
+      byte[] trial = (filter == FILTER_ADAPTIVE) ? new byte[stride] : null;
+      int offset = 0;
+      for (int y = start; y < stop; y++) {
+        unpack(y, curr);
+        if (filter == FILTER_ADAPTIVE) {
+          filtered[offset++] =
+            (byte) filterAdaptive(curr, prev, trial, filtered, offset, stride);
+        } else {
+          filtered[offset++] = (byte) filter;
+          filterRow(filter, curr, prev, filtered, offset, stride);
+        }
+        offset += stride;
+        byte[] temp = prev;
+        prev = curr;
+        curr = temp;
+      }
+
+      Adler32 checksum = new Adler32();
+      checksum.update(filtered, 0, filtered.length);
+      adler = checksum.getValue();
+      length = filtered.length;
+
+      Deflater deflater = new Deflater(level, true);
+      deflater.setInput(filtered);
+      if (last) deflater.finish();
+
+      ByteArrayOutputStream out =
+        new ByteArrayOutputStream(level == 0 ? filtered.length + 1024 :
+                                  filtered.length / 2 + 64);
+      byte[] buffer = new byte[64 * 1024];
+      int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+      while (true) {
+        int count = deflater.deflate(buffer, 0, buffer.length, flush);
+        out.write(buffer, 0, count);
+        if (last) {
+          if (deflater.finished()) break;
+        } else if (count < buffer.length && deflater.needsInput()) {
+          break;
+        }
+      }
+      deflater.end();
+      compressed = out.toByteArray();
+      compressedLength = compressed.length;
+    }
+
+
+    void unpack(int y, byte[] row) {
+      int index = y * width;
+      int offset = 0;
+      if (format == PConstants.ARGB) {
+        for (int x = 0; x < width; x++) {
+          int argb = pixels[index++];
+          row[offset++] = (byte) (argb >> 16);
+          row[offset++] = (byte) (argb >> 8);
+          row[offset++] = (byte) argb;
+          row[offset++] = (byte) (argb >>> 24);
+        }
+      } else if (format == PConstants.ALPHA) {
+        for (int x = 0; x < width; x++) {
+          row[offset++] = (byte) pixels[index++];
+        }
+      } else {
+        for (int x = 0; x < width; x++) {
+          int rgb = pixels[index++];
+          row[offset++] = (byte) (rgb >> 16);
+          row[offset++] = (byte) (rgb >> 8);
+          row[offset++] = (byte) rgb;
+        }
+      }
+    }
+
+
+    /**
+     * Filters the row with each filter type and keeps the one with the
+     * lowest sum of absolute (signed) byte values, the heuristic from the
+     * PNG spec. Returns the filter type that was used.
+     */
+    int filterAdaptive(byte[] curr, byte[] prev, byte[] trial,
+                       byte[] out, int offset, int stride) {
+      int best = FILTER_NONE;
+      long bestSum = Long.MAX_VALUE;
+      for (int type = FILTER_NONE; type <= FILTER_PAETH; type++) {
+        filterRow(type, curr, prev, trial, 0, stride);
+        long sum = 0;
+        for (int i = 0; i < stride && sum < bestSum; i++) {
+          sum += Math.abs(trial[i]);
+        }
+        if (sum < bestSum) {
+          bestSum = sum;
+          best = type;
+          System.arraycopy(trial, 0, out, offset, stride);
+        }
+      }
+      return best;
+    }
+
+
+    void filterRow(int filter, byte[] curr, byte[] prev,
+                   byte[] out, int offset, int stride) {
+      switch (filter) {
+      case FILTER_NONE:
+        System.arraycopy(curr, 0, out, offset, stride);
+        break;
+
+      case FILTER_SUB:
+        for (int i = 0; i < bpp; i++) {
+          out[offset + i] = curr[i];
+        }
+        for (int i = bpp; i < stride; i++) {
+          out[offset + i] = (byte) (curr[i] - curr[i - bpp]);
+        }
+        break;
+
+      case FILTER_UP:
+        for (int i = 0; i < stride; i++) {
+          out[offset + i] = (byte) (curr[i] - prev[i]);
+        }
+        break;
+
+      case FILTER_AVERAGE:
+        for (int i = 0; i < bpp; i++) {
+          out[offset + i] = (byte) (curr[i] - ((prev[i] & 0xff) >> 1));
+        }
+        for (int i = bpp; i < stride; i++) {
+          int avg = ((curr[i - bpp] & 0xff) + (prev[i] & 0xff)) >> 1;
+          out[offset + i] = (byte) (curr[i] - avg);
+        }
+        break;
+
+      case FILTER_PAETH:
+        for (int i = 0; i < bpp; i++) {
+          out[offset + i] = (byte) (curr[i] - prev[i]);
+        }
+        for (int i = bpp; i < stride; i++) {
+          int a = curr[i - bpp] & 0xff;
+          int b = prev[i] & 0xff;
+          int c = prev[i - bpp] & 0xff;
+          int p = a + b - c;
+          int pa = Math.abs(p - a);
+          int pb = Math.abs(p - b);
+          int pc = Math.abs(p - c);
+          int pred = (pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : c;
+          out[offset + i] = (byte) (curr[i] - pred);
+        }
+        break;
+      }
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.Random;
+
+
+/**
+ * Perlin noise generator that can be shared between threads. It computes
+ * the same values as noise(), so new PNoise(seed) gives the same results as
+ * calling noiseSeed(seed) before noise(), and detail() works the same way
+ * as noiseDetail().
+ * <p>
+ * Unlike noise(), a PNoise never changes after it's created, so it can be
+ * used from any number of threads at once. The fill() methods use that to
+ * compute large grids of noise in bands of rows, one for each core.
+ */
+public class PNoise {
+  static final int PERLIN_YWRAPB = 4;
+  static final int PERLIN_YWRAP = 1<<PERLIN_YWRAPB;
+  static final int PERLIN_ZWRAPB = 8;
+  static final int PERLIN_ZWRAP = 1<<PERLIN_ZWRAPB;
+  static final int PERLIN_SIZE = 4095;
+
+  static final int PERLIN_TWOPI = PGraphics.SINCOS_LENGTH;
+  static final int PERLIN_PI = PERLIN_TWOPI >> 1;
+
+  /** Grids with fewer samples than this are filled on the calling thread. */
+  static final int MIN_PARALLEL_SAMPLES = 16384;
+
+  protected final float[] perlin;
+  protected final int octaves;
+  protected final float falloff;
+
+
+  /**
+   * Create a generator with the default detail, 4 octaves each with half
+   * the strength of the previous one.
+   */
+  public PNoise(long seed) {
+    this(seed, 4, 0.5f);
+  }
+
+
+  /**
+   * @param seed same as the value passed to noiseSeed()
+   * @param octaves number of octaves, see noiseDetail()
+   * @param falloff falloff factor for each octave, see noiseDetail()
+   */
+  public PNoise(long seed, int octaves, float falloff) {
+    this(createTable(seed), octaves, falloff);
+  }
+
+
+  protected PNoise(float[] perlin, int octaves, float falloff) {
+    this.perlin = perlin;
+    // same defaults as noiseDetail(), which ignores values out of range
+    this.octaves = (octaves > 0) ? octaves : 4;
+    this.falloff = (falloff > 0) ? falloff : 0.5f;
+  }
+
+
+  static protected float[] createTable(long seed) {
+    Random random = new Random(seed);
+    float[] perlin = new float[PERLIN_SIZE + 1];
+    for (int i = 0; i < PERLIN_SIZE + 1; i++) {
+      perlin[i] = random.nextFloat();
+    }
+    return perlin;
+  }
+
+
+  /**
+   * Returns a generator with the same seed and a different level of detail,
+   * see noiseDetail().
+   */
+  public PNoise detail(int octaves, float falloff) {
+    return new PNoise(perlin, octaves, falloff);
+  }
+
+
+  public int getOctaves() {
+    return octaves;
+  }
+
+
+  public float getFalloff() {
+    return falloff;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  public float noise(float x) {
+    return noise(x, 0f, 0f);
+  }
+
+
+  public float noise(float x, float y) {
+    return noise(x, y, 0f);
+  }
+
+
+  /**
+   * Returns the noise value at the coordinates, between 0 and 1 unless the
+   * falloff is greater than 0.5, same as noise().
+   */
+  public float noise(float x, float y, float z) {
+    if (x<0) x=-x;
+    if (y<0) y=-y;
+    if (z<0) z=-z;
+
+    int xi=(int)x, yi=(int)y, zi=(int)z;
+    float xf = x - xi;
+    float yf = y - yi;
+    float zf = z - zi;
+    float rxf, ryf;
+
+    float r=0;
+    float ampl=0.5f;
+
+    float n1,n2,n3;
+
+    for (int i=0; i<octaves; i++) {
+      int of=xi+(yi<<PERLIN_YWRAPB)+(zi<<PERLIN_ZWRAPB);
+
+      rxf=fsc(xf);
+      ryf=fsc(yf);
+
+      n1  = perlin[of&PERLIN_SIZE];
+      n1 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n1);
+      n2  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+      n2 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n2);
+      n1 += ryf*(n2-n1);
+
+      of += PERLIN_ZWRAP;
+      n2  = perlin[of&PERLIN_SIZE];
+      n2 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n2);
+      n3  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+      n3 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n3);
+      n2 += ryf*(n3-n2);
+
+      n1 += fsc(zf)*(n2-n1);
+
+      r += n1*ampl;
+      ampl *= falloff;
+      xi<<=1; xf*=2;
+      yi<<=1; yf*=2;
+      zi<<=1; zf*=2;
+
+      if (xf>=1.0f) { xi++; xf--; }
+      if (yf>=1.0f) { yi++; yf--; }
+      if (zf>=1.0f) { zi++; zf--; }
+    }
+    return r;
+  }
+
+
+  // same cosine interpolation as noise(), through the table in PGraphics
+  static private float fsc(float i) {
+    return 0.5f*(1.0f-PGraphics.cosLUT[(int)(i*PERLIN_PI)%PERLIN_TWOPI]);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Fill a grid of cols by rows values, stored row after row. The value at
+   * column i and row j is noise(x + i*step, y + j*step, z).
+   */
+  public void fill(float[] grid, int cols, int rows,
+                   float x, float y, float z, float step) {
+    fill(grid, cols, rows, x, y, z, step, step);
+  }
+
+
+  /**
+   * Fill a grid of cols by rows values, stored row after row. The value at
+   * column i and row j is noise(x + i*xstep, y + j*ystep, z).
+   */
+  public void fill(final float[] grid, final int cols, int rows,
+                   final float x, final float y, final float z,
+                   final float xstep, final float ystep) {
+    if (grid.length < cols * rows) {
+      throw new IllegalArgumentException("The grid needs at least " +
+                                         cols + " x " + rows + " values");
+    }
+    forEachBand(cols, rows, (from, to) -> {
+      for (int j = from; j < to; j++) {
+        float ny = y + j*ystep;
+        int offset = j * cols;
+        for (int i = 0; i < cols; i++) {
+          grid[offset + i] = noise(x + i*xstep, ny, z);
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Fill the pixels of an image with gray levels, black for 0 and white
+   * for 1. The pixel at column i and row j gets noise(x + i*step,
+   * y + j*step, z), counting the pixels of the image, not its width and
+   * height, when it has a pixel density of 2.
+   */
+  public void fill(PImage img, final float x, final float y, final float z,
+                   final float step) {
+    img.loadPixels();
+    final int[] pixels = img.pixels;
+    final int cols = img.pixelWidth;
+    forEachBand(cols, img.pixelHeight, (from, to) -> {
+      for (int j = from; j < to; j++) {
+        float ny = y + j*step;
+        int offset = j * cols;
+        for (int i = 0; i < cols; i++) {
+          int gray = (int) (noise(x + i*step, ny, z) * 255);
+          if (gray < 0) gray = 0;
+          if (gray > 255) gray = 255;
+          pixels[offset + i] = 0xff000000 | (gray << 16) | (gray << 8) | gray;
+        }
+      }
+    });
+    img.updatePixels();
+  }
+
+
+  // Splits the rows into one band per core and runs them on the shared
+  // pool, unless there are too few samples to be worth it.
+  static void forEachBand(int cols, int rows, PThreadPool.RangeTask task) {
+    boolean small = (long) cols * rows < MIN_PARALLEL_SAMPLES;
+    PThreadPool.forEachRange(rows, small ? 1 : PThreadPool.threads(), task);
+  }
+}
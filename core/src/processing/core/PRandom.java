@@ -0,0 +1,187 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+
+/**
+ * A stream of random numbers with the same methods as random() and
+ * randomGaussian(), get one with randomStream() in PApplet.
+ * <p>
+ * A stream isn't shared: it should only be used by one thread at a time,
+ * so there's no locking or contention. Parallel code gets one stream for
+ * each thread or task, either with split(), or with randomStream(id),
+ * which always returns the same stream for the same id after a call to
+ * randomSeed(). Either way, the numbers don't depend on how the threads
+ * are scheduled, so simulations run the same every time.
+ */
+public class PRandom {
+  // golden ratio increment, as used by SplittableRandom
+  static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  protected SplittableRandom random;
+
+  protected boolean haveNextGaussian;
+  protected float nextGaussian;
+
+
+  public PRandom(long seed) {
+    this(new SplittableRandom(seed));
+  }
+
+
+  protected PRandom(SplittableRandom random) {
+    this.random = random;
+  }
+
+
+  /**
+   * Seed of the stream with the given id, for a base seed. The id is mixed
+   * in so that nearby ids give unrelated streams.
+   */
+  static protected long streamSeed(long seed, long id) {
+    long z = seed + (id + 1) * GOLDEN_GAMMA;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+
+  /**
+   * Returns a new stream, independent from this one. Splitting in the same
+   * order always gives the same streams.
+   */
+  public PRandom split() {
+    return new PRandom(random.split());
+  }
+
+
+  /** Returns count new streams, for example one for each worker thread. */
+  public PRandom[] split(int count) {
+    PRandom[] outgoing = new PRandom[count];
+    for (int i = 0; i < count; i++) {
+      outgoing[i] = split();
+    }
+    return outgoing;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /** Returns a float from 0 up to (but not including) high. */
+  public float random(float high) {
+    // avoid an infinite loop when 0 or NaN are passed in
+    if (high == 0 || high != high) {
+      return 0;
+    }
+    float value = 0;
+    do {
+      value = nextFloat() * high;
+    } while (value == high);
+    return value;
+  }
+
+
+  /** Returns a float from low up to (but not including) high. */
+  public float random(float low, float high) {
+    if (low >= high) return low;
+    float diff = high - low;
+    float value = 0;
+    do {
+      value = random(diff) + low;
+    } while (value == high);
+    return value;
+  }
+
+
+  /** Returns an int from 0 up to (but not including) high. */
+  public int randomInt(int high) {
+    return (high <= 0) ? 0 : random.nextInt(high);
+  }
+
+
+  /**
+   * Returns a float from a normal distribution with a mean of 0 and a
+   * standard deviation of 1, same as randomGaussian().
+   */
+  public float randomGaussian() {
+    if (haveNextGaussian) {
+      haveNextGaussian = false;
+      return nextGaussian;
+    }
+    // polar method, same as java.util.Random.nextGaussian()
+    double v1, v2, s;
+    do {
+      v1 = 2 * random.nextDouble() - 1;
+      v2 = 2 * random.nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+    nextGaussian = (float) (v2 * multiplier);
+    haveNextGaussian = true;
+    return (float) (v1 * multiplier);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /** Fill the array with values from low up to (but not including) high. */
+  public void randomFill(float[] values, float low, float high) {
+    randomFill(values, 0, values.length, low, high);
+  }
+
+
+  public void randomFill(float[] values, int offset, int count,
+                         float low, float high) {
+    if (low >= high) {
+      Arrays.fill(values, offset, offset + count, low);
+      return;
+    }
+    float diff = high - low;
+    for (int i = offset; i < offset + count; i++) {
+      float value;
+      do {
+        value = nextFloat() * diff + low;
+      } while (value >= high);
+      values[i] = value;
+    }
+  }
+
+
+  /** Fill the array with values from randomGaussian(). */
+  public void randomGaussianFill(float[] values) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] = randomGaussian();
+    }
+  }
+
+
+  // 24 random bits, the precision of a float, same as Random.nextFloat()
+  protected float nextFloat() {
+    return (random.nextInt() >>> 8) * 0x1.0p-24f;
+  }
+}
@@ -25,6 +25,7 @@ package processing.core;
 import java.awt.Image;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -106,6 +107,26 @@ public class PShape implements PConstants {
 
   protected PMatrix matrix;
 
+  /**
+   * Cached bounding box, see getBounds(). Recalculated when boundsValid
+   * is false.
+   */
+  protected float[] bounds;
+  protected boolean boundsValid;
+
+  /**
+   * Simplified versions of a PATH or GEOMETRY shape, from the finest to
+   * the coarsest, see setLOD(). Null if the shape has none.
+   */
+  protected LevelOfDetail[] lods;
+  /** Tolerances passed to setLOD(), sorted from smallest to largest. */
+  protected float[] lodTolerances;
+  /** Box in the shape's own coordinates used to choose a level. */
+  protected float[] lodBounds;
+
+  /** Max distance in pixels between a simplified outline and the original. */
+  static protected float LOD_PIXEL_ERROR = 0.5f;
+
   protected int textureMode;
 
   /** Texture or image data associated with this shape. */
@@ -521,6 +542,507 @@ public class PShape implements PConstants {
   }
 
 
+  /**
+   * Get the bounding box of the shape and its children, with the shape's
+   * own transformation applied, so it's in the coordinates of its parent
+   * (or those of the sketch for the top-level shape). The box is stored as
+   * { minX, minY, minZ, maxX, maxY, maxZ }, and it's cached until the shape
+   * is modified. Shapes whose extent isn't known, for example those made
+   * with curveVertex(), get an infinite box, and empty shapes get a box
+   * where the min values are larger than the max values.
+   *
+   * @param target array to store the box, or null to create a new one
+   */
+  public float[] getBounds(float[] target) {
+    if (target == null || target.length < 6) {
+      target = new float[6];
+    }
+    if (!boundsValid) {
+      if (bounds == null) {
+        bounds = new float[6];
+      }
+      calcBounds(bounds);
+      if (matrix != null) {
+        transformBounds(bounds, matrix);
+      }
+      boundsValid = true;
+    }
+    System.arraycopy(bounds, 0, target, 0, 6);
+    return target;
+  }
+
+
+  /**
+   * Mark the bounding box of this shape and the groups that contain it
+   * for recalculation. Called whenever the geometry or the transformation
+   * of the shape changes.
+   */
+  protected void invalidateBounds() {
+    for (PShape shape = this; shape != null; shape = shape.parent) {
+      shape.boundsValid = false;
+    }
+  }
+
+
+  /**
+   * Calculate the bounding box in the shape's own coordinates. Strokes
+   * are accounted for by padding the box with the stroke weight.
+   */
+  protected void calcBounds(float[] bounds) {
+    emptyBounds(bounds);
+    if (family == GROUP) {
+      float[] child = new float[6];
+      for (int i = 0; i < childCount; i++) {
+        children[i].getBounds(child);
+        unionBounds(bounds, child);
+      }
+      return;
+    }
+
+    boolean known = (family == PRIMITIVE) ?
+      primitiveBounds(bounds) : vertexBounds(bounds);
+    if (!known) {
+      infiniteBounds(bounds);
+    } else if (stroke && bounds[0] <= bounds[3]) {
+      // a full weight rather than half of it, to leave room for the joins
+      for (int i = 0; i < 3; i++) {
+        bounds[i] -= strokeWeight;
+        bounds[i + 3] += strokeWeight;
+      }
+    }
+  }
+
+
+  /**
+   * Add the vertices of a PATH or GEOMETRY shape to the box. Returns false
+   * if the vertices don't contain the shape, which is the case with curve
+   * vertices. Bezier and quadratic curves stay within their control points.
+   */
+  protected boolean vertexBounds(float[] bounds) {
+    for (int i = 0; i < vertexCodeCount; i++) {
+      if (vertexCodes[i] == CURVE_VERTEX) return false;
+    }
+    for (int i = 0; i < vertexCount; i++) {
+      float[] vert = vertices[i];
+      includeBounds(bounds, vert[X], vert[Y], vert.length > 2 ? vert[Z] : 0);
+    }
+    return true;
+  }
+
+
+  protected boolean primitiveBounds(float[] bounds) {
+    if (params == null) return false;
+
+    switch (kind) {
+    case POINT:
+    case TRIANGLE:
+    case QUAD:
+      for (int i = 0; i + 1 < params.length; i += 2) {
+        includeBounds(bounds, params[i], params[i + 1], 0);
+      }
+      return true;
+
+    case LINE:
+      if (params.length == 4) {
+        includeBounds(bounds, params[0], params[1], 0);
+        includeBounds(bounds, params[2], params[3], 0);
+      } else {
+        includeBounds(bounds, params[0], params[1], params[2]);
+        includeBounds(bounds, params[3], params[4], params[5]);
+      }
+      return true;
+
+    case RECT:
+      modeBounds(bounds, image != null ? CORNER : rectMode);
+      return true;
+
+    case ELLIPSE:
+    case ARC:
+      modeBounds(bounds, ellipseMode);
+      return true;
+
+    case BOX:
+      float w = params[0];
+      float h = params.length == 3 ? params[1] : w;
+      float d = params.length == 3 ? params[2] : w;
+      includeBounds(bounds, -w/2, -h/2, -d/2);
+      includeBounds(bounds, +w/2, +h/2, +d/2);
+      return true;
+
+    case SPHERE:
+      float r = params[0];
+      includeBounds(bounds, -r, -r, -r);
+      includeBounds(bounds, +r, +r, +r);
+      return true;
+    }
+    return false;
+  }
+
+
+  // The first four params of a RECT, ELLIPSE or ARC, in the given mode.
+  protected void modeBounds(float[] bounds, int mode) {
+    float a = params[0];
+    float b = params[1];
+    float c = params[2];
+    float d = params[3];
+    if (mode == CORNER) {
+      includeBounds(bounds, a, b, 0);
+      includeBounds(bounds, a + c, b + d, 0);
+    } else if (mode == CORNERS) {
+      includeBounds(bounds, a, b, 0);
+      includeBounds(bounds, c, d, 0);
+    } else if (mode == CENTER) {
+      includeBounds(bounds, a - c/2, b - d/2, 0);
+      includeBounds(bounds, a + c/2, b + d/2, 0);
+    } else {  // RADIUS
+      includeBounds(bounds, a - c, b - d, 0);
+      includeBounds(bounds, a + c, b + d, 0);
+    }
+  }
+
+
+  static protected void emptyBounds(float[] bounds) {
+    bounds[0] = bounds[1] = bounds[2] = Float.POSITIVE_INFINITY;
+    bounds[3] = bounds[4] = bounds[5] = Float.NEGATIVE_INFINITY;
+  }
+
+
+  static protected void infiniteBounds(float[] bounds) {
+    bounds[0] = bounds[1] = bounds[2] = Float.NEGATIVE_INFINITY;
+    bounds[3] = bounds[4] = bounds[5] = Float.POSITIVE_INFINITY;
+  }
+
+
+  static protected void includeBounds(float[] bounds,
+                                      float x, float y, float z) {
+    if (x < bounds[0]) bounds[0] = x;
+    if (y < bounds[1]) bounds[1] = y;
+    if (z < bounds[2]) bounds[2] = z;
+    if (x > bounds[3]) bounds[3] = x;
+    if (y > bounds[4]) bounds[4] = y;
+    if (z > bounds[5]) bounds[5] = z;
+  }
+
+
+  static protected void unionBounds(float[] bounds, float[] other) {
+    for (int i = 0; i < 3; i++) {
+      if (other[i] < bounds[i]) bounds[i] = other[i];
+      if (other[i + 3] > bounds[i + 3]) bounds[i + 3] = other[i + 3];
+    }
+  }
+
+
+  /**
+   * Replace the box with the one containing its corners transformed by the
+   * matrix. Empty and infinite boxes are left as they are.
+   */
+  static protected void transformBounds(float[] bounds, PMatrix matrix) {
+    for (int i = 0; i < 6; i++) {
+      if (Float.isInfinite(bounds[i])) return;
+    }
+    float x0 = bounds[0], y0 = bounds[1], z0 = bounds[2];
+    float x1 = bounds[3], y1 = bounds[4], z1 = bounds[5];
+    emptyBounds(bounds);
+    if (matrix instanceof PMatrix2D) {
+      PMatrix2D m = (PMatrix2D) matrix;
+      for (int i = 0; i < 4; i++) {
+        float x = (i & 1) == 0 ? x0 : x1;
+        float y = (i & 2) == 0 ? y0 : y1;
+        includeBounds(bounds, m.m00*x + m.m01*y + m.m02,
+                              m.m10*x + m.m11*y + m.m12, z0);
+      }
+      bounds[5] = z1;
+    } else {
+      PMatrix3D m = (PMatrix3D) matrix;
+      for (int i = 0; i < 8; i++) {
+        float x = (i & 1) == 0 ? x0 : x1;
+        float y = (i & 2) == 0 ? y0 : y1;
+        float z = (i & 4) == 0 ? z0 : z1;
+        includeBounds(bounds, m.m00*x + m.m01*y + m.m02*z + m.m03,
+                              m.m10*x + m.m11*y + m.m12*z + m.m13,
+                              m.m20*x + m.m21*y + m.m22*z + m.m23);
+      }
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // LEVEL OF DETAIL
+
+
+  /**
+   * Create simplified versions of the shape, drawn in place of the full
+   * shape when it's small enough on screen that the difference can't be
+   * seen. Each tolerance is the max distance, in the units of the shape,
+   * between the outline of a simplified version and the original one, and
+   * a version is drawn when its tolerance is under half a pixel. Only PATH
+   * shapes and POLYGON shapes made of straight segments are simplified;
+   * for groups, this applies to all of the children.
+   * <p>
+   * The versions are made from the vertices as they are now, so call
+   * setLOD() again after changing them, or with no tolerances to remove
+   * them. With P2D and P3D, the version is chosen for the whole shape at
+   * once, so call this on the shape that's passed to shape().
+   *
+   * @param tolerances max errors allowed, one for each level of detail
+   */
+  public void setLOD(float... tolerances) {
+    float[] sorted = null;
+    if (tolerances != null && tolerances.length > 0) {
+      sorted = tolerances.clone();
+      Arrays.sort(sorted);
+    }
+    setLODImpl(sorted);
+  }
+
+
+  protected void setLODImpl(float[] tolerances) {
+    lodTolerances = tolerances;
+    lods = null;
+    lodBounds = null;
+    if (family == GROUP) {
+      for (int i = 0; i < childCount; i++) {
+        children[i].setLODImpl(tolerances);
+      }
+    } else if (tolerances != null) {
+      lods = createLODs(tolerances);
+    }
+    if (tolerances != null) {
+      lodBounds = new float[6];
+      calcBounds(lodBounds);
+    }
+  }
+
+
+  /**
+   * Simplify the vertices with each of the tolerances. Returns null if the
+   * shape can't be simplified.
+   */
+  protected LevelOfDetail[] createLODs(float[] tolerances) {
+    if (family != PATH && (family != GEOMETRY || kind != POLYGON)) {
+      return null;
+    }
+    float[] xyz = new float[3 * vertexCount];
+    for (int i = 0; i < vertexCount; i++) {
+      float[] vert = vertices[i];
+      xyz[3*i + 0] = vert[X];
+      xyz[3*i + 1] = vert[Y];
+      xyz[3*i + 2] = vert.length > 2 ? vert[Z] : 0;
+    }
+    LevelOfDetail[] levels = simplify(xyz, vertexCount,
+                                      vertexCodes, vertexCodeCount,
+                                      close || fill, tolerances);
+    if (levels != null) {
+      // the rows are shared with the full shape
+      for (LevelOfDetail lod : levels) {
+        lod.vertices = new float[lod.vertexCount][];
+        for (int i = 0; i < lod.vertexCount; i++) {
+          lod.vertices[i] = vertices[lod.indices[i]];
+        }
+      }
+    }
+    return levels;
+  }
+
+
+  /**
+   * Index of the coarsest level whose tolerance is under LOD_PIXEL_ERROR
+   * at the current scale of the renderer, or -1 to draw the full shape.
+   */
+  protected int chooseLOD(PGraphics g) {
+    int level = -1;
+    if (lodTolerances != null) {
+      float scale = g.screenScale(lodBounds);
+      while (level + 1 < lodTolerances.length &&
+             lodTolerances[level + 1] * scale <= LOD_PIXEL_ERROR) {
+        level++;
+      }
+    }
+    return level;
+  }
+
+
+  /** Draw the shape with the vertices of a simplified version. */
+  protected void drawLOD(PGraphics g, LevelOfDetail lod) {
+    float[][] savedVertices = vertices;
+    int savedCount = vertexCount;
+    int[] savedCodes = vertexCodes;
+    int savedCodeCount = vertexCodeCount;
+    vertices = lod.vertices;
+    vertexCount = lod.vertexCount;
+    vertexCodes = lod.codes;
+    vertexCodeCount = lod.codeCount;
+    try {
+      drawImpl(g);
+    } finally {
+      vertices = savedVertices;
+      vertexCount = savedCount;
+      vertexCodes = savedCodes;
+      vertexCodeCount = savedCodeCount;
+    }
+  }
+
+
+  /**
+   * Simplify the vertices, stored as x, y, z triplets, with the
+   * Douglas-Peucker algorithm, once for each tolerance. Contours separated
+   * by BREAK codes are simplified on their own. Returns null if there are
+   * no vertices, or if the codes contain curves.
+   */
+  static protected LevelOfDetail[] simplify(float[] xyz, int count,
+                                            int[] codes, int codeCount,
+                                            boolean closed,
+                                            float[] tolerances) {
+    if (count == 0) return null;
+    for (int i = 0; i < codeCount; i++) {
+      if (codes[i] != VERTEX && codes[i] != BREAK) return null;
+    }
+
+    LevelOfDetail[] levels = new LevelOfDetail[tolerances.length];
+    boolean[] keep = new boolean[count];
+    int[] stack = new int[2 * count + 4];
+    for (int t = 0; t < tolerances.length; t++) {
+      Arrays.fill(keep, false);
+      float tolSq = tolerances[t] * tolerances[t];
+      int start = 0;
+      int index = 0;
+      for (int c = 0; c < codeCount; c++) {
+        if (codes[c] == BREAK) {
+          simplifyContour(xyz, start, index - start, closed, tolSq,
+                          keep, stack);
+          start = index;
+        } else {
+          index++;
+        }
+      }
+      simplifyContour(xyz, start, count - start, closed, tolSq, keep, stack);
+
+      LevelOfDetail lod = new LevelOfDetail();
+      lod.tolerance = tolerances[t];
+      lod.indices = new int[count];
+      for (int i = 0; i < count; i++) {
+        if (keep[i]) lod.indices[lod.vertexCount++] = i;
+      }
+      lod.indices = Arrays.copyOf(lod.indices, lod.vertexCount);
+      if (codeCount > 0) {
+        // same codes, minus those of the vertices that were removed
+        lod.codes = new int[codeCount];
+        index = 0;
+        for (int c = 0; c < codeCount; c++) {
+          if (codes[c] == BREAK) {
+            lod.codes[lod.codeCount++] = BREAK;
+          } else if (keep[index++]) {
+            lod.codes[lod.codeCount++] = VERTEX;
+          }
+        }
+      }
+      levels[t] = lod;
+    }
+    return levels;
+  }
+
+
+  /**
+   * Mark the vertices of a contour that are kept with the given squared
+   * tolerance. Closed contours are split in two at their first vertex and
+   * the one farthest from it, and contours of three vertices or fewer are
+   * kept whole.
+   */
+  static protected void simplifyContour(float[] xyz, int start, int n,
+                                        boolean closed, float tolSq,
+                                        boolean[] keep, int[] stack) {
+    if (n <= 3) {
+      for (int i = 0; i < n; i++) {
+        keep[start + i] = true;
+      }
+      return;
+    }
+
+    // pairs of positions in the contour, where n stands for the first
+    // vertex again when the contour is closed
+    int top = 0;
+    keep[start] = true;
+    if (closed) {
+      int far = 1;
+      float max = -1;
+      for (int i = 1; i < n; i++) {
+        float d = segmentDistSq(xyz, start + i, start, start);
+        if (d > max) {
+          max = d;
+          far = i;
+        }
+      }
+      keep[start + far] = true;
+      stack[top++] = 0;
+      stack[top++] = far;
+      stack[top++] = far;
+      stack[top++] = n;
+    } else {
+      keep[start + n - 1] = true;
+      stack[top++] = 0;
+      stack[top++] = n - 1;
+    }
+
+    while (top > 0) {
+      int b = stack[--top];
+      int a = stack[--top];
+      if (b - a < 2) continue;
+
+      int ia = start + a;
+      int ib = start + (b == n ? 0 : b);
+      int split = -1;
+      float max = tolSq;
+      for (int p = a + 1; p < b; p++) {
+        float d = segmentDistSq(xyz, start + p, ia, ib);
+        if (d > max) {
+          max = d;
+          split = p;
+        }
+      }
+      if (split != -1) {
+        keep[start + split] = true;
+        stack[top++] = a;
+        stack[top++] = split;
+        stack[top++] = split;
+        stack[top++] = b;
+      }
+    }
+  }
+
+
+  /** Squared distance from vertex p to the segment between a and b. */
+  static protected float segmentDistSq(float[] xyz, int p, int a, int b) {
+    float ax = xyz[3*a], ay = xyz[3*a + 1], az = xyz[3*a + 2];
+    float dx = xyz[3*b] - ax, dy = xyz[3*b + 1] - ay, dz = xyz[3*b + 2] - az;
+    float px = xyz[3*p] - ax, py = xyz[3*p + 1] - ay, pz = xyz[3*p + 2] - az;
+    float len = dx*dx + dy*dy + dz*dz;
+    float t = 0;
+    if (len > 0) {
+      t = Math.max(0, Math.min(1, (px*dx + py*dy + pz*dz) / len));
+    }
+    float ex = px - t * dx;
+    float ey = py - t * dy;
+    float ez = pz - t * dz;
+    return ex*ex + ey*ey + ez*ez;
+  }
+
+
+  /**
+   * A simplified version of a shape: the indices of the vertices it keeps,
+   * and its vertex codes.
+   */
+  static protected class LevelOfDetail {
+    public float tolerance;
+    public int vertexCount;
+    public int[] indices;
+    public int codeCount;
+    public int[] codes;
+    /** Rows of the full shape, for the renderers that draw from them. */
+    public float[][] vertices;
+  }
+
+
 
   /*
   // TODO unapproved
@@ -788,6 +1310,7 @@ public class PShape implements PConstants {
 
     // this is the state of the shape
     openShape = false;
+    invalidateBounds();
   }
 
 
@@ -1586,6 +2109,32 @@ public class PShape implements PConstants {
   ////////////////////////////////////////////////////////////////////////
 
 
+  /**
+   * Do the work needed before this shape can be drawn (tessellation, for
+   * the OpenGL renderers) right away, instead of during the first shape()
+   * call. Does nothing for renderers that draw shapes directly.
+   */
+  public void prepare() {
+  }
+
+
+  /**
+   * Same as prepare(), but the work is done on a background thread. Until
+   * it completes, shape() skips this shape, and the shape shouldn't be
+   * modified. Use isPrepared() to find out when it's ready.
+   */
+  public void prepareAsync() {
+  }
+
+
+  /**
+   * Returns false while this shape is being prepared in the background.
+   */
+  public boolean isPrepared() {
+    return true;
+  }
+
+
   /**
    * Called by the following (the shape() command adds the g)
    * PShape s = loadShape("blah.svg");
@@ -1594,7 +2143,12 @@ public class PShape implements PConstants {
   public void draw(PGraphics g) {
     if (visible) {
       pre(g);
-      drawImpl(g);
+      int level = (lods == null) ? -1 : chooseLOD(g);
+      if (level == -1) {
+        drawImpl(g);
+      } else {
+        drawLOD(g, lods[level]);
+      }
       post(g);
     }
   }
@@ -1620,7 +2174,9 @@ public class PShape implements PConstants {
 
   protected void drawGroup(PGraphics g) {
     for (int i = 0; i < childCount; i++) {
-      children[i].draw(g);
+      if (!g.cullShape(children[i])) {
+        children[i].draw(g);
+      }
     }
   }
 
@@ -2048,6 +2604,7 @@ public class PShape implements PConstants {
     if (who.getName() != null) {
       addName(who.getName(), who);
     }
+    invalidateBounds();
   }
 
 
@@ -2074,6 +2631,7 @@ public class PShape implements PConstants {
       if (who.getName() != null) {
         addName(who.getName(), who);
       }
+      invalidateBounds();
     }
   }
 
@@ -2094,6 +2652,7 @@ public class PShape implements PConstants {
       if (child.getName() != null && nameTable != null) {
         nameTable.remove(child.getName());
       }
+      invalidateBounds();
     }
   }
 
@@ -2173,6 +2732,7 @@ public class PShape implements PConstants {
       return;
     }
     PApplet.arrayCopy(source, params);
+    invalidateBounds();
   }
 
 
@@ -2197,6 +2757,7 @@ public class PShape implements PConstants {
       vertexCodes = new int[vertexCodeCount];
       PApplet.arrayCopy(codes, vertexCodes, vertexCodeCount);
     }
+    invalidateBounds();
   }
 
   /**
@@ -2276,6 +2837,7 @@ public class PShape implements PConstants {
 
     vertices[index][X] = x;
     vertices[index][Y] = y;
+    invalidateBounds();
   }
 
 
@@ -2291,6 +2853,7 @@ public class PShape implements PConstants {
     vertices[index][X] = x;
     vertices[index][Y] = y;
     vertices[index][Z] = z;
+    invalidateBounds();
   }
 
 
@@ -2311,6 +2874,7 @@ public class PShape implements PConstants {
     } else if (vec.z != 0 && vec.z == vec.z) {
       throw new IllegalArgumentException("Cannot set a z-coordinate on a 2D shape");
     }
+    invalidateBounds();
   }
 
 
@@ -2604,6 +3168,7 @@ public class PShape implements PConstants {
     }
 
     this.stroke = stroke;
+    invalidateBounds();
   }
 
   /**
@@ -2690,6 +3255,7 @@ public class PShape implements PConstants {
         setStrokeWeight(i, weight);
       }
     }
+    invalidateBounds();
   }
 
 
@@ -3320,6 +3886,8 @@ public class PShape implements PConstants {
    * that can handle <em>at least</em> the specified number of dimensions.
    */
   protected void checkMatrix(int dimensions) {
+    // called before every change to the matrix
+    invalidateBounds();
     if (matrix == null) {
       if (dimensions == 2) {
         matrix = new PMatrix2D();
@@ -22,6 +22,8 @@
 
 package processing.core;
 
+import java.util.concurrent.locks.LockSupport;
+
 
 /**
  * Surface that's not really visible. Used for PDF and friends, or as a base
@@ -38,6 +40,12 @@ public class PSurfaceNone implements PSurface {
   protected float frameRateTarget = 60;
   protected long frameRatePeriod = 1000000000L / 60L;
 
+  /** With PRECISE_PACING, stop sleeping this long before the next frame. */
+  static final long SPIN_NANOS = 2000000L;
+
+  /** With FIXED_PACING, frames that can be made up before giving up. */
+  static final int MAX_CATCH_UP = 5;
+
 
   public PSurfaceNone(PGraphics graphics) {
     this.graphics = graphics;
@@ -291,11 +299,27 @@ public class PSurfaceNone implements PSurface {
       }
       */
 
+      // when the next frame should start, for lateness and FIXED_PACING
+      long dueTime = beforeTime;
+
       // un-pause the sketch and get rolling
       sketch.start();
 
+      if (sketch.renderFrames > 0) {
+        renderFrames();
+        // quit once done, same as calling exit()
+        sketch.exitCalled = true;
+      }
+
       while ((Thread.currentThread() == thread) && !sketch.finished) {
-        checkPause();
+        if (paused) {
+          checkPause();
+          // don't count the pause as lateness, or try to catch up on it
+          dueTime = System.nanoTime();
+        }
+        long frameStart = System.nanoTime();
+        sketch.frameDueNanos = dueTime;
+        sketch.framePeriodNanos = frameRatePeriod;
 
         // Don't resize the renderer from the EDT (i.e. from a ComponentEvent),
         // otherwise it may attempt a resize mid-render.
@@ -333,6 +357,25 @@ public class PSurfaceNone implements PSurface {
         // separate thread, meaning that the next frame will start
         // before the update/paint is completed
 
+        int pacing = sketch.framePacing;
+        if (pacing == PConstants.PRECISE_PACING) {
+          dueTime = frameStart + frameRatePeriod;
+          waitUntil(dueTime);
+          beforeTime = System.nanoTime();
+          continue;
+
+        } else if (pacing == PConstants.FIXED_PACING) {
+          dueTime += frameRatePeriod;
+          if (System.nanoTime() - dueTime > MAX_CATCH_UP * frameRatePeriod) {
+            // too far behind, start a new schedule from now
+            dueTime = System.nanoTime();
+          }
+          waitUntil(dueTime);
+          beforeTime = System.nanoTime();
+          continue;
+        }
+        dueTime = beforeTime + frameRatePeriod;
+
         long afterTime = System.nanoTime();
         long timeDiff = afterTime - beforeTime;
         //System.out.println("time diff is " + timeDiff);
@@ -367,5 +410,61 @@ public class PSurfaceNone implements PSurface {
         sketch.exitActual();
       }
     }
+
+
+    /**
+     * Offline rendering, with --render-frames: draw the frames back to back
+     * without waiting between them, then wait for the saved frames to be
+     * written and report the throughput.
+     */
+    protected void renderFrames() {
+      long start = System.nanoTime();
+      // frame 0 is setup(), so stop after frame renderFrames
+      while ((Thread.currentThread() == thread) && !sketch.finished &&
+             sketch.frameCount <= sketch.renderFrames) {
+        if (!sketch.looping && !sketch.redraw && sketch.frameCount > 0) {
+          break;  // noLoop(), there won't be any more frames
+        }
+        callDraw();
+      }
+      long drawn = System.nanoTime();
+      int frames = Math.max(0, sketch.frameCount - 1);
+
+      // finishes the async saveFrame() calls and any recording
+      sketch.dispose();
+      long done = System.nanoTime();
+
+      double seconds = (done - start) / 1e9;
+      System.out.println("Rendered " + frames + " frames in " +
+                         PApplet.nf((float) seconds, 0, 2) + " s (" +
+                         PApplet.nf((float) (frames / seconds), 0, 1) +
+                         " fps), " +
+                         PApplet.nf((float) ((done - drawn) / 1e9), 0, 2) +
+                         " s of that waiting for frames to be saved");
+    }
+
+
+    /**
+     * Park until shortly before the deadline, then spin the rest of the
+     * way. Sleeping can overshoot by a millisecond or more, spinning for
+     * the last part lands within a few microseconds.
+     * <p>
+     * Returns early when the thread is stopped or interrupted, since
+     * parkNanos() returns right away while the interrupt flag is set. Like
+     * the Thread.sleep() in the default pacing, an interrupt only ends the
+     * current wait.
+     */
+    protected void waitUntil(long deadline) {
+      long remaining;
+      while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+        LockSupport.parkNanos(remaining - SPIN_NANOS);
+        if (Thread.interrupted() || Thread.currentThread() != thread) {
+          return;
+        }
+      }
+      while (deadline - System.nanoTime() > 0) {
+        Thread.yield();
+      }
+    }
   }
 }
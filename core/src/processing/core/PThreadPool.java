@@ -0,0 +1,164 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+
+package processing.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Daemon threads shared by the parts of core and the OpenGL renderer that
+ * split work across cores, one thread per core. Use forEachRange() for
+ * work that can be cut into ranges, or submit tasks to pool() directly.
+ * <p>
+ * Code running on one of these threads shouldn't wait on other tasks in
+ * the pool, since they may be queued behind it. forEachRange() is safe to
+ * call from anywhere: the calling thread takes ranges as well, and only
+ * waits for ranges that another thread has already started.
+ */
+public class PThreadPool {
+  static private ExecutorService pool;
+
+
+  public interface RangeTask {
+    void run(int from, int to);
+  }
+
+
+  /** Number of threads in the pool, the number of cores. */
+  static public int threads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+
+  static public synchronized ExecutorService pool() {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(threads(), r -> {
+        Thread t = new Worker(r);
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return pool;
+  }
+
+
+  /** True when called from one of the pool threads. */
+  static public boolean isWorker() {
+    return Thread.currentThread() instanceof Worker;
+  }
+
+
+  /**
+   * Split [0, count) into one range per core, and run them on the pool
+   * and the calling thread.
+   */
+  static public void forEachRange(int count, RangeTask task) {
+    forEachRange(count, threads(), task);
+  }
+
+
+  /**
+   * Split [0, count) into at most parts ranges, and run them on the pool
+   * and the calling thread. Returns once all the ranges are done, and
+   * rethrows the first exception thrown by the task.
+   */
+  static public void forEachRange(final int count, int parts,
+                                  final RangeTask task) {
+    if (parts < 2 || count < 2) {
+      task.run(0, count);
+      return;
+    }
+
+    final int size = (count + parts - 1) / parts;
+    final int rangeCount = (count + size - 1) / size;
+    final AtomicInteger next = new AtomicInteger();
+    final CountDownLatch finished = new CountDownLatch(rangeCount);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Runnable worker = () -> {
+      int i;
+      while ((i = next.getAndIncrement()) < rangeCount) {
+        try {
+          if (failure.get() == null) {
+            task.run(i * size, Math.min(count, (i + 1) * size));
+          }
+        } catch (Throwable t) {
+          failure.compareAndSet(null, t);
+        }
+        finished.countDown();
+      }
+    };
+    ExecutorService pool = pool();
+    for (int i = 1; i < rangeCount; i++) {
+      pool.execute(worker);
+    }
+    worker.run();
+
+    // ranges that were started have to finish before returning
+    boolean interrupted = false;
+    while (true) {
+      try {
+        finished.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    rethrow(failure.get());
+  }
+
+
+  /**
+   * Throw the cause of a failed task from the thread that waited for it,
+   * unchanged if it's unchecked.
+   */
+  static public RuntimeException rethrow(ExecutionException e) {
+    rethrow(e.getCause());
+    return new RuntimeException(e);
+  }
+
+
+  static void rethrow(Throwable cause) {
+    if (cause == null) return;
+    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+    if (cause instanceof Error) throw (Error) cause;
+    throw new RuntimeException(cause);
+  }
+
+
+  static class Worker extends Thread {
+    static final AtomicInteger number = new AtomicInteger();
+
+    Worker(Runnable r) {
+      super(r, "Processing worker " + number.incrementAndGet());
+    }
+  }
+}
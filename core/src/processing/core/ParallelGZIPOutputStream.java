@@ -0,0 +1,187 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+
+package processing.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Writes gzip data, compressing blocks of the input on several threads,
+ * the way pigz does. Each block becomes a complete gzip member, and the
+ * members are written one after another, which is still a standard gzip
+ * file: gunzip and GZIPInputStream read it back as a single stream.
+ * <p>
+ * Like GZIPOutputStream, flush() doesn't force out the block that's still
+ * being filled, so flushing often doesn't make the compression worse.
+ */
+class ParallelGZIPOutputStream extends OutputStream {
+  static final int BLOCK_SIZE = 1 << 17;
+
+  // header for each member, same as GZIPOutputStream writes
+  static final byte[] HEADER = {
+    (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+  };
+
+  protected OutputStream out;
+  protected ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+  protected int maxPending;
+
+  protected byte[] block = new byte[BLOCK_SIZE];
+  protected int count;
+  protected boolean written;
+  protected boolean closed;
+
+
+  ParallelGZIPOutputStream(OutputStream out) {
+    this.out = out;
+    // keep every thread busy, without holding the whole file in memory
+    maxPending = 2 * Runtime.getRuntime().availableProcessors();
+  }
+
+
+  @Override
+  public void write(int b) throws IOException {
+    block[count++] = (byte) b;
+    if (count == block.length) {
+      submit();
+    }
+  }
+
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int n = Math.min(len, block.length - count);
+      System.arraycopy(b, off, block, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == block.length) {
+        submit();
+      }
+    }
+  }
+
+
+  /** Write the blocks that are done compressing, and flush the output. */
+  @Override
+  public void flush() throws IOException {
+    while (!pending.isEmpty()) {
+      writeNext();
+    }
+    out.flush();
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    try {
+      // an empty file still needs one member to be valid gzip
+      if (count > 0 || !written) {
+        submit();
+      }
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+
+  protected void submit() throws IOException {
+    final byte[] data = block;
+    final int length = count;
+    if (PThreadPool.isWorker()) {
+      // can't wait for blocks queued behind this thread on the same pool
+      pending.add(CompletableFuture.completedFuture(compress(data, length)));
+    } else {
+      pending.add(PThreadPool.pool().submit(() -> compress(data, length)));
+    }
+    block = new byte[BLOCK_SIZE];
+    count = 0;
+    written = true;
+
+    while (pending.size() > maxPending) {
+      writeNext();
+    }
+  }
+
+
+  protected void writeNext() throws IOException {
+    Future<byte[]> next = pending.poll();
+    try {
+      out.write(next.get());
+
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+
+  static protected byte[] compress(byte[] data, int length) {
+    ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+    member.write(HEADER, 0, HEADER.length);
+
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput(data, 0, length);
+      deflater.finish();
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buffer);
+        member.write(buffer, 0, n);
+      }
+    } finally {
+      deflater.end();
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, length);
+    writeInt(member, (int) crc.getValue());
+    writeInt(member, length);
+    return member.toByteArray();
+  }
+
+
+  // little endian, as gzip wants it
+  static private void writeInt(ByteArrayOutputStream output, int value) {
+    output.write(value & 0xff);
+    output.write((value >> 8) & 0xff);
+    output.write((value >> 16) & 0xff);
+    output.write((value >> 24) & 0xff);
+  }
+}
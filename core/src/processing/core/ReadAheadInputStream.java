@@ -0,0 +1,154 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+
+package processing.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Reads another stream on a separate thread, a few chunks ahead of the
+ * reader. Used around GZIPInputStream so that decompressing the next part
+ * of a file happens while the current one is being parsed.
+ */
+class ReadAheadInputStream extends InputStream {
+  static final int CHUNK_SIZE = 1 << 16;
+  static final int QUEUE_SIZE = 16;
+  static final byte[] END = new byte[0];
+
+  protected InputStream input;
+  protected BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  protected Thread thread;
+  protected volatile IOException failure;
+
+  protected byte[] chunk = new byte[0];
+  protected int position;
+  protected boolean ended;
+  protected volatile boolean closed;
+
+
+  ReadAheadInputStream(InputStream input, String name) {
+    this.input = input;
+    thread = new Thread(this::readLoop, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+
+  @Override
+  public int read() throws IOException {
+    if (position == chunk.length && !nextChunk()) {
+      return -1;
+    }
+    return chunk[position++] & 0xff;
+  }
+
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) return 0;
+    if (position == chunk.length && !nextChunk()) {
+      return -1;
+    }
+    int n = Math.min(len, chunk.length - position);
+    System.arraycopy(chunk, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+
+  @Override
+  public int available() {
+    return chunk.length - position;
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    ended = true;
+    // the read thread closes the input when it exits
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+  }
+
+
+  protected boolean nextChunk() throws IOException {
+    if (closed) throw new IOException("Stream closed");
+    if (ended) return false;
+    try {
+      chunk = queue.take();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+    position = 0;
+    if (chunk == END) {
+      ended = true;
+      if (failure != null) throw failure;
+      return false;
+    }
+    return true;
+  }
+
+
+  protected void readLoop() {
+    try {
+      while (!closed) {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int count = 0;
+        int n = 0;
+        while (count < buffer.length &&
+               (n = input.read(buffer, count, buffer.length - count)) != -1) {
+          count += n;
+        }
+        if (count > 0) {
+          queue.put((count == buffer.length) ?
+                    buffer : Arrays.copyOf(buffer, count));
+        }
+        if (n == -1) break;
+      }
+    } catch (IOException e) {
+      failure = e;
+    } catch (InterruptedException e) {
+      // closed while waiting for the reader
+      return;
+    } finally {
+      try {
+        input.close();
+      } catch (IOException e) { }
+    }
+    try {
+      queue.put(END);
+    } catch (InterruptedException e) { }
+  }
+}
@@ -457,6 +457,30 @@ public class LinePath {
   }
 
 
+  /**
+   * Strokes the path into the output of the stroker, which has to be set
+   * with <code>setOutput</code>. Unlike createStrokedPath, nothing is
+   * allocated here, so the same stroker can be reused for every path.
+   *
+   * @param src
+   *          the original path to be stroked
+   * @param weight
+   *          the weight of the stroked path
+   * @param caps
+   *          the decoration of the ends of the segments in the path
+   * @param join
+   *          the decoration applied where path segments meet
+   * @param stroker
+   *          the stroker, already connected to its output
+   */
+  static public void strokeTo(LinePath src, float weight, int caps, int join,
+                              LineStroker stroker) {
+    stroker.setParameters(FloatToS15_16(weight), caps, join,
+                          FloatToS15_16(defaultMiterlimit), identity);
+    pathTo(src, stroker);
+  }
+
+
   private static void strokeTo(LinePath src, float width, int caps, int join,
                                float miterlimit, PMatrix2D transform,
                                LineStroker lsink) {
@@ -464,30 +488,31 @@ public class LinePath {
                             FloatToS15_16(miterlimit),
                             transform == null ? identity : transform);
 
-    PathIterator pi = src.getPathIterator();
-    pathTo(pi, lsink);
+    pathTo(src, lsink);
   }
 
 
-  private static void pathTo(PathIterator pi, LineStroker lsink) {
-    float coords[] = new float[6];
-    while (!pi.isDone()) {
-      int color;
-      switch (pi.currentSegment(coords)) {
+  // Same as going through the PathIterator, but reading the arrays
+  // directly, to avoid creating the iterator and the coordinates array.
+  private static void pathTo(LinePath src, LineStroker lsink) {
+    int pointIdx = 0;
+    int colorIdx = 0;
+    for (int typeIdx = 0; typeIdx < src.numTypes; typeIdx++) {
+      switch (src.pointTypes[typeIdx]) {
       case SEG_MOVETO:
-        color = ((int)coords[2]<<24) |
-                ((int)coords[3]<<16) |
-                ((int)coords[4]<< 8) |
-                 (int)coords[5];
-        lsink.moveTo(FloatToS15_16(coords[0]), FloatToS15_16(coords[1]), color);
+        lsink.moveTo(FloatToS15_16(src.floatCoords[pointIdx]),
+                     FloatToS15_16(src.floatCoords[pointIdx + 1]),
+                     src.pointColors[colorIdx]);
+        pointIdx += 2;
+        colorIdx++;
         break;
       case SEG_LINETO:
-        color = ((int)coords[2]<<24) |
-                ((int)coords[3]<<16) |
-                ((int)coords[4]<< 8) |
-                 (int)coords[5];
         lsink.lineJoin();
-        lsink.lineTo(FloatToS15_16(coords[0]), FloatToS15_16(coords[1]), color);
+        lsink.lineTo(FloatToS15_16(src.floatCoords[pointIdx]),
+                     FloatToS15_16(src.floatCoords[pointIdx + 1]),
+                     src.pointColors[colorIdx]);
+        pointIdx += 2;
+        colorIdx++;
         break;
       case SEG_CLOSE:
         lsink.lineJoin();
@@ -496,7 +521,6 @@ public class LinePath {
       default:
         throw new InternalError("unknown flattened segment type");
       }
-      pi.next();
     }
     lsink.end();
   }
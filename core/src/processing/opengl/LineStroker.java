@@ -54,6 +54,8 @@ public class LineStroker  {
   private int numPenSegments;
   private int[] pen_dx;
   private int[] pen_dy;
+  private int penLineWidth;
+  private int penM00, penM01, penM10, penM11;
 
   private boolean[] penIncluded;
   private int[] join;
@@ -166,22 +168,33 @@ public class LineStroker  {
       this.miterLimitSq = (long) (limitSq * 65536.0 * 65536.0);
     }
 
-    this.numPenSegments = (int) (3.14159f * lineWidth / 65536.0f);
-    if (pen_dx == null || pen_dx.length < numPenSegments) {
-      this.pen_dx = new int[numPenSegments];
-      this.pen_dy = new int[numPenSegments];
-      this.penIncluded = new boolean[numPenSegments];
-      this.join = new int[2 * numPenSegments];
-    }
+    // The pen only depends on the width and the transform, so it's kept
+    // when the stroker is reused with the same ones.
+    if (pen_dx == null || lineWidth != penLineWidth ||
+        m00 != penM00 || m01 != penM01 || m10 != penM10 || m11 != penM11) {
+      this.numPenSegments = (int) (3.14159f * lineWidth / 65536.0f);
+      if (pen_dx == null || pen_dx.length < numPenSegments) {
+        this.pen_dx = new int[numPenSegments];
+        this.pen_dy = new int[numPenSegments];
+        this.penIncluded = new boolean[numPenSegments];
+        this.join = new int[2 * numPenSegments];
+      }
 
-    for (int i = 0; i < numPenSegments; i++) {
-      double r = lineWidth / 2.0;
-      double theta = i * 2 * Math.PI / numPenSegments;
+      for (int i = 0; i < numPenSegments; i++) {
+        double r = lineWidth / 2.0;
+        double theta = i * 2 * Math.PI / numPenSegments;
+
+        double cos = Math.cos(theta);
+        double sin = Math.sin(theta);
+        pen_dx[i] = (int) (r * (dm00 * cos + dm01 * sin));
+        pen_dy[i] = (int) (r * (dm10 * cos + dm11 * sin));
+      }
 
-      double cos = Math.cos(theta);
-      double sin = Math.sin(theta);
-      pen_dx[i] = (int) (r * (dm00 * cos + dm01 * sin));
-      pen_dy[i] = (int) (r * (dm10 * cos + dm11 * sin));
+      penLineWidth = lineWidth;
+      penM00 = m00;
+      penM01 = m01;
+      penM10 = m10;
+      penM11 = m11;
     }
 
     prev = LinePath.SEG_CLOSE;
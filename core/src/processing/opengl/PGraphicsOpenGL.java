@@ -32,6 +32,7 @@ import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.nio.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -225,6 +226,20 @@ public class PGraphicsOpenGL extends PGraphics {
   protected TexCache texCache;
   protected Tessellator tessellator;
 
+  // Shape drawn by instance(), see beginInstances()
+  protected PShapeOpenGL instanceShape;
+  protected PImage instanceTexture;
+  protected PMatrix3D instanceMatrix = new PMatrix3D();
+  protected PMatrix3D instanceNormalMatrix = new PMatrix3D();
+
+  // Arrays allocated when growing or trimming the geometry buffers, counted
+  // during the current frame (shapes may be tessellated on other threads)
+  // and copied at the start of the next one.
+  protected AtomicLong geometryAllocCount = new AtomicLong();
+  protected AtomicLong geometryAllocBytes = new AtomicLong();
+  protected long lastGeometryAllocCount;
+  protected long lastGeometryAllocBytes;
+
   // ........................................................
 
   // Depth sorter
@@ -559,6 +574,10 @@ public class PGraphicsOpenGL extends PGraphics {
     "your own functions as long as they are called from draw(),\n" +
     "but not in event handling functions such as keyPressed()\n" +
     "or mousePressed().";
+  static final String INSTANCES_NEED_OPENGL_SHAPE =
+    "beginInstances() needs a shape created with P2D or P3D";
+  static final String NO_BEGIN_INSTANCES =
+    "instance() can only be used after beginInstances()";
 
   //////////////////////////////////////////////////////////////
 
@@ -1454,6 +1473,11 @@ public class PGraphicsOpenGL extends PGraphics {
       getGLParameters();
     }
 
+    lastGeometryAllocCount = geometryAllocCount.getAndSet(0);
+    lastGeometryAllocBytes = geometryAllocBytes.getAndSet(0);
+    culledShapeCount = 0;
+    drawnShapeCount = 0;
+
     setViewport();
     if (primaryGraphics) {
       beginOnscreenDraw();
@@ -1496,6 +1520,31 @@ public class PGraphicsOpenGL extends PGraphics {
   }
 
 
+  /**
+   * Number of geometry arrays allocated during the last frame, when the
+   * vertex and index buffers had to grow (or were trimmed after tessellating
+   * a shape). Sketches with a steady amount of geometry should reach 0 after
+   * the first few frames.
+   */
+  public long getGeometryAllocations() {
+    return lastGeometryAllocCount;
+  }
+
+
+  /**
+   * Size in bytes of the geometry arrays allocated during the last frame.
+   */
+  public long getGeometryAllocatedBytes() {
+    return lastGeometryAllocBytes;
+  }
+
+
+  protected void countAllocation(int length, int bytesPerElement) {
+    geometryAllocCount.incrementAndGet();
+    geometryAllocBytes.addAndGet((long) length * bytesPerElement);
+  }
+
+
   protected PGraphicsOpenGL getPrimaryPG() {
     if (primaryGraphics) {
       return this;
@@ -1896,6 +1945,12 @@ public class PGraphicsOpenGL extends PGraphics {
         flush();
         isDepthSortingEnabled = false;
       }
+    } else if (which == ENABLE_FAST_DEPTH_SORT ||
+               which == DISABLE_FAST_DEPTH_SORT) {
+      if (isDepthSortingEnabled) {
+        // Sort the triangles already in the buffers with the previous setting
+        flush();
+      }
     } else if (which == ENABLE_BUFFER_READING) {
       restartPGL();
     } else if (which == DISABLE_BUFFER_READING) {
@@ -3404,6 +3459,221 @@ public class PGraphicsOpenGL extends PGraphics {
   }
 
 
+  //////////////////////////////////////////////////////////////
+
+  // SHAPE CULLING
+
+
+  // Overridden so PShapeOpenGL can call it from this package.
+  @Override
+  protected boolean cullShape(PShape shape) {
+    return super.cullShape(shape);
+  }
+
+
+  @Override
+  protected boolean shapeInView(PShape shape) {
+    if (shape instanceof PShapeOpenGL) {
+      PShapeOpenGL glShape = (PShapeOpenGL) shape;
+      return -1 < clipBounds(glShape.getTessBounds(), glShape.getTessPadding());
+    }
+    return super.shapeInView(shape);
+  }
+
+
+  @Override
+  protected boolean boundsInView(float[] bounds) {
+    return -1 < clipBounds(bounds, 0);
+  }
+
+
+  /**
+   * Returns true if the children of the group have to be tested one by one,
+   * because culling is enabled and the group isn't entirely in view.
+   */
+  protected boolean cullChildren(PShapeOpenGL group) {
+    return getHint(ENABLE_SHAPE_CULLING) &&
+           clipBounds(group.getTessBounds(), group.getTessPadding()) < 1;
+  }
+
+
+  /**
+   * Tests the box against the view volume, using the current projection and
+   * modelview matrices. Returns -1 if the box is entirely outside, 1 if it's
+   * entirely inside, and 0 otherwise. The view is enlarged by padding pixels
+   * on each side, for the lines and points drawn with a width in screen
+   * space. Infinite boxes are never outside nor inside.
+   */
+  protected int clipBounds(float[] bounds, float padding) {
+    if (bounds[0] > bounds[3] || bounds[1] > bounds[4] ||
+        bounds[2] > bounds[5]) {
+      return -1;
+    }
+    for (int i = 0; i < 6; i++) {
+      if (Float.isInfinite(bounds[i])) return 0;
+    }
+
+    PMatrix3D m = projmodelview;
+    float px = 1 + 2 * padding / width;
+    float py = 1 + 2 * padding / height;
+    int left = 0, right = 0, bottom = 0, top = 0, near = 0, far = 0;
+    int inside = 0;
+    for (int i = 0; i < 8; i++) {
+      float x = (i & 1) == 0 ? bounds[0] : bounds[3];
+      float y = (i & 2) == 0 ? bounds[1] : bounds[4];
+      float z = (i & 4) == 0 ? bounds[2] : bounds[5];
+      float cx = m.m00*x + m.m01*y + m.m02*z + m.m03;
+      float cy = m.m10*x + m.m11*y + m.m12*z + m.m13;
+      float cz = m.m20*x + m.m21*y + m.m22*z + m.m23;
+      float cw = m.m30*x + m.m31*y + m.m32*z + m.m33;
+      int out = 0;
+      if (cx < -px * cw) { left++;   out++; }
+      if (cx >  px * cw) { right++;  out++; }
+      if (cy < -py * cw) { bottom++; out++; }
+      if (cy >  py * cw) { top++;    out++; }
+      if (cz < -cw)      { near++;   out++; }
+      if (cz >  cw)      { far++;    out++; }
+      if (out == 0) inside++;
+    }
+    if (left == 8 || right == 8 || bottom == 8 || top == 8 ||
+        near == 8 || far == 8) {
+      return -1;
+    }
+    return inside == 8 ? 1 : 0;
+  }
+
+
+  /**
+   * Projects the center of the box and a point along each axis, half the
+   * size of the box away, and returns the largest distance on screen
+   * divided by the distance in model coordinates.
+   */
+  @Override
+  protected float screenScale(float[] bounds) {
+    if (bounds == null || bounds[0] > bounds[3]) {
+      return super.screenScale(bounds);
+    }
+    for (int i = 0; i < 6; i++) {
+      if (Float.isInfinite(bounds[i])) return super.screenScale(bounds);
+    }
+
+    float x = (bounds[0] + bounds[3]) / 2;
+    float y = (bounds[1] + bounds[4]) / 2;
+    float z = (bounds[2] + bounds[5]) / 2;
+    float d = Math.max(bounds[3] - bounds[0],
+              Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2])) / 2;
+    if (d <= 0) d = 1;
+
+    PMatrix3D m = projmodelview;
+    float cw = m.m30*x + m.m31*y + m.m32*z + m.m33;
+    if (cw <= 0) return super.screenScale(bounds);
+    float cx = (m.m00*x + m.m01*y + m.m02*z + m.m03) / cw;
+    float cy = (m.m10*x + m.m11*y + m.m12*z + m.m13) / cw;
+
+    float scale = 0;
+    for (int axis = 0; axis < 3; axis++) {
+      float ax = x + (axis == 0 ? d : 0);
+      float ay = y + (axis == 1 ? d : 0);
+      float az = z + (axis == 2 ? d : 0);
+      float aw = m.m30*ax + m.m31*ay + m.m32*az + m.m33;
+      if (aw <= 0) return super.screenScale(bounds);
+      // normalized device coordinates go from -1 to 1 across the surface
+      float dx = ((m.m00*ax + m.m01*ay + m.m02*az + m.m03) / aw - cx) *
+                 pixelWidth / 2;
+      float dy = ((m.m10*ax + m.m11*ay + m.m12*az + m.m13) / aw - cy) *
+                 pixelHeight / 2;
+      scale = Math.max(scale, (float) Math.sqrt(dx*dx + dy*dy) / d);
+    }
+    return scale;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // INSTANCES
+
+
+  @Override
+  public void beginInstances(PShape shape) {
+    if (!(shape instanceof PShapeOpenGL)) {
+      PGraphics.showWarning(INSTANCES_NEED_OPENGL_SHAPE);
+      return;
+    }
+    PShapeOpenGL sh = (PShapeOpenGL) shape;
+    instanceTexture = sh.prepareInstances();
+    instanceShape = sh;
+  }
+
+
+  @Override
+  public void instance(float x, float y, float angle, float scale,
+                       int color) {
+    if (instanceShape == null) {
+      PGraphics.showWarning(NO_BEGIN_INSTANCES);
+      return;
+    }
+    if (!instanceShape.isVisible() || scale == 0) return;
+
+    // The modelview is applied to the vertices here, same as when
+    // tessellating, unless the geometry is flushed after every shape.
+    PMatrix3D mm = instanceMatrix;
+    PMatrix3D nm = instanceNormalMatrix;
+    if (flushMode == FLUSH_WHEN_FULL) {
+      mm.set(modelview);
+    } else {
+      mm.reset();
+    }
+    mm.translate(x, y);
+    mm.rotateZ(angle);
+    mm.scale(scale);
+
+    nm.reset();
+    nm.scale(1 / scale);
+    nm.rotateZ(-angle);
+    nm.translate(-x, -y);
+    if (flushMode == FLUSH_WHEN_FULL) {
+      nm.apply(modelviewInv);
+    }
+
+    int tint = PGL.javaToNativeARGB(color);
+    PShapeOpenGL sh = instanceShape;
+    TessGeometry src = sh.root.tessGeo;
+    if (sh.hasPolys) {
+      tessellator.setTessGeometry(tessGeo);
+      tessellator.setTexCache(texCache, instanceTexture);
+      tessellator.beginTex();
+      tessGeo.addPolyInstance(src, sh.firstPolyIndexCache,
+                              sh.lastPolyIndexCache, mm, nm, tint);
+      tessellator.endTex();
+    }
+    if (is3D()) {
+      if (sh.hasLines) {
+        tessGeo.addLineInstance(src, sh.firstLineIndexCache,
+                                sh.lastLineIndexCache, mm, tint);
+      }
+      if (sh.hasPoints) {
+        tessGeo.addPointInstance(src, sh.firstPointIndexCache,
+                                 sh.lastPointIndexCache, mm, tint);
+      }
+    }
+
+    if ((flushMode == FLUSH_CONTINUOUSLY) ||
+        (flushMode == FLUSH_WHEN_FULL && tessGeo.isFull())) {
+      flush();
+    } else {
+      // pixels array is not up-to-date anymore
+      loaded = false;
+    }
+  }
+
+
+  @Override
+  public void endInstances() {
+    instanceShape = null;
+    instanceTexture = null;
+  }
+
+
   //////////////////////////////////////////////////////////////
 
   // SHAPE I/O
@@ -6531,17 +6801,61 @@ public class PGraphicsOpenGL extends PGraphics {
   protected void updateTexture(PImage img, Texture tex) {
     if (tex != null) {
       if (img.isModified()) {
-        int x = img.getModifiedX1();
-        int y = img.getModifiedY1();
-        int w = img.getModifiedX2() - x;
-        int h = img.getModifiedY2() - y;
-        tex.set(img.pixels, x, y, w, h, img.format);
+        int count = img.getModifiedRegionCount();
+        int[] regions = img.getModifiedRegions();
+
+        // one scratch array, big enough for the largest partial region
+        int largest = 0;
+        for (int i = 0; i < count; i++) {
+          int w = regions[4 * i + 2] - regions[4 * i];
+          int h = regions[4 * i + 3] - regions[4 * i + 1];
+          if (w > 0 && h > 0 && w * h < img.pixelWidth * img.pixelHeight) {
+            largest = Math.max(largest, w * h);
+          }
+        }
+        int[] scratch = (largest > 0) ? new int[largest] : null;
+
+        boolean uploaded = false;
+        for (int i = 0; i < count; i++) {
+          int x = regions[4 * i];
+          int y = regions[4 * i + 1];
+          int w = regions[4 * i + 2] - x;
+          int h = regions[4 * i + 3] - y;
+          uploaded |= updateTextureRegion(img, tex, x, y, w, h, scratch);
+        }
+        // mipmaps once for all the regions, rather than after each one
+        if (uploaded) {
+          tex.updateMipmaps();
+        }
       }
     }
     img.setModified(false);
   }
 
 
+  /**
+   * Upload one rectangle of the image, without updating the mipmaps.
+   * Texture.set() expects exactly the pixels of the rectangle, so anything
+   * smaller than the whole image is copied out row by row into scratch
+   * first. Returns false if the rectangle is empty.
+   */
+  protected boolean updateTextureRegion(PImage img, Texture tex,
+                                        int x, int y, int w, int h,
+                                        int[] scratch) {
+    if (w <= 0 || h <= 0) return false;
+    if (x == 0 && y == 0 && w == img.pixelWidth && h == img.pixelHeight) {
+      tex.set(img.pixels, x, y, w, h, img.format, false);
+    } else {
+      for (int row = 0; row < h; row++) {
+        System.arraycopy(img.pixels, (y + row) * img.pixelWidth + x,
+                         scratch, row * w, w);
+      }
+      tex.set(scratch, x, y, w, h, img.format, false);
+    }
+    return true;
+  }
+
+
   protected void deleteSurfaceTextures() {
     if (texture != null) {
       texture.dispose();
@@ -7619,6 +7933,21 @@ public class PGraphicsOpenGL extends PGraphics {
       PApplet.arrayCopy(vertexOffset, 0, temp, 0, size);
       vertexOffset = temp;
     }
+
+    /**
+     * Adds the blocks of another cache at the end of this one, shifting
+     * their offsets by the index and vertex counts they are appended after.
+     */
+    void append(IndexCache src, int indexBase, int vertexBase) {
+      for (int i = 0; i < src.size; i++) {
+        arrayCheck();
+        indexCount[size] = src.indexCount[i];
+        indexOffset[size] = src.indexOffset[i] + indexBase;
+        vertexCount[size] = src.vertexCount[i];
+        vertexOffset[size] = src.vertexOffset[i] + vertexBase;
+        size++;
+      }
+    }
   }
 
 
@@ -7900,60 +8229,70 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandVertices(int n) {
       float temp[] = new float[3 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(vertices, 0, temp, 0, 3 * vertexCount);
       vertices = temp;
     }
 
     void expandColors(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(colors, 0, temp, 0, vertexCount);
       colors = temp;
     }
 
     void expandNormals(int n) {
       float temp[] = new float[3 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(normals, 0, temp, 0, 3 * vertexCount);
       normals = temp;
     }
 
     void expandTexCoords(int n) {
       float temp[] = new float[2 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(texcoords, 0, temp, 0, 2 * vertexCount);
       texcoords = temp;
     }
 
     void expandStrokeColors(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(strokeColors, 0, temp, 0, vertexCount);
       strokeColors = temp;
     }
 
     void expandStrokeWeights(int n) {
       float temp[] = new float[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(strokeWeights, 0, temp, 0, vertexCount);
       strokeWeights = temp;
     }
 
     void expandAmbient(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(ambient, 0, temp, 0, vertexCount);
       ambient = temp;
     }
 
     void expandSpecular(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(specular, 0, temp, 0, vertexCount);
       specular = temp;
     }
 
     void expandEmissive(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(emissive, 0, temp, 0, vertexCount);
       emissive = temp;
     }
 
     void expandShininess(int n) {
       float temp[] = new float[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(shininess, 0, temp, 0, vertexCount);
       shininess = temp;
     }
@@ -7974,6 +8313,7 @@ public class PGraphicsOpenGL extends PGraphics {
     void expandFloatAttrib(VertexAttribute attrib, int n) {
       float[] values = fattribs.get(attrib.name);
       float temp[] = new float[attrib.size * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(values, 0, temp, 0, attrib.size * vertexCount);
       fattribs.put(attrib.name, temp);
     }
@@ -7981,6 +8321,7 @@ public class PGraphicsOpenGL extends PGraphics {
     void expandIntAttrib(VertexAttribute attrib, int n) {
       int[] values = iattribs.get(attrib.name);
       int temp[] = new int[attrib.size * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(values, 0, temp, 0, attrib.size * vertexCount);
       iattribs.put(attrib.name, temp);
     }
@@ -7988,18 +8329,21 @@ public class PGraphicsOpenGL extends PGraphics {
     void expandBoolAttrib(VertexAttribute attrib, int n) {
       byte[] values = battribs.get(attrib.name);
       byte temp[] = new byte[attrib.size * n];
+      pg.countAllocation(temp.length, 1);
       PApplet.arrayCopy(values, 0, temp, 0, attrib.size * vertexCount);
       battribs.put(attrib.name, temp);
     }
 
     void expandCodes(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(codes, 0, temp, 0, codeCount);
       codes = temp;
     }
 
     void expandEdges(int n) {
       int temp[][] = new int[n][3];
+      pg.countAllocation(temp.length, 12);
       PApplet.arrayCopy(edges, 0, temp, 0, edgeCount);
       edges = temp;
     }
@@ -8034,72 +8378,84 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void trimVertices() {
       float temp[] = new float[3 * vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(vertices, 0, temp, 0, 3 * vertexCount);
       vertices = temp;
     }
 
     void trimColors() {
       int temp[] = new int[vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(colors, 0, temp, 0, vertexCount);
       colors = temp;
     }
 
     void trimNormals() {
       float temp[] = new float[3 * vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(normals, 0, temp, 0, 3 * vertexCount);
       normals = temp;
     }
 
     void trimTexCoords() {
       float temp[] = new float[2 * vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(texcoords, 0, temp, 0, 2 * vertexCount);
       texcoords = temp;
     }
 
     void trimStrokeColors() {
       int temp[] = new int[vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(strokeColors, 0, temp, 0, vertexCount);
       strokeColors = temp;
     }
 
     void trimStrokeWeights() {
       float temp[] = new float[vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(strokeWeights, 0, temp, 0, vertexCount);
       strokeWeights = temp;
     }
 
     void trimAmbient() {
       int temp[] = new int[vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(ambient, 0, temp, 0, vertexCount);
       ambient = temp;
     }
 
     void trimSpecular() {
       int temp[] = new int[vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(specular, 0, temp, 0, vertexCount);
       specular = temp;
     }
 
     void trimEmissive() {
       int temp[] = new int[vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(emissive, 0, temp, 0, vertexCount);
       emissive = temp;
     }
 
     void trimShininess() {
       float temp[] = new float[vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(shininess, 0, temp, 0, vertexCount);
       shininess = temp;
     }
 
     void trimCodes() {
       int temp[] = new int[codeCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(codes, 0, temp, 0, codeCount);
       codes = temp;
     }
 
     void trimEdges() {
       int temp[][] = new int[edgeCount][3];
+      pg.countAllocation(temp.length, 12);
       PApplet.arrayCopy(edges, 0, temp, 0, edgeCount);
       edges = temp;
     }
@@ -8120,6 +8476,7 @@ public class PGraphicsOpenGL extends PGraphics {
     void trimFloatAttrib(VertexAttribute attrib) {
       float[] values = fattribs.get(attrib.name);
       float temp[] = new float[attrib.size * vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(values, 0, temp, 0, attrib.size * vertexCount);
       fattribs.put(attrib.name, temp);
     }
@@ -8127,6 +8484,7 @@ public class PGraphicsOpenGL extends PGraphics {
     void trimIntAttrib(VertexAttribute attrib) {
       int[] values = iattribs.get(attrib.name);
       int temp[] = new int[attrib.size * vertexCount];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(values, 0, temp, 0, attrib.size * vertexCount);
       iattribs.put(attrib.name, temp);
     }
@@ -8134,6 +8492,7 @@ public class PGraphicsOpenGL extends PGraphics {
     void trimBoolAttrib(VertexAttribute attrib) {
       byte[] values = battribs.get(attrib.name);
       byte temp[] = new byte[attrib.size * vertexCount];
+      pg.countAllocation(temp.length, 1);
       PApplet.arrayCopy(values, 0, temp, 0, attrib.size * vertexCount);
       battribs.put(attrib.name, temp);
     }
@@ -9197,6 +9556,17 @@ public class PGraphicsOpenGL extends PGraphics {
     HashMap<String, int[]> ipolyAttribs = new HashMap<>();
     HashMap<String, byte[]> bpolyAttribs = new HashMap<>();
 
+    // Largest counts so far, used when trimming
+    int polyVertexMax;
+    int polyIndexMax;
+    int lineVertexMax;
+    int lineIndexMax;
+    int pointVertexMax;
+    int pointIndexMax;
+
+    // Run of shared blocks being copied by the add*Instance() methods
+    int[] instanceRange = new int[3];
+
     TessGeometry(PGraphicsOpenGL pg, AttributeMap attr, int mode) {
       this.pg = pg;
       this.polyAttribs = attr;
@@ -9405,6 +9775,321 @@ public class PGraphicsOpenGL extends PGraphics {
       lastPointIndex = pointIndexCount - 1;
     }
 
+    // -----------------------------------------------------------------
+    //
+    // Append
+
+    /**
+     * Copies all the geometry in src at the end of this object. The indices
+     * are relative to their index cache block, so only the offsets of the
+     * blocks need to be shifted. Used to put together geometry tessellated
+     * separately, gives the same result as tessellating everything here.
+     */
+    void append(TessGeometry src) {
+      int polyVertBase = polyVertexCount;
+      int polyIndBase = polyIndexCount;
+      int n = src.polyVertexCount;
+      if (0 < n) {
+        polyVertexCheck(n);
+        PApplet.arrayCopy(src.polyVertices, 0, polyVertices, 4 * polyVertBase, 4 * n);
+        PApplet.arrayCopy(src.polyColors, 0, polyColors, polyVertBase, n);
+        PApplet.arrayCopy(src.polyNormals, 0, polyNormals, 3 * polyVertBase, 3 * n);
+        PApplet.arrayCopy(src.polyTexCoords, 0, polyTexCoords, 2 * polyVertBase, 2 * n);
+        PApplet.arrayCopy(src.polyAmbient, 0, polyAmbient, polyVertBase, n);
+        PApplet.arrayCopy(src.polySpecular, 0, polySpecular, polyVertBase, n);
+        PApplet.arrayCopy(src.polyEmissive, 0, polyEmissive, polyVertBase, n);
+        PApplet.arrayCopy(src.polyShininess, 0, polyShininess, polyVertBase, n);
+        for (String name: polyAttribs.keySet()) {
+          VertexAttribute attrib = polyAttribs.get(name);
+          int size = attrib.tessSize;
+          if (attrib.type == PGL.FLOAT && src.fpolyAttribs.containsKey(name)) {
+            PApplet.arrayCopy(src.fpolyAttribs.get(name), 0, fpolyAttribs.get(name),
+                              size * polyVertBase, size * n);
+          } else if (attrib.type == PGL.INT && src.ipolyAttribs.containsKey(name)) {
+            PApplet.arrayCopy(src.ipolyAttribs.get(name), 0, ipolyAttribs.get(name),
+                              size * polyVertBase, size * n);
+          } else if (attrib.type == PGL.BOOL && src.bpolyAttribs.containsKey(name)) {
+            PApplet.arrayCopy(src.bpolyAttribs.get(name), 0, bpolyAttribs.get(name),
+                              size * polyVertBase, size * n);
+          }
+        }
+      }
+      if (0 < src.polyIndexCount) {
+        polyIndexCheck(src.polyIndexCount);
+        PApplet.arrayCopy(src.polyIndices, 0, polyIndices, polyIndBase,
+                          src.polyIndexCount);
+      }
+      polyIndexCache.append(src.polyIndexCache, polyIndBase, polyVertBase);
+
+      int lineVertBase = lineVertexCount;
+      int lineIndBase = lineIndexCount;
+      n = src.lineVertexCount;
+      if (0 < n) {
+        lineVertexCheck(n);
+        PApplet.arrayCopy(src.lineVertices, 0, lineVertices, 4 * lineVertBase, 4 * n);
+        PApplet.arrayCopy(src.lineColors, 0, lineColors, lineVertBase, n);
+        PApplet.arrayCopy(src.lineDirections, 0, lineDirections, 4 * lineVertBase, 4 * n);
+      }
+      if (0 < src.lineIndexCount) {
+        lineIndexCheck(src.lineIndexCount);
+        PApplet.arrayCopy(src.lineIndices, 0, lineIndices, lineIndBase,
+                          src.lineIndexCount);
+      }
+      lineIndexCache.append(src.lineIndexCache, lineIndBase, lineVertBase);
+
+      int pointVertBase = pointVertexCount;
+      int pointIndBase = pointIndexCount;
+      n = src.pointVertexCount;
+      if (0 < n) {
+        pointVertexCheck(n);
+        PApplet.arrayCopy(src.pointVertices, 0, pointVertices, 4 * pointVertBase, 4 * n);
+        PApplet.arrayCopy(src.pointColors, 0, pointColors, pointVertBase, n);
+        PApplet.arrayCopy(src.pointOffsets, 0, pointOffsets, 2 * pointVertBase, 2 * n);
+      }
+      if (0 < src.pointIndexCount) {
+        pointIndexCheck(src.pointIndexCount);
+        PApplet.arrayCopy(src.pointIndices, 0, pointIndices, pointIndBase,
+                          src.pointIndexCount);
+      }
+      pointIndexCache.append(src.pointIndexCache, pointIndBase, pointVertBase);
+    }
+
+    // -----------------------------------------------------------------
+    //
+    // Instances
+
+    // The following methods copy the index cache blocks first...last of the
+    // (retained) geometry in src at the end of this object, transformed by
+    // mm (and the inverse nm for the normals) and with the colors multiplied
+    // by tint, in native byte order. Used by beginInstances()/instance() to
+    // draw copies of a shape without tessellating it again.
+    //
+    // Once a shape is aggregated, consecutive blocks can share a vertex
+    // offset, with the indices of the later ones shifted past the vertices
+    // of the earlier ones. So the blocks are copied in runs that share an
+    // offset, and each run copies the vertices its indices actually use.
+
+    void addPolyInstance(TessGeometry src, int first, int last,
+                         PMatrix3D mm, PMatrix3D nm, int tint) {
+      IndexCache srcCache = src.polyIndexCache;
+      IndexCache cache = polyIndexCache;
+      int[] range = instanceRange;
+      for (int n = first; n <= last; n = range[0]) {
+        sharedIndexRange(srcCache, src.polyIndices, n, last, range);
+        int end = range[0];
+        int voffset = srcCache.vertexOffset[n] + range[1];
+        int vcount = range[2] - range[1] + 1;
+
+        int index = cache.getLast();
+        if (PGL.MAX_VERTEX_INDEX1 < cache.vertexCount[index] + vcount) {
+          index = cache.addNew();
+        }
+        int base = cache.vertexCount[index];
+
+        polyVertexCheck(vcount);
+        for (int i = 0; i < vcount; i++) {
+          int srcIdx = voffset + i;
+          int tessIdx = firstPolyVertex + i;
+
+          int idx = 4 * srcIdx;
+          float x = src.polyVertices[idx++];
+          float y = src.polyVertices[idx++];
+          float z = src.polyVertices[idx++];
+          float w = src.polyVertices[idx  ];
+          idx = 4 * tessIdx;
+          polyVertices[idx++] = x*mm.m00 + y*mm.m01 + z*mm.m02 + w*mm.m03;
+          polyVertices[idx++] = x*mm.m10 + y*mm.m11 + z*mm.m12 + w*mm.m13;
+          polyVertices[idx++] = x*mm.m20 + y*mm.m21 + z*mm.m22 + w*mm.m23;
+          polyVertices[idx  ] = x*mm.m30 + y*mm.m31 + z*mm.m32 + w*mm.m33;
+
+          idx = 3 * srcIdx;
+          float nx = src.polyNormals[idx++];
+          float ny = src.polyNormals[idx++];
+          float nz = src.polyNormals[idx  ];
+          idx = 3 * tessIdx;
+          polyNormals[idx++] = nx*nm.m00 + ny*nm.m10 + nz*nm.m20;
+          polyNormals[idx++] = nx*nm.m01 + ny*nm.m11 + nz*nm.m21;
+          polyNormals[idx  ] = nx*nm.m02 + ny*nm.m12 + nz*nm.m22;
+
+          polyColors[tessIdx] = multiplyColor(src.polyColors[srcIdx], tint);
+          polyTexCoords[2 * tessIdx    ] = src.polyTexCoords[2 * srcIdx    ];
+          polyTexCoords[2 * tessIdx + 1] = src.polyTexCoords[2 * srcIdx + 1];
+          polyAmbient[tessIdx] = src.polyAmbient[srcIdx];
+          polySpecular[tessIdx] = src.polySpecular[srcIdx];
+          polyEmissive[tessIdx] = src.polyEmissive[srcIdx];
+          polyShininess[tessIdx] = src.polyShininess[srcIdx];
+        }
+
+        int shift = base - range[1];
+        for (int b = n; b < end; b++) {
+          int ioffset = srcCache.indexOffset[b];
+          int icount = srcCache.indexCount[b];
+          polyIndexCheck(icount);
+          for (int i = 0; i < icount; i++) {
+            polyIndices[firstPolyIndex + i] =
+              (short) (shift + src.polyIndices[ioffset + i]);
+          }
+          cache.incCounts(index, icount, b == n ? vcount : 0);
+        }
+      }
+    }
+
+    void addLineInstance(TessGeometry src, int first, int last,
+                         PMatrix3D mm, int tint) {
+      IndexCache srcCache = src.lineIndexCache;
+      IndexCache cache = lineIndexCache;
+      int[] range = instanceRange;
+      for (int n = first; n <= last; n = range[0]) {
+        sharedIndexRange(srcCache, src.lineIndices, n, last, range);
+        int end = range[0];
+        int voffset = srcCache.vertexOffset[n] + range[1];
+        int vcount = range[2] - range[1] + 1;
+
+        int index = cache.getLast();
+        if (PGL.MAX_VERTEX_INDEX1 < cache.vertexCount[index] + vcount) {
+          index = cache.addNew();
+        }
+        int base = cache.vertexCount[index];
+
+        lineVertexCheck(vcount);
+        for (int i = 0; i < vcount; i++) {
+          int srcIdx = voffset + i;
+          int tessIdx = firstLineVertex + i;
+
+          int idx = 4 * srcIdx;
+          float x = src.lineVertices[idx++];
+          float y = src.lineVertices[idx++];
+          float z = src.lineVertices[idx++];
+          float w = src.lineVertices[idx  ];
+          idx = 4 * tessIdx;
+          lineVertices[idx++] = x*mm.m00 + y*mm.m01 + z*mm.m02 + w*mm.m03;
+          lineVertices[idx++] = x*mm.m10 + y*mm.m11 + z*mm.m12 + w*mm.m13;
+          lineVertices[idx++] = x*mm.m20 + y*mm.m21 + z*mm.m22 + w*mm.m23;
+          lineVertices[idx  ] = x*mm.m30 + y*mm.m31 + z*mm.m32 + w*mm.m33;
+
+          idx = 4 * srcIdx;
+          float dx = src.lineDirections[idx++];
+          float dy = src.lineDirections[idx++];
+          float dz = src.lineDirections[idx++];
+          float weight = src.lineDirections[idx];
+          idx = 4 * tessIdx;
+          lineDirections[idx++] = dx*mm.m00 + dy*mm.m01 + dz*mm.m02;
+          lineDirections[idx++] = dx*mm.m10 + dy*mm.m11 + dz*mm.m12;
+          lineDirections[idx++] = dx*mm.m20 + dy*mm.m21 + dz*mm.m22;
+          lineDirections[idx  ] = weight;
+
+          lineColors[tessIdx] = multiplyColor(src.lineColors[srcIdx], tint);
+        }
+
+        int shift = base - range[1];
+        for (int b = n; b < end; b++) {
+          int ioffset = srcCache.indexOffset[b];
+          int icount = srcCache.indexCount[b];
+          lineIndexCheck(icount);
+          for (int i = 0; i < icount; i++) {
+            lineIndices[firstLineIndex + i] =
+              (short) (shift + src.lineIndices[ioffset + i]);
+          }
+          cache.incCounts(index, icount, b == n ? vcount : 0);
+        }
+      }
+    }
+
+    void addPointInstance(TessGeometry src, int first, int last,
+                          PMatrix3D mm, int tint) {
+      IndexCache srcCache = src.pointIndexCache;
+      IndexCache cache = pointIndexCache;
+      int[] range = instanceRange;
+      for (int n = first; n <= last; n = range[0]) {
+        sharedIndexRange(srcCache, src.pointIndices, n, last, range);
+        int end = range[0];
+        int voffset = srcCache.vertexOffset[n] + range[1];
+        int vcount = range[2] - range[1] + 1;
+
+        int index = cache.getLast();
+        if (PGL.MAX_VERTEX_INDEX1 < cache.vertexCount[index] + vcount) {
+          index = cache.addNew();
+        }
+        int base = cache.vertexCount[index];
+
+        pointVertexCheck(vcount);
+        for (int i = 0; i < vcount; i++) {
+          int srcIdx = voffset + i;
+          int tessIdx = firstPointVertex + i;
+
+          int idx = 4 * srcIdx;
+          float x = src.pointVertices[idx++];
+          float y = src.pointVertices[idx++];
+          float z = src.pointVertices[idx++];
+          float w = src.pointVertices[idx  ];
+          idx = 4 * tessIdx;
+          pointVertices[idx++] = x*mm.m00 + y*mm.m01 + z*mm.m02 + w*mm.m03;
+          pointVertices[idx++] = x*mm.m10 + y*mm.m11 + z*mm.m12 + w*mm.m13;
+          pointVertices[idx++] = x*mm.m20 + y*mm.m21 + z*mm.m22 + w*mm.m23;
+          pointVertices[idx  ] = x*mm.m30 + y*mm.m31 + z*mm.m32 + w*mm.m33;
+
+          pointOffsets[2 * tessIdx    ] = src.pointOffsets[2 * srcIdx    ];
+          pointOffsets[2 * tessIdx + 1] = src.pointOffsets[2 * srcIdx + 1];
+          pointColors[tessIdx] = multiplyColor(src.pointColors[srcIdx], tint);
+        }
+
+        int shift = base - range[1];
+        for (int b = n; b < end; b++) {
+          int ioffset = srcCache.indexOffset[b];
+          int icount = srcCache.indexCount[b];
+          pointIndexCheck(icount);
+          for (int i = 0; i < icount; i++) {
+            pointIndices[firstPointIndex + i] =
+              (short) (shift + src.pointIndices[ioffset + i]);
+          }
+          cache.incCounts(index, icount, b == n ? vcount : 0);
+        }
+      }
+    }
+
+    // Finds the blocks from n on (up to last) that share the vertex offset
+    // of block n, and the smallest and largest index they use. Stores the
+    // block after them, and the two indices, in range.
+    static void sharedIndexRange(IndexCache cache, short[] indices,
+                                 int n, int last, int[] range) {
+      int voffset = cache.vertexOffset[n];
+      int min = Integer.MAX_VALUE;
+      int max = -1;
+      int end = n;
+      while (end <= last && cache.vertexOffset[end] == voffset) {
+        int ioffset = cache.indexOffset[end];
+        int icount = cache.indexCount[end];
+        for (int i = ioffset; i < ioffset + icount; i++) {
+          int index = indices[i];
+          if (index < min) min = index;
+          if (index > max) max = index;
+        }
+        end++;
+      }
+      range[0] = end;
+      if (max == -1) {
+        // no indices, nothing to copy
+        range[1] = 0;
+        range[2] = -1;
+      } else {
+        range[1] = min;
+        range[2] = max;
+      }
+    }
+
+    // Multiplies each of the four channels, the byte order doesn't matter
+    // as long as it's the same in both colors.
+    static int multiplyColor(int c, int tint) {
+      if (tint == 0xFFFFFFFF) return c;
+      int r = 0;
+      for (int shift = 0; shift < 32; shift += 8) {
+        int a = (c >>> shift) & 0xFF;
+        int b = (tint >>> shift) & 0xFF;
+        r |= ((a * b + 127) / 255) << shift;
+      }
+      return r;
+    }
+
     // -----------------------------------------------------------------
     //
     // Query
@@ -9676,6 +10361,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPolyVertices(int n) {
       float temp[] = new float[4 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyVertices, 0, temp, 0, 4 * polyVertexCount);
       polyVertices = temp;
       polyVerticesBuffer = PGL.allocateFloatBuffer(polyVertices);
@@ -9683,6 +10369,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPolyColors(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyColors, 0, temp, 0, polyVertexCount);
       polyColors = temp;
       polyColorsBuffer = PGL.allocateIntBuffer(polyColors);
@@ -9690,6 +10377,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPolyNormals(int n) {
       float temp[] = new float[3 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyNormals, 0, temp, 0, 3 * polyVertexCount);
       polyNormals = temp;
       polyNormalsBuffer = PGL.allocateFloatBuffer(polyNormals);
@@ -9697,6 +10385,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPolyTexCoords(int n) {
       float temp[] = new float[2 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyTexCoords, 0, temp, 0, 2 * polyVertexCount);
       polyTexCoords = temp;
       polyTexCoordsBuffer = PGL.allocateFloatBuffer(polyTexCoords);
@@ -9704,6 +10393,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPolyAmbient(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyAmbient, 0, temp, 0, polyVertexCount);
       polyAmbient = temp;
       polyAmbientBuffer = PGL.allocateIntBuffer(polyAmbient);
@@ -9711,6 +10401,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPolySpecular(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polySpecular, 0, temp, 0, polyVertexCount);
       polySpecular = temp;
       polySpecularBuffer = PGL.allocateIntBuffer(polySpecular);
@@ -9718,6 +10409,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPolyEmissive(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyEmissive, 0, temp, 0, polyVertexCount);
       polyEmissive = temp;
       polyEmissiveBuffer = PGL.allocateIntBuffer(polyEmissive);
@@ -9725,6 +10417,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPolyShininess(int n) {
       float temp[] = new float[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyShininess, 0, temp, 0, polyVertexCount);
       polyShininess = temp;
       polyShininessBuffer = PGL.allocateFloatBuffer(polyShininess);
@@ -9746,6 +10439,7 @@ public class PGraphicsOpenGL extends PGraphics {
     void expandFloatAttribute(VertexAttribute attrib, int n) {
       float[] array = fpolyAttribs.get(attrib.name);
       float temp[] = new float[attrib.tessSize * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(array, 0, temp, 0, attrib.tessSize * polyVertexCount);
       fpolyAttribs.put(attrib.name, temp);
       polyAttribBuffers.put(attrib.name, PGL.allocateFloatBuffer(temp));
@@ -9754,6 +10448,7 @@ public class PGraphicsOpenGL extends PGraphics {
     void expandIntAttribute(VertexAttribute attrib, int n) {
       int[] array = ipolyAttribs.get(attrib.name);
       int temp[] = new int[attrib.tessSize * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(array, 0, temp, 0, attrib.tessSize * polyVertexCount);
       ipolyAttribs.put(attrib.name, temp);
       polyAttribBuffers.put(attrib.name, PGL.allocateIntBuffer(temp));
@@ -9762,6 +10457,7 @@ public class PGraphicsOpenGL extends PGraphics {
     void expandBoolAttribute(VertexAttribute attrib, int n) {
       byte[] array = bpolyAttribs.get(attrib.name);
       byte temp[] = new byte[attrib.tessSize * n];
+      pg.countAllocation(temp.length, 1);
       PApplet.arrayCopy(array, 0, temp, 0, attrib.tessSize * polyVertexCount);
       bpolyAttribs.put(attrib.name, temp);
       polyAttribBuffers.put(attrib.name, PGL.allocateByteBuffer(temp));
@@ -9769,6 +10465,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPolyIndices(int n) {
       short temp[] = new short[n];
+      pg.countAllocation(temp.length, 2);
       PApplet.arrayCopy(polyIndices, 0, temp, 0, polyIndexCount);
       polyIndices = temp;
       polyIndicesBuffer = PGL.allocateShortBuffer(polyIndices);
@@ -9776,6 +10473,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandLineVertices(int n) {
       float temp[] = new float[4 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(lineVertices, 0, temp, 0, 4 * lineVertexCount);
       lineVertices = temp;
       lineVerticesBuffer = PGL.allocateFloatBuffer(lineVertices);
@@ -9783,6 +10481,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandLineColors(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(lineColors, 0, temp, 0, lineVertexCount);
       lineColors = temp;
       lineColorsBuffer = PGL.allocateIntBuffer(lineColors);
@@ -9790,6 +10489,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandLineDirections(int n) {
       float temp[] = new float[4 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(lineDirections, 0, temp, 0, 4 * lineVertexCount);
       lineDirections = temp;
       lineDirectionsBuffer = PGL.allocateFloatBuffer(lineDirections);
@@ -9797,6 +10497,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandLineIndices(int n) {
       short temp[] = new short[n];
+      pg.countAllocation(temp.length, 2);
       PApplet.arrayCopy(lineIndices, 0, temp, 0, lineIndexCount);
       lineIndices = temp;
       lineIndicesBuffer = PGL.allocateShortBuffer(lineIndices);
@@ -9804,6 +10505,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPointVertices(int n) {
       float temp[] = new float[4 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(pointVertices, 0, temp, 0, 4 * pointVertexCount);
       pointVertices = temp;
       pointVerticesBuffer = PGL.allocateFloatBuffer(pointVertices);
@@ -9811,6 +10513,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPointColors(int n) {
       int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(pointColors, 0, temp, 0, pointVertexCount);
       pointColors = temp;
       pointColorsBuffer = PGL.allocateIntBuffer(pointColors);
@@ -9818,6 +10521,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPointOffsets(int n) {
       float temp[] = new float[2 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(pointOffsets, 0, temp, 0, 2 * pointVertexCount);
       pointOffsets = temp;
       pointOffsetsBuffer = PGL.allocateFloatBuffer(pointOffsets);
@@ -9825,6 +10529,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
     void expandPointIndices(int n) {
       short temp[] = new short[n];
+      pg.countAllocation(temp.length, 2);
       PApplet.arrayCopy(pointIndices, 0, temp, 0, pointIndexCount);
       pointIndices = temp;
       pointIndicesBuffer = PGL.allocateShortBuffer(pointIndices);
@@ -9834,195 +10539,238 @@ public class PGraphicsOpenGL extends PGraphics {
     //
     // Trim arrays
 
+    // The arrays are trimmed down to the largest counts seen so far, rather
+    // than the current ones, so shapes that are tessellated again with a
+    // similar number of vertices don't reallocate everything each time.
     void trim() {
-      if (0 < polyVertexCount && polyVertexCount < polyVertices.length / 4) {
-        trimPolyVertices();
-        trimPolyColors();
-        trimPolyNormals();
-        trimPolyTexCoords();
-        trimPolyAmbient();
-        trimPolySpecular();
-        trimPolyEmissive();
-        trimPolyShininess();
-        trimPolyAttributes();
+      polyVertexMax = PApplet.max(polyVertexMax, polyVertexCount);
+      polyIndexMax = PApplet.max(polyIndexMax, polyIndexCount);
+      lineVertexMax = PApplet.max(lineVertexMax, lineVertexCount);
+      lineIndexMax = PApplet.max(lineIndexMax, lineIndexCount);
+      pointVertexMax = PApplet.max(pointVertexMax, pointVertexCount);
+      pointIndexMax = PApplet.max(pointIndexMax, pointIndexCount);
+
+      int n = trimSize(polyVertexMax, polyVertices.length / 4);
+      if (0 < n) {
+        trimPolyVertices(n);
+        trimPolyColors(n);
+        trimPolyNormals(n);
+        trimPolyTexCoords(n);
+        trimPolyAmbient(n);
+        trimPolySpecular(n);
+        trimPolyEmissive(n);
+        trimPolyShininess(n);
+        trimPolyAttributes(n);
+      }
+
+      n = trimSize(polyIndexMax, polyIndices.length);
+      if (0 < n) {
+        trimPolyIndices(n);
       }
 
-      if (0 < polyIndexCount && polyIndexCount < polyIndices.length) {
-        trimPolyIndices();
+      n = trimSize(lineVertexMax, lineVertices.length / 4);
+      if (0 < n) {
+        trimLineVertices(n);
+        trimLineColors(n);
+        trimLineDirections(n);
       }
 
-      if (0 < lineVertexCount && lineVertexCount < lineVertices.length / 4) {
-        trimLineVertices();
-        trimLineColors();
-        trimLineDirections();
+      n = trimSize(lineIndexMax, lineIndices.length);
+      if (0 < n) {
+        trimLineIndices(n);
       }
 
-      if (0 < lineIndexCount && lineIndexCount < lineIndices.length) {
-        trimLineIndices();
+      n = trimSize(pointVertexMax, pointVertices.length / 4);
+      if (0 < n) {
+        trimPointVertices(n);
+        trimPointColors(n);
+        trimPointOffsets(n);
       }
 
-      if (0 < pointVertexCount && pointVertexCount < pointVertices.length / 4) {
-        trimPointVertices();
-        trimPointColors();
-        trimPointOffsets();
+      n = trimSize(pointIndexMax, pointIndices.length);
+      if (0 < n) {
+        trimPointIndices(n);
       }
+    }
 
-      if (0 < pointIndexCount && pointIndexCount < pointIndices.length) {
-        trimPointIndices();
-      }
+    // Size to trim an array to, or 0 if it should be left alone because it
+    // would free less than a quarter of its capacity.
+    static int trimSize(int max, int capacity) {
+      if (0 < max && max <= capacity - capacity / 4) return max;
+      return 0;
     }
 
-    void trimPolyVertices() {
-      float temp[] = new float[4 * polyVertexCount];
+    void trimPolyVertices(int n) {
+      float temp[] = new float[4 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyVertices, 0, temp, 0, 4 * polyVertexCount);
       polyVertices = temp;
       polyVerticesBuffer = PGL.allocateFloatBuffer(polyVertices);
     }
 
-    void trimPolyColors() {
-      int temp[] = new int[polyVertexCount];
+    void trimPolyColors(int n) {
+      int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyColors, 0, temp, 0, polyVertexCount);
       polyColors = temp;
       polyColorsBuffer = PGL.allocateIntBuffer(polyColors);
     }
 
-    void trimPolyNormals() {
-      float temp[] = new float[3 * polyVertexCount];
+    void trimPolyNormals(int n) {
+      float temp[] = new float[3 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyNormals, 0, temp, 0, 3 * polyVertexCount);
       polyNormals = temp;
       polyNormalsBuffer = PGL.allocateFloatBuffer(polyNormals);
     }
 
-    void trimPolyTexCoords() {
-      float temp[] = new float[2 * polyVertexCount];
+    void trimPolyTexCoords(int n) {
+      float temp[] = new float[2 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyTexCoords, 0, temp, 0, 2 * polyVertexCount);
       polyTexCoords = temp;
       polyTexCoordsBuffer = PGL.allocateFloatBuffer(polyTexCoords);
     }
 
-    void trimPolyAmbient() {
-      int temp[] = new int[polyVertexCount];
+    void trimPolyAmbient(int n) {
+      int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyAmbient, 0, temp, 0, polyVertexCount);
       polyAmbient = temp;
       polyAmbientBuffer = PGL.allocateIntBuffer(polyAmbient);
     }
 
-    void trimPolySpecular() {
-      int temp[] = new int[polyVertexCount];
+    void trimPolySpecular(int n) {
+      int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polySpecular, 0, temp, 0, polyVertexCount);
       polySpecular = temp;
       polySpecularBuffer = PGL.allocateIntBuffer(polySpecular);
     }
 
-    void trimPolyEmissive() {
-      int temp[] = new int[polyVertexCount];
+    void trimPolyEmissive(int n) {
+      int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyEmissive, 0, temp, 0, polyVertexCount);
       polyEmissive = temp;
       polyEmissiveBuffer = PGL.allocateIntBuffer(polyEmissive);
     }
 
-    void trimPolyShininess() {
-      float temp[] = new float[polyVertexCount];
+    void trimPolyShininess(int n) {
+      float temp[] = new float[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(polyShininess, 0, temp, 0, polyVertexCount);
       polyShininess = temp;
       polyShininessBuffer = PGL.allocateFloatBuffer(polyShininess);
     }
 
-    void trimPolyAttributes() {
+    void trimPolyAttributes(int n) {
       for (String name: polyAttribs.keySet()) {
         VertexAttribute attrib = polyAttribs.get(name);
         if (attrib.type == PGL.FLOAT) {
-          trimFloatAttribute(attrib);
+          trimFloatAttribute(attrib, n);
         } else if (attrib.type == PGL.INT) {
-          trimIntAttribute(attrib);
+          trimIntAttribute(attrib, n);
         } else if (attrib.type == PGL.BOOL) {
-          trimBoolAttribute(attrib);
+          trimBoolAttribute(attrib, n);
         }
       }
     }
 
-    void trimFloatAttribute(VertexAttribute attrib) {
+    void trimFloatAttribute(VertexAttribute attrib, int n) {
       float[] array = fpolyAttribs.get(attrib.name);
-      float temp[] = new float[attrib.tessSize * polyVertexCount];
+      float temp[] = new float[attrib.tessSize * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(array, 0, temp, 0, attrib.tessSize * polyVertexCount);
       fpolyAttribs.put(attrib.name, temp);
       polyAttribBuffers.put(attrib.name, PGL.allocateFloatBuffer(temp));
     }
 
-    void trimIntAttribute(VertexAttribute attrib) {
+    void trimIntAttribute(VertexAttribute attrib, int n) {
       int[] array = ipolyAttribs.get(attrib.name);
-      int temp[] = new int[attrib.tessSize * polyVertexCount];
+      int temp[] = new int[attrib.tessSize * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(array, 0, temp, 0, attrib.tessSize * polyVertexCount);
       ipolyAttribs.put(attrib.name, temp);
       polyAttribBuffers.put(attrib.name, PGL.allocateIntBuffer(temp));
     }
 
-    void trimBoolAttribute(VertexAttribute attrib) {
+    void trimBoolAttribute(VertexAttribute attrib, int n) {
       byte[] array = bpolyAttribs.get(attrib.name);
-      byte temp[] = new byte[attrib.tessSize * polyVertexCount];
+      byte temp[] = new byte[attrib.tessSize * n];
+      pg.countAllocation(temp.length, 1);
       PApplet.arrayCopy(array, 0, temp, 0, attrib.tessSize * polyVertexCount);
       bpolyAttribs.put(attrib.name, temp);
       polyAttribBuffers.put(attrib.name, PGL.allocateByteBuffer(temp));
     }
 
-    void trimPolyIndices() {
-      short temp[] = new short[polyIndexCount];
+    void trimPolyIndices(int n) {
+      short temp[] = new short[n];
+      pg.countAllocation(temp.length, 2);
       PApplet.arrayCopy(polyIndices, 0, temp, 0, polyIndexCount);
       polyIndices = temp;
       polyIndicesBuffer = PGL.allocateShortBuffer(polyIndices);
     }
 
-    void trimLineVertices() {
-      float temp[] = new float[4 * lineVertexCount];
+    void trimLineVertices(int n) {
+      float temp[] = new float[4 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(lineVertices, 0, temp, 0, 4 * lineVertexCount);
       lineVertices = temp;
       lineVerticesBuffer = PGL.allocateFloatBuffer(lineVertices);
     }
 
-    void trimLineColors() {
-      int temp[] = new int[lineVertexCount];
+    void trimLineColors(int n) {
+      int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(lineColors, 0, temp, 0, lineVertexCount);
       lineColors = temp;
       lineColorsBuffer = PGL.allocateIntBuffer(lineColors);
     }
 
-    void trimLineDirections() {
-      float temp[] = new float[4 * lineVertexCount];
+    void trimLineDirections(int n) {
+      float temp[] = new float[4 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(lineDirections, 0, temp, 0, 4 * lineVertexCount);
       lineDirections = temp;
       lineDirectionsBuffer = PGL.allocateFloatBuffer(lineDirections);
     }
 
-    void trimLineIndices() {
-      short temp[] = new short[lineIndexCount];
+    void trimLineIndices(int n) {
+      short temp[] = new short[n];
+      pg.countAllocation(temp.length, 2);
       PApplet.arrayCopy(lineIndices, 0, temp, 0, lineIndexCount);
       lineIndices = temp;
       lineIndicesBuffer = PGL.allocateShortBuffer(lineIndices);
     }
 
-    void trimPointVertices() {
-      float temp[] = new float[4 * pointVertexCount];
+    void trimPointVertices(int n) {
+      float temp[] = new float[4 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(pointVertices, 0, temp, 0, 4 * pointVertexCount);
       pointVertices = temp;
       pointVerticesBuffer = PGL.allocateFloatBuffer(pointVertices);
     }
 
-    void trimPointColors() {
-      int temp[] = new int[pointVertexCount];
+    void trimPointColors(int n) {
+      int temp[] = new int[n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(pointColors, 0, temp, 0, pointVertexCount);
       pointColors = temp;
       pointColorsBuffer = PGL.allocateIntBuffer(pointColors);
     }
 
-    void trimPointOffsets() {
-      float temp[] = new float[2 * pointVertexCount];
+    void trimPointOffsets(int n) {
+      float temp[] = new float[2 * n];
+      pg.countAllocation(temp.length, 4);
       PApplet.arrayCopy(pointOffsets, 0, temp, 0, 2 * pointVertexCount);
       pointOffsets = temp;
       pointOffsetsBuffer = PGL.allocateFloatBuffer(pointOffsets);
     }
 
-    void trimPointIndices() {
-      short temp[] = new short[pointIndexCount];
+    void trimPointIndices(int n) {
+      short temp[] = new short[n];
+      pg.countAllocation(temp.length, 2);
       PApplet.arrayCopy(pointIndices, 0, temp, 0, pointIndexCount);
       pointIndices = temp;
       pointIndicesBuffer = PGL.allocateShortBuffer(pointIndices);
@@ -10949,6 +11697,14 @@ public class PGraphicsOpenGL extends PGraphics {
     int[] dupIndices;
     int dupCount;
 
+    // Scratch arrays used to triangulate simple polygons without GLU:
+    // vertices projected on the plane of the polygon, and the links of
+    // the vertices still left while clipping ears.
+    float[] polyU = new float[PGL.DEFAULT_IN_VERTICES];
+    float[] polyV = new float[PGL.DEFAULT_IN_VERTICES];
+    int[] polyPrev = new int[PGL.DEFAULT_IN_VERTICES];
+    int[] polyNext = new int[PGL.DEFAULT_IN_VERTICES];
+
     int firstPolyIndexCache;
     int lastPolyIndexCache;
     int firstLineIndexCache;
@@ -11411,7 +12167,7 @@ public class PGraphicsOpenGL extends PGraphics {
         }
         lastLineIndexCache = lastPolyIndexCache = index;
       } else { // full stroking algorithm
-        LinePath path = new LinePath(LinePath.WIND_NON_ZERO);
+        LinePath path = beginLinePath();
         for (int ln = 0; ln < lineCount; ln++) {
           int i0 = 2 * ln + 0;
           int i1 = 2 * ln + 1;
@@ -11507,7 +12263,7 @@ public class PGraphicsOpenGL extends PGraphics {
         }
         lastLineIndexCache = lastPolyIndexCache = index;
       } else {  // full stroking algorithm
-        LinePath path = new LinePath(LinePath.WIND_NON_ZERO);
+        LinePath path = beginLinePath();
         path.moveTo(in.vertices[0], in.vertices[1], in.strokeColors[0]);
         for (int ln = 0; ln < lineCount; ln++) {
           int i1 = ln + 1;
@@ -11605,7 +12361,7 @@ public class PGraphicsOpenGL extends PGraphics {
         index = addLineSegment2D(0, in.vertexCount - 1, index, false, clamp);
         lastLineIndexCache = lastPolyIndexCache = index;
       } else { // full stroking algorithm
-        LinePath path = new LinePath(LinePath.WIND_NON_ZERO);
+        LinePath path = beginLinePath();
         path.moveTo(in.vertices[0], in.vertices[1], in.strokeColors[0]);
         for (int ln = 0; ln < lineCount - 1; ln++) {
           int i1 = ln + 1;
@@ -11720,7 +12476,7 @@ public class PGraphicsOpenGL extends PGraphics {
         }
         lastLineIndexCache = lastPolyIndexCache = index;
       } else { // full stroking algorithm
-        LinePath path = new LinePath(LinePath.WIND_NON_ZERO);
+        LinePath path = beginLinePath();
         for (int i = 0; i <= in.edgeCount - 1; i++) {
           int[] edge = in.edges[i];
           int i0 = edge[0];
@@ -12550,7 +13306,22 @@ public class PGraphicsOpenGL extends PGraphics {
 
       int nInVert = in.vertexCount;
 
-      if (3 <= nInVert) {
+      if (3 <= nInVert && fill && hasOnlyVertices() &&
+          triangulateSimplePolygon(calcNormals)) {
+        // A single contour without self-intersections, the winding rule
+        // doesn't matter and GLU is not needed.
+        if (stroke) {
+          beginPolygonStroke();
+          beginStrokePath();
+          for (int i = 0; i < nInVert; i++) {
+            addStrokeVertex(in.vertices[3*i + 0], in.vertices[3*i + 1],
+                            in.vertices[3*i + 2],
+                            in.strokeColors[i], in.strokeWeights[i]);
+          }
+          endStrokePath(closed);
+          endPolygonStroke();
+        }
+      } else if (3 <= nInVert) {
         firstPolyIndexCache = -1;
 
         initGluTess();
@@ -12576,6 +13347,7 @@ public class PGraphicsOpenGL extends PGraphics {
 
         int i = 0;
         int c = 0;
+        boolean curveRun = false;
         while (i < in.vertexCount) {
           int code = VERTEX;
           boolean brk = false;
@@ -12606,8 +13378,16 @@ public class PGraphicsOpenGL extends PGraphics {
             i += 2;
           } else if (code == CURVE_VERTEX) {
             addCurveVertex(i);
+            curveRun = true;
             i++;
           } else {
+            if (curveRun) {
+              // a plain vertex ends the curve. Polygons without curves
+              // leave the count alone, they can be tessellated on a worker
+              // while the animation thread is in the middle of a curve.
+              pg.curveVertexCount = 0;
+              curveRun = false;
+            }
             addVertex(i);
             i++;
           }
@@ -12626,6 +13406,231 @@ public class PGraphicsOpenGL extends PGraphics {
       if (stroke) tessellateStrokePath();
     }
 
+    // -----------------------------------------------------------------
+    //
+    // Triangulation of simple polygons
+
+    // Polygons with more vertices than this that are not convex go through
+    // GLU, since ear clipping is quadratic.
+    static final int MAX_EAR_CLIPPING_VERTICES = 128;
+
+    boolean hasOnlyVertices() {
+      for (int c = 0; c < in.codeCount; c++) {
+        if (in.codes[c] != VERTEX) return false;
+      }
+      return true;
+    }
+
+    // Triangulates the input vertices as a single contour, with a fan if the
+    // polygon is convex, or by ear clipping if it's simple. Returns false
+    // without adding anything if the polygon is degenerate, intersects
+    // itself, or is too large, so it can be tessellated by GLU instead.
+    boolean triangulateSimplePolygon(boolean calcNormals) {
+      int n = in.vertexCount;
+      float[] vertices = in.vertices;
+
+      // Newell's method gives the normal of the polygon, with a length
+      // proportional to its area.
+      float nx = 0, ny = 0, nz = 0;
+      for (int i = 0; i < n; i++) {
+        int j = (i + 1 == n) ? 0 : i + 1;
+        float xi = vertices[3*i + 0], xj = vertices[3*j + 0];
+        float yi = vertices[3*i + 1], yj = vertices[3*j + 1];
+        float zi = vertices[3*i + 2], zj = vertices[3*j + 2];
+        nx += (yi - yj) * (zi + zj);
+        ny += (zi - zj) * (xi + xj);
+        nz += (xi - xj) * (yi + yj);
+      }
+      float ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+      if (ax + ay + az < PGL.FLOAT_EPS) return false;
+
+      // Project on the coordinate plane closest to the polygon, mirrored
+      // if needed so that it's counter-clockwise there.
+      int cu, cv;
+      boolean flip;
+      if (az >= ax && az >= ay) {
+        cu = 0; cv = 1; flip = nz < 0;
+      } else if (ax >= ay) {
+        cu = 1; cv = 2; flip = nx < 0;
+      } else {
+        cu = 2; cv = 0; flip = ny < 0;
+      }
+      if (polyU.length < n) {
+        int size = expandArraySize(polyU.length, n);
+        polyU = new float[size];
+        polyV = new float[size];
+        polyPrev = new int[size];
+        polyNext = new int[size];
+      }
+      for (int i = 0; i < n; i++) {
+        polyU[i] = vertices[3*i + cu];
+        polyV[i] = flip ? -vertices[3*i + cv] : vertices[3*i + cv];
+      }
+
+      setRawSize(3 * (n - 2));
+      if (isConvexPolygon(n)) {
+        int idx = 0;
+        for (int i = 1; i < n - 1; i++) {
+          rawIndices[idx++] = 0;
+          rawIndices[idx++] = i;
+          rawIndices[idx++] = i + 1;
+        }
+      } else if (n > MAX_EAR_CLIPPING_VERTICES || !isSimplePolygon(n) ||
+                 !clipEars(n)) {
+        rawSize = 0;
+        return false;
+      }
+
+      int firstVert = tess.polyVertexCount;
+      splitRawIndices(clampPolygon());
+
+      if (calcNormals) {
+        // All the triangles have the normal of the polygon
+        if (in.renderMode == IMMEDIATE && pg.flushMode == FLUSH_WHEN_FULL) {
+          PMatrix3D nm = pg.modelviewInv;
+          float tx = nx*nm.m00 + ny*nm.m10 + nz*nm.m20;
+          float ty = nx*nm.m01 + ny*nm.m11 + nz*nm.m21;
+          float tz = nx*nm.m02 + ny*nm.m12 + nz*nm.m22;
+          nx = tx; ny = ty; nz = tz;
+        }
+        float d = PApplet.sqrt(nx*nx + ny*ny + nz*nz);
+        nx /= d; ny /= d; nz /= d;
+        for (int i = firstVert; i < tess.polyVertexCount; i++) {
+          tess.polyNormals[3*i + 0] = nx;
+          tess.polyNormals[3*i + 1] = ny;
+          tess.polyNormals[3*i + 2] = nz;
+        }
+      }
+      return true;
+    }
+
+    // Convex and counter-clockwise: no right turns, and the edges go around
+    // only once (the direction of x and y changes sign at most twice).
+    boolean isConvexPolygon(int n) {
+      int xFlips = 0, yFlips = 0;
+      float xSign = 0, ySign = 0;
+      float xFirst = 0, yFirst = 0;
+      for (int i = 0; i < n; i++) {
+        int prev = (i == 0) ? n - 1 : i - 1;
+        int next = (i + 1 == n) ? 0 : i + 1;
+        float dx0 = polyU[i] - polyU[prev], dy0 = polyV[i] - polyV[prev];
+        float dx1 = polyU[next] - polyU[i], dy1 = polyV[next] - polyV[i];
+        if (dx0 * dy1 - dy0 * dx1 < 0) return false;
+
+        if (dx1 != 0) {
+          if (xSign == 0) {
+            xFirst = dx1;
+          } else if ((dx1 > 0) != (xSign > 0)) {
+            xFlips++;
+          }
+          xSign = dx1;
+        }
+        if (dy1 != 0) {
+          if (ySign == 0) {
+            yFirst = dy1;
+          } else if ((dy1 > 0) != (ySign > 0)) {
+            yFlips++;
+          }
+          ySign = dy1;
+        }
+      }
+      // close the loop
+      if (xSign != 0 && (xFirst > 0) != (xSign > 0)) xFlips++;
+      if (ySign != 0 && (yFirst > 0) != (ySign > 0)) yFlips++;
+      return xFlips <= 2 && yFlips <= 2;
+    }
+
+    // No two edges intersect or touch, other than consecutive ones at their
+    // shared vertex.
+    boolean isSimplePolygon(int n) {
+      for (int i = 0; i < n; i++) {
+        int i1 = (i + 1 == n) ? 0 : i + 1;
+        for (int j = i + 1; j < n; j++) {
+          int j1 = (j + 1 == n) ? 0 : j + 1;
+          if (j == i1 || j1 == i) continue;
+          if (segmentsTouch(i, i1, j, j1)) return false;
+        }
+      }
+      return true;
+    }
+
+    boolean segmentsTouch(int a, int b, int c, int d) {
+      float d1 = orient(c, d, a);
+      float d2 = orient(c, d, b);
+      float d3 = orient(a, b, c);
+      float d4 = orient(a, b, d);
+      if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) &&
+          ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0))) {
+        return true;
+      }
+      return (d1 == 0 && onSegment(c, d, a)) ||
+             (d2 == 0 && onSegment(c, d, b)) ||
+             (d3 == 0 && onSegment(a, b, c)) ||
+             (d4 == 0 && onSegment(a, b, d));
+    }
+
+    // Twice the signed area of the triangle a, b, c
+    float orient(int a, int b, int c) {
+      return (polyU[b] - polyU[a]) * (polyV[c] - polyV[a]) -
+             (polyV[b] - polyV[a]) * (polyU[c] - polyU[a]);
+    }
+
+    // Whether c, which is on the line through a and b, lies between them
+    boolean onSegment(int a, int b, int c) {
+      return Math.min(polyU[a], polyU[b]) <= polyU[c] &&
+             polyU[c] <= Math.max(polyU[a], polyU[b]) &&
+             Math.min(polyV[a], polyV[b]) <= polyV[c] &&
+             polyV[c] <= Math.max(polyV[a], polyV[b]);
+    }
+
+    // Ear clipping of a simple counter-clockwise polygon into rawIndices.
+    // Returns false if it gets stuck, which can only happen because of
+    // rounding errors.
+    boolean clipEars(int n) {
+      for (int i = 0; i < n; i++) {
+        polyPrev[i] = (i == 0) ? n - 1 : i - 1;
+        polyNext[i] = (i + 1 == n) ? 0 : i + 1;
+      }
+
+      int idx = 0;
+      int remaining = n;
+      int i = 0;
+      int tries = 0;
+      while (remaining > 3) {
+        int prev = polyPrev[i];
+        int next = polyNext[i];
+        if (isEar(prev, i, next)) {
+          rawIndices[idx++] = prev;
+          rawIndices[idx++] = i;
+          rawIndices[idx++] = next;
+          polyNext[prev] = next;
+          polyPrev[next] = prev;
+          remaining--;
+          tries = 0;
+          i = prev;
+        } else {
+          if (remaining < ++tries) return false;
+          i = next;
+        }
+      }
+      rawIndices[idx++] = polyPrev[i];
+      rawIndices[idx++] = i;
+      rawIndices[idx++] = polyNext[i];
+      rawSize = idx;
+      return true;
+    }
+
+    boolean isEar(int prev, int i, int next) {
+      if (orient(prev, i, next) <= 0) return false;  // reflex
+      for (int j = polyNext[next]; j != prev; j = polyNext[j]) {
+        if (orient(prev, i, j) >= 0 && orient(i, next, j) >= 0 &&
+            orient(next, prev, j) >= 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     void addBezierVertex(int i) {
       pg.curveVertexCount = 0;
       pg.bezierInitCheck();
@@ -12835,8 +13840,6 @@ public class PGraphicsOpenGL extends PGraphics {
     }
 
     void addVertex(int i) {
-      pg.curveVertexCount = 0;
-
       float x = in.vertices[3*i + 0];
       float y = in.vertices[3*i + 1];
       float z = in.vertices[3*i + 2];
@@ -12983,6 +13986,25 @@ public class PGraphicsOpenGL extends PGraphics {
     // Tessellates the path given as parameter. This will work only in 2D.
     // Based on the opengl stroke hack described here:
     // http://wiki.processing.org/w/Stroke_attributes_in_OpenGL
+    // Reused for all the strokes tessellated by the full stroking
+    // algorithm, so the path, the stroker, and the vertices handed to GLU
+    // aren't allocated again for each stroke. GLU still builds a new mesh
+    // for every stroke, which is most of what's allocated here.
+    LinePath linePath;
+    LineStroker lineStroker;
+    StrokeOutline strokeOutline;
+    double[][] outlineVertices;
+    int outlineVertexCount;
+
+    LinePath beginLinePath() {
+      if (linePath == null) {
+        linePath = new LinePath(LinePath.WIND_NON_ZERO);
+      } else {
+        linePath.reset();
+      }
+      return linePath;
+    }
+
     public void tessellateLinePath(LinePath path) {
       initGluTess();
       boolean clamp = clampLinePath();
@@ -12995,52 +14017,110 @@ public class PGraphicsOpenGL extends PGraphics {
                  strokeJoin == BEVEL ? LinePath.JOIN_BEVEL :
                  LinePath.JOIN_MITER;
 
-      // Make the outline of the stroke from the path
-      LinePath strokedPath = LinePath.createStrokedPath(path, strokeWeight,
-                                                        cap, join);
+      if (lineStroker == null) {
+        strokeOutline = new StrokeOutline();
+        lineStroker = new LineStroker();
+        lineStroker.setOutput(strokeOutline);
+      }
+      strokeOutline.reset();
+      outlineVertexCount = 0;
 
+      // The outline of the stroke goes straight from the stroker to GLU,
+      // stroked paths always use the non-zero winding rule.
       gluTess.beginPolygon();
+      gluTess.setWindingRule(PGL.TESS_WINDING_NONZERO);
+      LinePath.strokeTo(path, strokeWeight, cap, join, lineStroker);
+      gluTess.endPolygon();
+    }
 
-      double[] vertex;
-      float[] coords = new float[6];
+    // GLU keeps the vertex arrays until endPolygon(), and copies them in the
+    // callback, so they can be reused from one stroke to the next. Also
+    // used for the vertices that combine() creates at intersections.
+    double[] nextOutlineVertex() {
+      if (outlineVertices == null) {
+        outlineVertices = new double[PGL.DEFAULT_IN_VERTICES][];
+      } else if (outlineVertexCount == outlineVertices.length) {
+        outlineVertices = Arrays.copyOf(outlineVertices,
+                                        outlineVertexCount << 1);
+      }
+      double[] vertex = outlineVertices[outlineVertexCount];
+      if (vertex == null) {
+        // Vertex data includes coordinates, colors, normals, texture
+        // coordinates, and material properties.
+        vertex = new double[25];
+        vertex[9] = 1;
+        outlineVertices[outlineVertexCount] = vertex;
+      }
+      outlineVertexCount++;
+      return vertex;
+    }
 
-      LinePath.PathIterator iter = strokedPath.getPathIterator();
-      int rule = iter.getWindingRule();
-      switch(rule) {
-      case LinePath.WIND_EVEN_ODD:
-        gluTess.setWindingRule(PGL.TESS_WINDING_ODD);
-        break;
-      case LinePath.WIND_NON_ZERO:
-        gluTess.setWindingRule(PGL.TESS_WINDING_NONZERO);
-        break;
+    // Receives the outline of the stroke from the LineStroker and passes
+    // it to GLU, the same as storing it in a LinePath and iterating over it
+    // afterwards.
+    protected class StrokeOutline extends LineStroker {
+      int lastType;
+      boolean pendingMove;
+      float moveX, moveY;
+      int moveColor;
+
+      void reset() {
+        lastType = -1;
+        pendingMove = false;
       }
 
-      while (!iter.isDone()) {
-        switch (iter.currentSegment(coords)) {
+      @Override
+      public void moveTo(int x0, int y0, int c0) {
+        // consecutive moves replace each other
+        moveX = LinePath.S15_16ToFloat(x0);
+        moveY = LinePath.S15_16ToFloat(y0);
+        moveColor = c0;
+        pendingMove = true;
+        lastType = LinePath.SEG_MOVETO;
+      }
 
-        case LinePath.SEG_MOVETO:
-          gluTess.beginContour();
+      @Override
+      public void lineJoin() {
+      }
 
-          // $FALL-THROUGH$
-        case LinePath.SEG_LINETO:
-          // Vertex data includes coordinates, colors, normals, texture
-          // coordinates, and material properties.
-          vertex = new double[] { coords[0], coords[1], 0,
-                                  coords[2], coords[3], coords[4], coords[5],
-                                  0, 0, 1,
-                                  0, 0,
-                                  0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+      @Override
+      public void lineTo(int x1, int y1, int c1) {
+        flushMove();
+        addVertex(LinePath.S15_16ToFloat(x1), LinePath.S15_16ToFloat(y1), c1);
+        lastType = LinePath.SEG_LINETO;
+      }
 
-          gluTess.addVertex(vertex);
+      @Override
+      public void close() {
+        if (lastType == LinePath.SEG_CLOSE) return;
+        flushMove();
+        gluTess.endContour();
+        lastType = LinePath.SEG_CLOSE;
+      }
 
-          break;
-        case LinePath.SEG_CLOSE:
-          gluTess.endContour();
-          break;
+      @Override
+      public void end() {
+        flushMove();
+      }
+
+      void flushMove() {
+        if (pendingMove) {
+          gluTess.beginContour();
+          addVertex(moveX, moveY, moveColor);
+          pendingMove = false;
         }
-        iter.next();
       }
-      gluTess.endPolygon();
+
+      void addVertex(float x, float y, int c) {
+        double[] vertex = nextOutlineVertex();
+        vertex[0] = x;
+        vertex[1] = y;
+        vertex[3] = (c >> 24) & 0xFF;
+        vertex[4] = (c >> 16) & 0xFF;
+        vertex[5] = (c >>  8) & 0xFF;
+        vertex[6] = (c >>  0) & 0xFF;
+        gluTess.addVertex(vertex);
+      }
     }
 
     boolean clampLinePath() {
@@ -13230,7 +14310,10 @@ public class PGraphicsOpenGL extends PGraphics {
       public void combine(double[] coords, Object[] data,
                           float[] weight, Object[] outData) {
         int n = ((double[])data[0]).length;
-        double[] vertex = new double[n];
+        // intersections in a stroke outline come from the same pool as the
+        // outline vertices, the other values are all set below
+        double[] vertex = (strokeTess && n == 25) ? nextOutlineVertex() :
+                                                    new double[n];
         vertex[0] = coords[0];
         vertex[1] = coords[1];
         vertex[2] = coords[2];
@@ -13284,8 +14367,27 @@ public class PGraphicsOpenGL extends PGraphics {
   }
 
 
+  /**
+   * Sorts the triangles back to front when hint(ENABLE_DEPTH_SORT) is on.
+   * <p>
+   * By default, the triangles are first ordered by their farthest point,
+   * and then every pair overlapping on screen is tested to fix the order
+   * between them. This gives the right result for most intersection-free
+   * scenes, but the overlap tests make it too slow for large numbers of
+   * triangles. With hint(ENABLE_FAST_DEPTH_SORT), only the first step is
+   * done, as a radix sort on the quantized depth of the farthest point,
+   * and the depths are computed in parallel for large scenes.
+   */
   static protected class DepthSorter {
 
+    /** Bits of the quantized depth used by the radix sort. */
+    static final int DEPTH_KEY_BITS = 22;
+    static final int RADIX_BITS = 11;
+    static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
+    /** Depths of fewer triangles than this are computed serially. */
+    static protected int MIN_PARALLEL_SORT_TRIANGLES = 16384;
+
     static final int X = 0;
     static final int Y = 1;
     static final int Z = 2;
@@ -13314,6 +14416,10 @@ public class PGraphicsOpenGL extends PGraphics {
 
     float[] screenVertices = new float[0];
 
+    int[] depthKeys = new int[0];
+    int[] sortBuffer = new int[0];
+    int[] radixCounts = new int[1 << RADIX_BITS];
+
     float[] triA = new float[9];
     float[] triB = new float[9];
 
@@ -13338,6 +14444,8 @@ public class PGraphicsOpenGL extends PGraphics {
         maxXBuffer      = new float[newSize];
         maxYBuffer      = new float[newSize];
         maxZBuffer      = new float[newSize];
+        depthKeys       = new int[newSize];
+        sortBuffer      = new int[newSize];
       }
     }
 
@@ -13387,59 +14495,122 @@ public class PGraphicsOpenGL extends PGraphics {
         }
       }
 
-      { // Map vertices to screen
-        int polyVertexCount = tessGeo.polyVertexCount;
-        checkVertexBuffer(polyVertexCount);
-        float[] screenVertices = this.screenVertices;
+      int polyVertexCount = tessGeo.polyVertexCount;
+      checkVertexBuffer(polyVertexCount);
+      boolean fast = pg.getHint(ENABLE_FAST_DEPTH_SORT);
 
-        float[] polyVertices = tessGeo.polyVertices;
+      // Map vertices to screen
+      float[] polyVertices = tessGeo.polyVertices;
+      forEachRange(polyVertexCount, fast, (from, to) -> {
+        projectVertices(polyVertices, from, to);
+      });
 
-        PMatrix3D projection = pg.projection;
+      int[] vertexOffset = tessGeo.polyIndexCache.vertexOffset;
+      short[] polyIndices = tessGeo.polyIndices;
+
+      if (fast) {
+        forEachRange(triangleCount, true, (from, to) -> {
+          computeBounds(new float[9], from, to, vertexOffset, polyIndices);
+        });
+        radixSortByMinZ(triangleCount);
+      } else {
+        computeBounds(triA, 0, triangleCount, vertexOffset, polyIndices);
+        sortByMinZ(0, triangleCount - 1, triangleIndices, minZBuffer);
+        sortOverlapping(triangleCount, vertexOffset, polyIndices);
+      }
+
+      { // Reorder the buffers
+        for (int id = 0; id < triangleCount; id++) {
+          int mappedId = triangleIndices[id];
+          if (id != mappedId) {
+
+            // put the first index aside
+            short i0 = polyIndices[3*id+0];
+            short i1 = polyIndices[3*id+1];
+            short i2 = polyIndices[3*id+2];
+            int texId = texMap[id];
+            int voffsetId = voffsetMap[id];
+
+            // process the whole permutation cycle
+            int currId = id;
+            int nextId = mappedId;
+            do {
+              triangleIndices[currId] = currId;
+              polyIndices[3*currId+0] = polyIndices[3*nextId+0];
+              polyIndices[3*currId+1] = polyIndices[3*nextId+1];
+              polyIndices[3*currId+2] = polyIndices[3*nextId+2];
+              texMap[currId] = texMap[nextId];
+              voffsetMap[currId] = voffsetMap[nextId];
 
-        for (int i = 0; i < polyVertexCount; i++) {
-          float x = polyVertices[4*i+X];
-          float y = polyVertices[4*i+Y];
-          float z = polyVertices[4*i+Z];
-          float w = polyVertices[4*i+W];
+              currId = nextId;
+              nextId = triangleIndices[nextId];
+            } while (nextId != id);
 
-          float ox = projection.m00 * x + projection.m01 * y +
-              projection.m02 * z + projection.m03 * w;
-          float oy = projection.m10 * x + projection.m11 * y +
-              projection.m12 * z + projection.m13 * w;
-          float oz = projection.m20 * x + projection.m21 * y +
-              projection.m22 * z + projection.m23 * w;
-          float ow = projection.m30 * x + projection.m31 * y +
-              projection.m32 * z + projection.m33 * w;
-          if (nonZero(ow)) {
-            ox /= ow;
-            oy /= ow;
-            oz /= ow;
+            // place the first index at the end
+            triangleIndices[currId] = currId;
+            polyIndices[3*currId+0] = i0;
+            polyIndices[3*currId+1] = i1;
+            polyIndices[3*currId+2] = i2;
+            texMap[currId] = texId;
+            voffsetMap[currId] = voffsetId;
           }
-          screenVertices[3*i+X] = ox;
-          screenVertices[3*i+Y] = oy;
-          screenVertices[3*i+Z] = -oz;
         }
       }
-      float[] screenVertices = this.screenVertices;
 
-      int[] vertexOffset = tessGeo.polyIndexCache.vertexOffset;
-      short[] polyIndices = tessGeo.polyIndices;
+    }
+
+    void projectVertices(float[] polyVertices, int from, int to) {
+      float[] screenVertices = this.screenVertices;
+      PMatrix3D projection = pg.projection;
+
+      for (int i = from; i < to; i++) {
+        float x = polyVertices[4*i+X];
+        float y = polyVertices[4*i+Y];
+        float z = polyVertices[4*i+Z];
+        float w = polyVertices[4*i+W];
+
+        float ox = projection.m00 * x + projection.m01 * y +
+            projection.m02 * z + projection.m03 * w;
+        float oy = projection.m10 * x + projection.m11 * y +
+            projection.m12 * z + projection.m13 * w;
+        float oz = projection.m20 * x + projection.m21 * y +
+            projection.m22 * z + projection.m23 * w;
+        float ow = projection.m30 * x + projection.m31 * y +
+            projection.m32 * z + projection.m33 * w;
+        if (nonZero(ow)) {
+          ox /= ow;
+          oy /= ow;
+          oz /= ow;
+        }
+        screenVertices[3*i+X] = ox;
+        screenVertices[3*i+Y] = oy;
+        screenVertices[3*i+Z] = -oz;
+      }
+    }
+
+    void computeBounds(float[] tri, int from, int to,
+                       int[] vertexOffset, short[] polyIndices) {
+      for (int i = from; i < to; i++) {
+        fetchTriCoords(tri, i, vertexOffset, voffsetMap, screenVertices, polyIndices);
+        minXBuffer[i] = PApplet.min(tri[X0], tri[X1], tri[X2]);
+        maxXBuffer[i] = PApplet.max(tri[X0], tri[X1], tri[X2]);
+        minYBuffer[i] = PApplet.min(tri[Y0], tri[Y1], tri[Y2]);
+        maxYBuffer[i] = PApplet.max(tri[Y0], tri[Y1], tri[Y2]);
+        minZBuffer[i] = PApplet.min(tri[Z0], tri[Z1], tri[Z2]);
+        maxZBuffer[i] = PApplet.max(tri[Z0], tri[Z1], tri[Z2]);
+      }
+    }
+
+    // Fixes the order of the triangles sorted by min z, testing each one
+    // against those that overlap it on screen.
+    void sortOverlapping(int triangleCount, int[] vertexOffset,
+                         short[] polyIndices) {
+      int[] triangleIndices = this.triangleIndices;
+      float[] screenVertices = this.screenVertices;
 
       float[] triA = this.triA;
       float[] triB = this.triB;
 
-      for (int i = 0; i < triangleCount; i++) {
-        fetchTriCoords(triA, i, vertexOffset, voffsetMap, screenVertices, polyIndices);
-        minXBuffer[i] = PApplet.min(triA[X0], triA[X1], triA[X2]);
-        maxXBuffer[i] = PApplet.max(triA[X0], triA[X1], triA[X2]);
-        minYBuffer[i] = PApplet.min(triA[Y0], triA[Y1], triA[Y2]);
-        maxYBuffer[i] = PApplet.max(triA[Y0], triA[Y1], triA[Y2]);
-        minZBuffer[i] = PApplet.min(triA[Z0], triA[Z1], triA[Z2]);
-        maxZBuffer[i] = PApplet.max(triA[Z0], triA[Z1], triA[Z2]);
-      }
-
-      sortByMinZ(0, triangleCount - 1, triangleIndices, minZBuffer);
-
       int activeTid = 0;
 
       BitSet marked = this.marked;
@@ -13511,45 +14682,64 @@ public class PGraphicsOpenGL extends PGraphics {
         }
         activeTid++;
       }
+    }
 
-      { // Reorder the buffers
-        for (int id = 0; id < triangleCount; id++) {
-          int mappedId = triangleIndices[id];
-          if (id != mappedId) {
-
-            // put the first index aside
-            short i0 = polyIndices[3*id+0];
-            short i1 = polyIndices[3*id+1];
-            short i2 = polyIndices[3*id+2];
-            int texId = texMap[id];
-            int voffsetId = voffsetMap[id];
-
-            // process the whole permutation cycle
-            int currId = id;
-            int nextId = mappedId;
-            do {
-              triangleIndices[currId] = currId;
-              polyIndices[3*currId+0] = polyIndices[3*nextId+0];
-              polyIndices[3*currId+1] = polyIndices[3*nextId+1];
-              polyIndices[3*currId+2] = polyIndices[3*nextId+2];
-              texMap[currId] = texMap[nextId];
-              voffsetMap[currId] = voffsetMap[nextId];
-
-              currId = nextId;
-              nextId = triangleIndices[nextId];
-            } while (nextId != id);
-
-            // place the first index at the end
-            triangleIndices[currId] = currId;
-            polyIndices[3*currId+0] = i0;
-            polyIndices[3*currId+1] = i1;
-            polyIndices[3*currId+2] = i2;
-            texMap[currId] = texId;
-            voffsetMap[currId] = voffsetId;
-          }
+    // Stable LSD radix sort of the triangles by their min z, quantized to
+    // DEPTH_KEY_BITS over the range of depths in the scene.
+    void radixSortByMinZ(int triangleCount) {
+      float[] minZBuffer = this.minZBuffer;
+      float lo = Float.POSITIVE_INFINITY;
+      float hi = Float.NEGATIVE_INFINITY;
+      for (int i = 0; i < triangleCount; i++) {
+        float z = minZBuffer[i];
+        if (z < lo && z != Float.NEGATIVE_INFINITY) lo = z;
+        if (hi < z && z != Float.POSITIVE_INFINITY) hi = z;
+      }
+      final float min = lo;
+      final float scale = lo < hi ? ((1 << DEPTH_KEY_BITS) - 1) / (hi - lo) : 0;
+      forEachRange(triangleCount, true, (from, to) -> {
+        int maxKey = (1 << DEPTH_KEY_BITS) - 1;
+        for (int i = from; i < to; i++) {
+          // NaN goes to the front along with -infinity
+          float key = (minZBuffer[i] - min) * scale;
+          depthKeys[i] = key >= maxKey ? maxKey : key > 0 ? (int) key : 0;
+        }
+      });
+
+      int[] depthKeys = this.depthKeys;
+      int[] counts = this.radixCounts;
+      int[] src = triangleIndices;
+      int[] dst = sortBuffer;
+      for (int shift = 0; shift < DEPTH_KEY_BITS; shift += RADIX_BITS) {
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < triangleCount; i++) {
+          counts[(depthKeys[src[i]] >>> shift) & RADIX_MASK]++;
+        }
+        int sum = 0;
+        for (int b = 0; b < counts.length; b++) {
+          int count = counts[b];
+          counts[b] = sum;
+          sum += count;
+        }
+        for (int i = 0; i < triangleCount; i++) {
+          int tid = src[i];
+          dst[counts[(depthKeys[tid] >>> shift) & RADIX_MASK]++] = tid;
         }
+        int[] temp = src;
+        src = dst;
+        dst = temp;
+      }
+      if (src != triangleIndices) {
+        System.arraycopy(src, 0, triangleIndices, 0, triangleCount);
       }
+    }
 
+    // Splits [0, count) into one range per core and runs them on the shared
+    // pool, unless parallel is false or count is too small to be worth it.
+    static void forEachRange(int count, boolean parallel,
+                             PThreadPool.RangeTask task) {
+      boolean serial = !parallel || count < MIN_PARALLEL_SORT_TRIANGLES;
+      PThreadPool.forEachRange(count, serial ? 1 : PThreadPool.threads(), task);
     }
 
     static void fetchTriCoords(float[] tri, int ti, int[] vertexOffset,
@@ -32,6 +32,7 @@ import processing.core.PMatrix;
 import processing.core.PMatrix2D;
 import processing.core.PMatrix3D;
 import processing.core.PShape;
+import processing.core.PThreadPool;
 import processing.core.PVector;
 import processing.opengl.PGraphicsOpenGL.AttributeMap;
 import processing.opengl.PGraphicsOpenGL.IndexCache;
@@ -41,8 +42,12 @@ import processing.opengl.PGraphicsOpenGL.Tessellator;
 import processing.opengl.PGraphicsOpenGL.VertexAttribute;
 
 import java.nio.Buffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This class holds a 3D model composed of vertices, normals, colors
@@ -165,6 +170,17 @@ public class PShapeOpenGL extends PShape {
   protected int firstPointVertex;
   protected int lastPointVertex;
 
+  // Bounding box of the tessellated geometry, used for culling. It's
+  // recalculated when the geometry version of the root doesn't match.
+  protected float[] tessBounds;
+  protected float tessPadding;
+  protected int tessBoundsVersion = -1;
+  protected int geometryVersion;
+
+  // Simplified copies of the shape, one for each level of detail, created
+  // the first time they are drawn. Only used by the root shape.
+  protected PShapeOpenGL[] lodShapes;
+
   // ........................................................
 
   // Geometric transformations.
@@ -180,6 +196,10 @@ public class PShapeOpenGL extends PShape {
   protected boolean tessellated;
   protected boolean needBufferInit = false;
 
+  // Background tessellation, see prepareAsync()
+  protected Future<?> prepareJob;
+  protected boolean preparing;
+
   // Flag to indicate if the shape can have holes or not.
   protected boolean solid = true;
 
@@ -1343,6 +1363,7 @@ public class PShapeOpenGL extends PShape {
       }
       matrix.reset();
       matrixInv.reset();
+      invalidateBounds();
     }
   }
 
@@ -1424,6 +1445,7 @@ public class PShapeOpenGL extends PShape {
 
 
   protected void applyMatrixImpl(PMatrix matrix) {
+    root.geometryVersion++;
     if (hasPolys) {
       tessGeo.applyMatrixOnPolyGeometry(matrix,
                                         firstPolyVertex, lastPolyVertex);
@@ -1456,6 +1478,7 @@ public class PShapeOpenGL extends PShape {
 
   @Override
   protected void checkMatrix(int dimensions) {
+    invalidateBounds();
     if (matrix == null) {
       if (dimensions == 2) {
         matrix = new PMatrix2D();
@@ -2161,6 +2184,8 @@ public class PShapeOpenGL extends PShape {
     if (PGraphicsOpenGL.same(strokeWeight, weight)) return;
     float oldWeight = strokeWeight;
     strokeWeight = weight;
+    root.geometryVersion++;
+    invalidateBounds();
 
     Arrays.fill(inGeo.strokeWeights, 0, inGeo.vertexCount, strokeWeight);
     if (shapeCreated && tessellated && (hasLines || hasPoints)) {
@@ -2773,6 +2798,124 @@ public class PShapeOpenGL extends PShape {
   protected void markForTessellation() {
     root.tessellated = false;
     tessellated = false;
+    root.geometryVersion++;
+    invalidateBounds();
+  }
+
+
+  @Override
+  public void prepare() {
+    if (root != this) {
+      root.prepare();
+      return;
+    }
+    finishPrepare(true);
+    updateTessellation();
+  }
+
+
+  @Override
+  public void prepareAsync() {
+    if (root != this) {
+      root.prepareAsync();
+      return;
+    }
+    if (prepareJob != null || tessellated) return;
+    if (!canTessellateInBackground()) {
+      // Uses the curve, bezier or sphere settings or the matrices of the
+      // renderer, which can only be done on the animation thread.
+      updateTessellation();
+      return;
+    }
+
+    final boolean accurate = tessellator.accurate2DStrokes;
+    preparing = true;
+    prepareJob = PThreadPool.pool().submit(() -> {
+      Tessellator tess = workerTessellator.get();
+      tess.setAccurate2DStrokes(accurate);
+      setTessellator(tess);
+      try {
+        tessellate();
+        aggregate();
+        initModified();
+      } finally {
+        setTessellator(pg.tessellator);
+      }
+    });
+  }
+
+
+  @Override
+  public boolean isPrepared() {
+    Future<?> job = root.prepareJob;
+    return job == null || job.isDone();
+  }
+
+
+  /**
+   * Completes a background tessellation, if there is one. Returns false if
+   * it's still running and wait is false, meaning that the shape can't be
+   * drawn yet.
+   */
+  protected boolean finishPrepare(boolean wait) {
+    Future<?> job = prepareJob;
+    if (job == null) return true;
+    if (!wait && !job.isDone()) return false;
+
+    try {
+      job.get();
+    } catch (InterruptedException e) {
+      return false;
+    } catch (ExecutionException e) {
+      prepareJob = null;
+      preparing = false;
+      markForTessellation();
+      throw PThreadPool.rethrow(e);
+    }
+    prepareJob = null;
+    preparing = false;
+    // the buffers are created here, on the animation thread
+    needBufferInit = true;
+    return true;
+  }
+
+
+  /**
+   * Tessellates the shape if needed, so its geometry can be copied by
+   * instance(), and returns the texture used by all of it (or null).
+   */
+  protected PImage prepareInstances() {
+    root.finishPrepare(true);
+    updateTessellation();
+    if (family == GROUP) {
+      if (textures == null || textures.isEmpty()) return null;
+      if (1 < textures.size()) {
+        throw new RuntimeException("beginInstances() doesn't support " +
+                                   "shapes with more than one texture");
+      }
+      return textures.iterator().next();
+    }
+    return image;
+  }
+
+
+  protected boolean canTessellateInBackground() {
+    if (family == GROUP) {
+      for (int i = 0; i < childCount; i++) {
+        PShapeOpenGL child = (PShapeOpenGL) children[i];
+        if (!child.canTessellateInBackground()) return false;
+      }
+      return true;
+    }
+    return canTessellateInParallel();
+  }
+
+
+  protected void setTessellator(Tessellator tess) {
+    tessellator = tess;
+    for (int i = 0; i < childCount; i++) {
+      ((PShapeOpenGL) children[i]).setTessellator(tess);
+    }
   }
 
 
@@ -2887,7 +3030,17 @@ public class PShapeOpenGL extends PShape {
   }
 
   protected void tessellateImpl() {
-    tessGeo = root.tessGeo;
+    tessellateImpl(root.tessGeo, true);
+  }
+
+
+  /**
+   * Tessellates this shape (and its children, if it's a group) into geo.
+   * When tessellating on a worker thread, addTex is false and the texture
+   * is registered with the parent afterwards, on the animation thread.
+   */
+  protected void tessellateImpl(TessGeometry geo, boolean addTex) {
+    tessGeo = geo;
 
     firstPolyIndexCache = -1;
     lastPolyIndexCache = -1;
@@ -2902,9 +3055,14 @@ public class PShapeOpenGL extends PShape {
         collectPolyAttribs();
       }
 
-      for (int i = 0; i < childCount; i++) {
-        PShapeOpenGL child = (PShapeOpenGL) children[i];
-        child.tessellateImpl();
+      if (this == root && !preparing &&
+          pg.getHint(ENABLE_PARALLEL_TESSELLATION)) {
+        tessellateParallel();
+      } else {
+        for (int i = 0; i < childCount; i++) {
+          PShapeOpenGL child = (PShapeOpenGL) children[i];
+          child.tessellateImpl();
+        }
       }
     } else {
       if (shapeCreated) {
@@ -3000,7 +3158,7 @@ public class PShapeOpenGL extends PShape {
           tessellatePath();
         }
 
-        if (image != null && parent != null) {
+        if (addTex && image != null && parent != null) {
           ((PShapeOpenGL)parent).addTexture(image);
         }
 
@@ -3021,6 +3179,198 @@ public class PShapeOpenGL extends PShape {
   }
 
 
+  // Parallel tessellation of large groups, see
+  // hint(ENABLE_PARALLEL_TESSELLATION). The leaf shapes are split into
+  // chunks of consecutive children, each chunk is tessellated into its own
+  // TessGeometry on a worker thread (with a tessellator per thread), and
+  // then the chunks are appended to the root geometry in order. Since in
+  // retained mode every shape starts its own index cache block, this gives
+  // exactly the same geometry as tessellating serially.
+
+
+  /** Groups with fewer leaf shapes than this are tessellated serially. */
+  static protected int MIN_PARALLEL_TESS_SHAPES = 64;
+
+  /** Tessellator for each PThreadPool thread. */
+  static protected ThreadLocal<Tessellator> workerTessellator =
+    ThreadLocal.withInitial(Tessellator::new);
+
+
+  protected void tessellateParallel() {
+    ArrayList<PShapeOpenGL> leaves = new ArrayList<>();
+    collectTessLeaves(leaves);
+
+    // prepareAsync() already runs on the pool, and can't wait for chunks
+    // queued behind it
+    int threads = PThreadPool.threads();
+    if (threads < 2 || leaves.size() < MIN_PARALLEL_TESS_SHAPES ||
+        PThreadPool.isWorker()) {
+      for (int i = 0; i < childCount; i++) {
+        PShapeOpenGL child = (PShapeOpenGL) children[i];
+        child.tessellateImpl();
+      }
+      return;
+    }
+
+    // Consecutive leaves that don't touch the renderer state are grouped
+    // into chunks, the others are tessellated on this thread during the
+    // merge, so the original order is preserved.
+    int chunkSize = Math.max(1, leaves.size() / (4 * threads));
+    ArrayList<Object> items = new ArrayList<>();
+    ArrayList<PShapeOpenGL> chunk = null;
+    for (PShapeOpenGL leaf : leaves) {
+      if (leaf.canTessellateInParallel()) {
+        if (chunk == null || chunk.size() == chunkSize) {
+          chunk = new ArrayList<>();
+          items.add(chunk);
+        }
+        chunk.add(leaf);
+      } else {
+        items.add(leaf);
+        chunk = null;
+      }
+    }
+
+    final boolean accurate = tessellator.accurate2DStrokes;
+    ExecutorService pool = PThreadPool.pool();
+    ArrayList<Future<TessGeometry>> results = new ArrayList<>();
+    for (Object item : items) {
+      if (item instanceof ArrayList) {
+        @SuppressWarnings("unchecked")
+        final ArrayList<PShapeOpenGL> shapes = (ArrayList<PShapeOpenGL>) item;
+        results.add(pool.submit(() -> {
+          TessGeometry geo =
+            PGraphicsOpenGL.newTessGeometry(pg, polyAttribs, PGraphicsOpenGL.RETAINED);
+          for (int i = 0; i < polyAttribs.size(); i++) {
+            geo.initAttrib(polyAttribs.get(i));
+          }
+          Tessellator tess = workerTessellator.get();
+          tess.setAccurate2DStrokes(accurate);
+          for (PShapeOpenGL shape : shapes) {
+            Tessellator saved = shape.tessellator;
+            shape.tessellator = tess;
+            try {
+              shape.tessellateImpl(geo, false);
+            } finally {
+              shape.tessellator = saved;
+            }
+          }
+          return geo;
+        }));
+      }
+    }
+
+    int next = 0;
+    for (Object item : items) {
+      if (item instanceof PShapeOpenGL) {
+        ((PShapeOpenGL) item).tessellateImpl();
+        continue;
+      }
+      TessGeometry geo;
+      try {
+        geo = results.get(next++).get();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw PThreadPool.rethrow(e);
+      }
+
+      int polyBase = tessGeo.polyIndexCache.size;
+      int lineBase = tessGeo.lineIndexCache.size;
+      int pointBase = tessGeo.pointIndexCache.size;
+      tessGeo.append(geo);
+
+      @SuppressWarnings("unchecked")
+      ArrayList<PShapeOpenGL> shapes = (ArrayList<PShapeOpenGL>) item;
+      for (PShapeOpenGL shape : shapes) {
+        shape.tessGeo = tessGeo;
+        shape.shiftIndexCaches(polyBase, lineBase, pointBase);
+        if (shape.image != null && shape.parent != null) {
+          ((PShapeOpenGL)shape.parent).addTexture(shape.image);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Adds the leaf shapes under this group to the list, in the order they
+   * are tessellated serially, and initializes the nested groups.
+   */
+  protected void collectTessLeaves(ArrayList<PShapeOpenGL> leaves) {
+    for (int i = 0; i < childCount; i++) {
+      PShapeOpenGL child = (PShapeOpenGL) children[i];
+      if (child.family == GROUP) {
+        child.tessGeo = root.tessGeo;
+        child.firstPolyIndexCache = -1;
+        child.lastPolyIndexCache = -1;
+        child.firstLineIndexCache = -1;
+        child.lastLineIndexCache = -1;
+        child.firstPointIndexCache = -1;
+        child.lastPointIndexCache = -1;
+        if (child.polyAttribs == null) {
+          child.polyAttribs = PGraphicsOpenGL.newAttributeMap();
+          child.collectPolyAttribs();
+        }
+        child.collectTessLeaves(leaves);
+        child.firstPolyVertex = child.lastPolyVertex = -1;
+        child.firstLineVertex = child.lastLineVertex = -1;
+        child.firstPointVertex = child.lastPointVertex = -1;
+        child.tessellated = true;
+      } else {
+        leaves.add(child);
+      }
+    }
+  }
+
+
+  /**
+   * Shapes that change the settings of the renderer while tessellating
+   * (spheres, rounded rects, and curves or bezier vertices), or that read
+   * its current matrices to pick their detail (ellipses and arcs), have to
+   * stay on the animation thread.
+   */
+  protected boolean canTessellateInParallel() {
+    if (!shapeCreated) return true;
+    if (family == GEOMETRY && kind == POLYGON) {
+      return !inGeo.hasBezierVertex() && !inGeo.hasQuadraticVertex() &&
+             !inGeo.hasCurveVertex();
+    } else if (family == PRIMITIVE) {
+      if (kind == RECT) {
+        // the rounded corners are quadratic vertices
+        return params.length <= 4;
+      }
+      return kind != SPHERE && kind != ELLIPSE && kind != ARC;
+    } else if (family == PATH) {
+      for (int i = 0; i < vertexCodeCount; i++) {
+        if (vertexCodes[i] != VERTEX && vertexCodes[i] != BREAK) return false;
+      }
+    }
+    return true;
+  }
+
+
+  protected void shiftIndexCaches(int polyBase, int lineBase, int pointBase) {
+    if (is2D()) {
+      // 2D strokes are tessellated as polygons, so their ranges are in
+      // the poly index cache as well
+      lineBase = pointBase = polyBase;
+    }
+    if (firstPolyIndexCache != -1) {
+      firstPolyIndexCache += polyBase;
+      lastPolyIndexCache += polyBase;
+    }
+    if (firstLineIndexCache != -1) {
+      firstLineIndexCache += lineBase;
+      lastLineIndexCache += lineBase;
+    }
+    if (firstPointIndexCache != -1) {
+      firstPointIndexCache += pointBase;
+      lastPointIndexCache += pointBase;
+    }
+  }
+
+
   protected void tessellatePoint() {
     float x = 0, y = 0, z = 0;
     if (params.length == 2) {
@@ -4673,15 +5023,23 @@ public class PShapeOpenGL extends PShape {
     if (g instanceof PGraphicsOpenGL) {
       PGraphicsOpenGL gl = (PGraphicsOpenGL)g;
       if (visible) {
+        // still being tessellated in the background
+        if (!root.finishPrepare(false)) return;
+
+        if (lodShapes != null && root == this && drawLODShape(gl)) return;
+
         pre(gl);
 
         updateTessellation();
         updateGeometry();
 
         if (family == GROUP) {
-          if (fragmentedGroup(gl)) {
+          if (fragmentedGroup(gl) || gl.cullChildren(this)) {
             for (int i = 0; i < childCount; i++) {
-              ((PShapeOpenGL) children[i]).draw(gl);
+              PShapeOpenGL child = (PShapeOpenGL) children[i];
+              if (!gl.cullShape(child)) {
+                child.draw(gl);
+              }
             }
           } else {
             PImage tex = null;
@@ -4793,6 +5151,242 @@ public class PShapeOpenGL extends PShape {
   }
 
 
+  @Override
+  protected boolean vertexBounds(float[] bounds) {
+    if (family != GEOMETRY) {
+      return super.vertexBounds(bounds);
+    }
+    for (int i = 0; i < inGeo.codeCount; i++) {
+      if (inGeo.codes[i] == CURVE_VERTEX) return false;
+    }
+    for (int i = 0; i < inGeo.vertexCount; i++) {
+      includeBounds(bounds, inGeo.vertices[3 * i + 0],
+                            inGeo.vertices[3 * i + 1],
+                            inGeo.vertices[3 * i + 2]);
+    }
+    return true;
+  }
+
+
+  /**
+   * Bounding box of the tessellated geometry of this shape. Transformations
+   * are already applied to the tessellated vertices, so it's in the
+   * coordinates of the root shape.
+   */
+  protected float[] getTessBounds() {
+    updateTessellation();
+    if (tessBounds == null) {
+      tessBounds = new float[6];
+    }
+    if (tessBoundsVersion != root.geometryVersion) {
+      emptyBounds(tessBounds);
+      if (hasPolys) {
+        includeTessVertices(tessGeo.polyVertices,
+                            firstPolyVertex, lastPolyVertex);
+      }
+      tessPadding = 0;
+      if (is3D()) {
+        if (hasLines) {
+          includeTessVertices(tessGeo.lineVertices,
+                              firstLineVertex, lastLineVertex);
+        }
+        if (hasPoints) {
+          includeTessVertices(tessGeo.pointVertices,
+                              firstPointVertex, lastPointVertex);
+        }
+        tessPadding = calcTessPadding();
+      }
+      tessBoundsVersion = root.geometryVersion;
+    }
+    return tessBounds;
+  }
+
+
+  /**
+   * Lines and points in 3D are expanded to their weight in screen space,
+   * so the box can't include it. Returns the largest weight in pixels.
+   */
+  protected float getTessPadding() {
+    getTessBounds();
+    return tessPadding;
+  }
+
+
+  protected float calcTessPadding() {
+    if (family == GROUP) {
+      float padding = 0;
+      for (int i = 0; i < childCount; i++) {
+        PShapeOpenGL child = (PShapeOpenGL) children[i];
+        padding = PApplet.max(padding, child.getTessPadding());
+      }
+      return padding;
+    }
+    return hasLines || hasPoints ? strokeWeight : 0;
+  }
+
+
+  protected void includeTessVertices(float[] vertices, int first, int last) {
+    for (int i = first; i <= last; i++) {
+      includeBounds(tessBounds, vertices[4 * i + 0],
+                                vertices[4 * i + 1],
+                                vertices[4 * i + 2]);
+    }
+  }
+
+
+  ///////////////////////////////////////////////////////////
+
+  //
+
+  // Level of detail
+
+
+  @Override
+  protected void setLODImpl(float[] tolerances) {
+    super.setLODImpl(tolerances);
+    if (tolerances == null || root != this) {
+      lodShapes = null;
+    } else {
+      lodShapes = new PShapeOpenGL[tolerances.length];
+    }
+  }
+
+
+  @Override
+  protected LevelOfDetail[] createLODs(float[] tolerances) {
+    if (family != GEOMETRY) {
+      return super.createLODs(tolerances);
+    }
+    if (kind != POLYGON) return null;
+    return simplify(inGeo.vertices, inGeo.vertexCount,
+                    inGeo.codes, inGeo.codeCount, close || fill, tolerances);
+  }
+
+
+  // The whole shape is tessellated into a single buffer, so instead of
+  // swapping the vertices of each child when drawing, the simplified
+  // version is a separate shape, with the transformation of this one
+  // applied on the renderer instead of baked into the geometry.
+  protected boolean drawLODShape(PGraphicsOpenGL gl) {
+    gl.pushMatrix();
+    if (matrix != null) {
+      gl.applyMatrix(matrix);
+    }
+    int level = chooseLOD(gl);
+    if (level != -1) {
+      if (lodShapes[level] == null) {
+        lodShapes[level] = copyLOD(pg, this, level, true);
+      }
+      lodShapes[level].draw(gl);
+    }
+    gl.popMatrix();
+    return level != -1;
+  }
+
+
+  /**
+   * Copy the shape and its children with the vertices kept at the given
+   * level of detail. Children that couldn't be simplified are copied
+   * whole. Custom vertex attributes are not copied.
+   */
+  static protected PShapeOpenGL copyLOD(PGraphicsOpenGL pg, PShapeOpenGL src,
+                                        int level, boolean top) {
+    PShapeOpenGL dest;
+    LevelOfDetail lod = (src.lods == null) ? null : src.lods[level];
+    if (src.family == GROUP) {
+      dest = (PShapeOpenGL) pg.createShapeFamily(GROUP);
+      for (int i = 0; i < src.childCount; i++) {
+        PShapeOpenGL child = (PShapeOpenGL) src.children[i];
+        dest.addChild(copyLOD(pg, child, level, false));
+      }
+    } else if (src.family == PRIMITIVE) {
+      dest = (PShapeOpenGL) pg.createShapePrimitive(src.kind, src.params);
+    } else if (src.family == PATH) {
+      dest = (PShapeOpenGL) pg.createShapeFamily(PATH);
+      if (lod != null) {
+        dest.setPath(lod.vertexCount, lod.vertices, lod.codeCount, lod.codes);
+      } else if (0 < src.vertexCount) {
+        dest.setPath(src.vertexCount, src.vertices,
+                     src.vertexCodeCount, src.vertexCodes);
+      }
+      dest.close = src.close;
+    } else {
+      dest = (PShapeOpenGL) pg.createShapeFamily(GEOMETRY);
+      copyGeometryLOD(src, dest, lod);
+    }
+
+    // the top shape is drawn with its transformation on the renderer
+    if (!top) {
+      copyMatrix(src, dest);
+    }
+    copyStyles(src, dest);
+    copyImage(src, dest);
+    dest.style = src.style;
+    dest.visible = src.visible;
+    return dest;
+  }
+
+
+  static protected void copyGeometryLOD(PShapeOpenGL src, PShapeOpenGL dest,
+                                        LevelOfDetail lod) {
+    InGeometry in = src.inGeo;
+    int count = (lod == null) ? in.vertexCount : lod.vertexCount;
+    int codeCount = (lod == null) ? in.codeCount : lod.codeCount;
+    int[] codes = (lod == null) ? in.codes : lod.codes;
+
+    dest.beginShape(src.kind);
+    if (codeCount == 0) {
+      for (int i = 0; i < count; i++) {
+        copyVertex(in, dest.inGeo, (lod == null) ? i : lod.indices[i],
+                   VERTEX, false);
+      }
+    } else {
+      int index = 0;
+      boolean brk = false;
+      for (int c = 0; c < codeCount; c++) {
+        int code = codes[c];
+        if (code == BREAK) {
+          brk = true;
+          continue;
+        }
+        // the control points of curves are added without codes
+        int points = 1;
+        if (code == BEZIER_VERTEX) points = 3;
+        else if (code == QUADRATIC_VERTEX) points = 2;
+        for (int j = 0; j < points; j++) {
+          int i = (lod == null) ? index : lod.indices[index];
+          copyVertex(in, dest.inGeo, i, (j == 0) ? code : -1, brk && j == 0);
+          index++;
+        }
+        brk = false;
+      }
+    }
+    dest.normalMode = src.normalMode;
+    dest.endShape(src.close ? CLOSE : OPEN);
+  }
+
+
+  static protected void copyVertex(InGeometry src, InGeometry dest, int i,
+                                   int code, boolean brk) {
+    dest.addVertex(src.vertices[3 * i + 0],
+                   src.vertices[3 * i + 1],
+                   src.vertices[3 * i + 2],
+                   PGL.nativeToJavaARGB(src.colors[i]),
+                   src.normals[3 * i + 0],
+                   src.normals[3 * i + 1],
+                   src.normals[3 * i + 2],
+                   src.texcoords[2 * i + 0],
+                   src.texcoords[2 * i + 1],
+                   PGL.nativeToJavaARGB(src.strokeColors[i]),
+                   src.strokeWeights[i],
+                   PGL.nativeToJavaARGB(src.ambient[i]),
+                   PGL.nativeToJavaARGB(src.specular[i]),
+                   PGL.nativeToJavaARGB(src.emissive[i]),
+                   src.shininess[i],
+                   code, brk);
+  }
+
+
   // Returns true if some child shapes below this one either
   // use different texture maps (or only one texture is used by some while
   // others are untextured), or have stroked textures,
@@ -316,6 +316,17 @@ public class Texture implements PConstants {
 
 
   public void set(int[] pixels, int x, int y, int w, int h, int format) {
+    set(pixels, x, y, w, h, format, true);
+  }
+
+
+  /**
+   * Same as set(), but the mipmaps are only regenerated when mipmaps is
+   * true, so that several regions can be uploaded followed by a single
+   * updateMipmaps().
+   */
+  protected void set(int[] pixels, int x, int y, int w, int h, int format,
+                     boolean mipmaps) {
     if (pixels == null) {
       PGraphics.showWarning("The pixels array is null.");
       return;
@@ -347,7 +358,7 @@ public class Texture implements PConstants {
                       pixelBuffer);
     fillEdges(x, y, w, h);
 
-    if (usingMipmaps) {
+    if (mipmaps && usingMipmaps) {
       if (PGraphicsOpenGL.autoMipmapGenSupported) {
         pgl.generateMipmap(glTarget);
       } else {
@@ -795,6 +806,27 @@ public class Texture implements PConstants {
   }
 
 
+  /** Regenerates the mipmaps after uploads done with set(..., false). */
+  protected void updateMipmaps() {
+    if (!usingMipmaps) return;
+    boolean enabledTex = false;
+    if (!pgl.texturingIsEnabled(glTarget)) {
+      pgl.enableTexturing(glTarget);
+      enabledTex = true;
+    }
+    pgl.bindTexture(glTarget, glName);
+    if (PGraphicsOpenGL.autoMipmapGenSupported) {
+      pgl.generateMipmap(glTarget);
+    } else {
+      manualMipmap();
+    }
+    pgl.bindTexture(glTarget, 0);
+    if (enabledTex) {
+      pgl.disableTexturing(glTarget);
+    }
+  }
+
+
   protected void manualMipmap() {
     // TODO: finish manual mipmap generation,
     // https://github.com/processing/processing/issues/3335
@@ -991,26 +1023,28 @@ public class Texture implements PConstants {
 
   /**
    * Reorders a pixel array in the given format into the order required by
-   * OpenGL (RGBA) and stores it into rgbaPixels. The width and height
-   * parameters are used in the YUV420 to RBGBA conversion.
+   * OpenGL (RGBA) and stores it into rgbaPixels. Only the first w * h
+   * pixels are converted.
    * @param pixels int[]
    * @param format int
    * @param w int
    * @param h int
    */
   protected void convertToRGBA(int[] pixels, int format, int w, int h)  {
+    // pixels can be longer than the region, the caller's scratch array
+    int len = w * h;
     if (PGL.BIG_ENDIAN)  {
       switch (format) {
       case ALPHA:
         // Converting from xxxA into RGBA. RGB is set to white
         // (0xFFFFFF, i.e.: (255, 255, 255))
-        for (int i = 0; i< pixels.length; i++) {
+        for (int i = 0; i < len; i++) {
           rgbaPixels[i] = 0xFFFFFF00 | pixels[i];
         }
         break;
       case RGB:
         // Converting xRGB into RGBA. A is set to 0xFF (255, full opacity).
-        for (int i = 0; i< pixels.length; i++) {
+        for (int i = 0; i < len; i++) {
           int pixel = pixels[i];
           rgbaPixels[i] = (pixel << 8) | 0xFF;
         }
@@ -1018,7 +1052,7 @@ public class Texture implements PConstants {
       case ARGB:
         // Converting ARGB into RGBA. Shifting RGB to 8 bits to the left,
         // and bringing A to the first byte.
-        for (int i = 0; i< pixels.length; i++) {
+        for (int i = 0; i < len; i++) {
           int pixel = pixels[i];
           rgbaPixels[i] = (pixel << 8) | ((pixel >> 24) & 0xFF);
         }
@@ -1033,14 +1067,14 @@ public class Texture implements PConstants {
       switch (format)  {
       case ALPHA:
         // Converting xxxA into ARGB, with RGB set to white.
-        for (int i = 0; i< pixels.length; i++) {
+        for (int i = 0; i < len; i++) {
           rgbaPixels[i] = (pixels[i] << 24) | 0x00FFFFFF;
         }
         break;
       case RGB:
         // We need to convert xRGB into ABGR,
         // so R and B must be swapped, and the x just made 0xFF.
-        for (int i = 0; i< pixels.length; i++) {
+        for (int i = 0; i < len; i++) {
           int pixel = pixels[i];
           rgbaPixels[i] = 0xFF000000 |
                           ((pixel & 0xFF) << 16) | ((pixel & 0xFF0000) >> 16) |
@@ -1050,7 +1084,7 @@ public class Texture implements PConstants {
       case ARGB:
         // We need to convert ARGB into ABGR,
         // so R and B must be swapped, A and G just brought back in.
-        for (int i = 0; i < pixels.length; i++) {
+        for (int i = 0; i < len; i++) {
           int pixel = pixels[i];
           rgbaPixels[i] = ((pixel & 0xFF) << 16) | ((pixel & 0xFF0000) >> 16) |
                           (pixel & 0xFF00FF00);
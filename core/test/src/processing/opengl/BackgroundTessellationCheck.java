@@ -0,0 +1,77 @@
+package processing.opengl;
+
+import processing.core.PConstants;
+import processing.core.PShape;
+
+
+/**
+ * Checks that prepareAsync() keeps groups with shapes that need the
+ * renderer state (here a rounded rect) on the calling thread, and that a
+ * group tessellated on a worker gives the same geometry as tessellating it
+ * on the animation thread. Exits with status 1 on a mismatch, run with
+ * "ant check".
+ */
+public class BackgroundTessellationCheck {
+  static int failures;
+
+
+  static void check(String what, boolean ok) {
+    if (!ok) {
+      System.err.println(what);
+      failures++;
+    }
+  }
+
+
+  static PShapeOpenGL group(PGraphicsOpenGL pg, boolean rounded) {
+    PShape group = pg.createShape(PConstants.GROUP);
+    for (int i = 0; i < 50; i++) {
+      group.addChild(pg.createShape(PConstants.RECT, i, 0, 10, 20));
+      group.addChild(pg.createShape(PConstants.TRIANGLE,
+                                    i, 0, i + 10, 0, i + 5, 9));
+    }
+    if (rounded) {
+      PShape sub = pg.createShape(PConstants.GROUP);
+      sub.addChild(pg.createShape(PConstants.RECT, 0, 0, 10, 20, 3));
+      group.addChild(sub);
+    }
+    return (PShapeOpenGL) group;
+  }
+
+
+  public static void main(String[] args) {
+    PGraphics2D pg = new PGraphics2D();
+    pg.tessellator = new PGraphicsOpenGL.Tessellator();
+    pg.fill = true;
+    pg.stroke = true;
+
+    // a rounded rect anywhere in the group keeps all of it off the worker
+    PShapeOpenGL rounded = group(pg, true);
+    check("group with a rounded rect can tessellate in the background",
+          !rounded.canTessellateInBackground());
+    rounded.prepareAsync();
+    check("group with a rounded rect was handed to a worker",
+          rounded.prepareJob == null && rounded.isPrepared());
+
+    // the others are tessellated on a worker, same result as serially
+    PShapeOpenGL serial = group(pg, false);
+    serial.updateTessellation();
+    PShapeOpenGL background = group(pg, false);
+    check("plain group can't tessellate in the background",
+          background.canTessellateInBackground());
+    background.prepareAsync();
+    check("plain group wasn't handed to a worker",
+          background.prepareJob != null || background.isPrepared());
+    background.finishPrepare(true);
+    int before = ParallelTessellationCheck.failures;
+    ParallelTessellationCheck.compare("background", serial.tessGeo,
+                                      background.tessGeo);
+    ParallelTessellationCheck.compareShapes("background", serial,
+                                            background, "");
+    failures += ParallelTessellationCheck.failures - before;
+
+    System.out.println("background tessellation: " +
+                       (failures == 0 ? "ok" : "FAILED"));
+    System.exit(failures == 0 ? 0 : 1);
+  }
+}
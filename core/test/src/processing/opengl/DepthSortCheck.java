@@ -0,0 +1,181 @@
+package processing.opengl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Sorts random triangles with the DepthSorter, and checks that the result
+ * is a permutation of the input, that hint(ENABLE_FAST_DEPTH_SORT) orders
+ * the triangles by their nearest depth (up to the key quantization), and
+ * that the parallel key computation gives the same order as the serial
+ * one. Needs more than one core (or -XX:ActiveProcessorCount) for the
+ * parallel path. Exits with status 1 on a mismatch, run with "ant check".
+ */
+public class DepthSortCheck {
+  static int failures;
+
+
+  static class Check3D extends PGraphics3D {
+    void fastSort(boolean on) {
+      hints[ENABLE_FAST_DEPTH_SORT] = on;
+    }
+  }
+
+
+  static Check3D pg;
+
+
+  // Triangles in blocks of at most 30000 vertices, like the renderer
+  // makes them, all with the same (null) texture.
+  static PGraphicsOpenGL.TessGeometry triangles(int n, long seed) {
+    PGraphicsOpenGL.TessGeometry tg =
+      PGraphicsOpenGL.newTessGeometry(pg, PGraphicsOpenGL.newAttributeMap(),
+                                      PGraphicsOpenGL.IMMEDIATE);
+    tg.polyVertexCheck(3 * n);
+    tg.polyIndexCheck(3 * n);
+    Random r = new Random(seed);
+    PGraphicsOpenGL.IndexCache c = tg.polyIndexCache;
+    int block = -1;
+    int inBlock = 0;
+    for (int t = 0; t < n; t++) {
+      if (block == -1 || inBlock + 3 > 30000) {
+        block = c.addNew();
+        c.vertexOffset[block] = 3 * t;
+        c.indexOffset[block] = 3 * t;
+        inBlock = 0;
+      }
+      float cx = r.nextFloat() * 400 - 200;
+      float cy = r.nextFloat() * 400 - 200;
+      float cz = -100 - r.nextFloat() * 900;
+      for (int k = 0; k < 3; k++) {
+        int v = 3 * t + k;
+        tg.polyVertices[4*v] = cx + r.nextFloat() * 20;
+        tg.polyVertices[4*v+1] = cy + r.nextFloat() * 20;
+        tg.polyVertices[4*v+2] = cz + r.nextFloat() * 20;
+        tg.polyVertices[4*v+3] = 1;
+        tg.polyIndices[3*t+k] = (short) (inBlock + k);
+      }
+      inBlock += 3;
+      c.indexCount[block] += 3;
+      c.vertexCount[block] += 3;
+    }
+    pg.texCache.clear();
+    pg.texCache.addTexture(null, 0, 0, 3 * n - 1, c.size - 1);
+    return tg;
+  }
+
+
+  // The vertices of each triangle, packed so they can be compared.
+  static long[] vertices(PGraphicsOpenGL.TessGeometry tg, int[] blocks,
+                         int n) {
+    long[] out = new long[n];
+    int[] offset = tg.polyIndexCache.vertexOffset;
+    for (int t = 0; t < n; t++) {
+      long base = offset[blocks[t]];
+      out[t] = ((base + tg.polyIndices[3*t]) << 40) |
+               ((base + tg.polyIndices[3*t+1]) << 20) |
+               (base + tg.polyIndices[3*t+2]);
+    }
+    return out;
+  }
+
+
+  static long[] sort(String name, int n, boolean fast, boolean parallel) {
+    pg.fastSort(fast);
+    int saved = PGraphicsOpenGL.DepthSorter.MIN_PARALLEL_SORT_TRIANGLES;
+    if (!parallel) {
+      PGraphicsOpenGL.DepthSorter.MIN_PARALLEL_SORT_TRIANGLES =
+        Integer.MAX_VALUE;
+    }
+    PGraphicsOpenGL.TessGeometry tg = triangles(n, 7);
+    int[] blocks = new int[n];
+    for (int t = 0; t < n; t++) {
+      blocks[t] = (3 * t) / 30000;
+    }
+    long[] before = vertices(tg, blocks, n);
+
+    PGraphicsOpenGL.DepthSorter sorter = new PGraphicsOpenGL.DepthSorter(pg);
+    sorter.sort(tg);
+    PGraphicsOpenGL.DepthSorter.MIN_PARALLEL_SORT_TRIANGLES = saved;
+    long[] after = vertices(tg, sorter.voffsetMap, n);
+
+    long[] a = before.clone();
+    long[] b = after.clone();
+    Arrays.sort(a);
+    Arrays.sort(b);
+    if (!Arrays.equals(a, b)) {
+      fail(name, "the sorted triangles aren't a permutation of the input");
+    }
+    if (fast) {
+      checkOrder(name, tg, sorter, n);
+    }
+    return after;
+  }
+
+
+  // Nearest depth of each triangle must not go down by more than the
+  // quantization step of the keys.
+  static void checkOrder(String name, PGraphicsOpenGL.TessGeometry tg,
+                         PGraphicsOpenGL.DepthSorter sorter, int n) {
+    PGraphicsOpenGL.DepthSorter screen = new PGraphicsOpenGL.DepthSorter(pg);
+    screen.checkVertexBuffer(tg.polyVertexCount);
+    screen.projectVertices(tg.polyVertices, 0, tg.polyVertexCount);
+    float[] tri = new float[9];
+    float[] minZ = new float[n];
+    float lo = Float.MAX_VALUE;
+    float hi = -Float.MAX_VALUE;
+    for (int t = 0; t < n; t++) {
+      PGraphicsOpenGL.DepthSorter.fetchTriCoords(tri, t,
+        tg.polyIndexCache.vertexOffset, sorter.voffsetMap,
+        screen.screenVertices, tg.polyIndices);
+      minZ[t] = Math.min(tri[2], Math.min(tri[5], tri[8]));
+      lo = Math.min(lo, minZ[t]);
+      hi = Math.max(hi, minZ[t]);
+    }
+    float step = 2 * (hi - lo) /
+      (1 << PGraphicsOpenGL.DepthSorter.DEPTH_KEY_BITS);
+    for (int t = 1; t < n; t++) {
+      if (minZ[t] < minZ[t-1] - step) {
+        fail(name, "triangle " + t + " is out of order");
+        return;
+      }
+    }
+  }
+
+
+  static void fail(String name, String what) {
+    System.err.println(name + ": " + what);
+    failures++;
+  }
+
+
+  static void run(int n) {
+    int before = failures;
+    if (n <= 20000) {
+      // the default sort compares overlapping triangles, too slow for more
+      sort("default n=" + n, n, false, false);
+    }
+    long[] serial = sort("fast serial n=" + n, n, true, false);
+    long[] parallel = sort("fast parallel n=" + n, n, true, true);
+    if (!Arrays.equals(serial, parallel)) {
+      fail("fast n=" + n, "parallel order differs from the serial one");
+    }
+    System.out.println(n + " triangles: " +
+                       (failures == before ? "ok" : "FAILED"));
+  }
+
+
+  public static void main(String[] args) {
+    pg = new Check3D();
+    pg.projection.set(1.7f, 0, 0, 0,
+                      0, 1.7f, 0, 0,
+                      0, 0, -1.02f, -20.2f,
+                      0, 0, -1, 0);
+    run(2000);
+    run(20000);
+    run(300000);
+    pg.fastSort(false);
+    System.exit(failures == 0 ? 0 : 1);
+  }
+}
@@ -0,0 +1,249 @@
+package processing.opengl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import processing.core.PConstants;
+import processing.core.PMatrix3D;
+import processing.core.PShape;
+
+
+/**
+ * Copies shapes with the add*Instance() methods used by instance(), and
+ * checks that every index stays inside its block and that each copy
+ * references the same vertices as the shape itself, transformed by the
+ * instance matrix. Covers stroked P2D shapes, whose strokes share vertex
+ * offsets with the fill once aggregated, and P3D lines and points.
+ * Exits with status 1 on a mismatch, run with "ant check".
+ */
+public class InstanceCheck {
+  static final int COPIES = 3000;
+  static final float EPSILON = 1e-3f;
+
+  static int failures;
+
+
+  static class Geometry {
+    float[] vertices;
+    int[] colors;
+    short[] indices;
+    PGraphicsOpenGL.IndexCache cache;
+    int vertexCount;
+
+    Geometry(float[] vertices, int[] colors, short[] indices,
+             PGraphicsOpenGL.IndexCache cache, int vertexCount) {
+      this.vertices = vertices;
+      this.colors = colors;
+      this.indices = indices;
+      this.cache = cache;
+      this.vertexCount = vertexCount;
+    }
+  }
+
+
+  static Geometry polys(PGraphicsOpenGL.TessGeometry g) {
+    return new Geometry(g.polyVertices, g.polyColors, g.polyIndices,
+                        g.polyIndexCache, g.polyVertexCount);
+  }
+
+
+  static Geometry lines(PGraphicsOpenGL.TessGeometry g) {
+    return new Geometry(g.lineVertices, g.lineColors, g.lineIndices,
+                        g.lineIndexCache, g.lineVertexCount);
+  }
+
+
+  static Geometry points(PGraphicsOpenGL.TessGeometry g) {
+    return new Geometry(g.pointVertices, g.pointColors, g.pointIndices,
+                        g.pointIndexCache, g.pointVertexCount);
+  }
+
+
+  // Vertices referenced by the indices of blocks first to last, in order,
+  // as x, y, z and color.
+  static List<float[]> referenced(String name, Geometry g,
+                                  int first, int last) {
+    List<float[]> out = new ArrayList<>();
+    PGraphicsOpenGL.IndexCache c = g.cache;
+    for (int b = first; b <= last; b++) {
+      for (int i = 0; i < c.indexCount[b]; i++) {
+        int v = c.vertexOffset[b] + g.indices[c.indexOffset[b] + i];
+        if (v < 0 || v >= g.vertexCount) {
+          fail(name, "vertex " + v + " out of range in block " + b);
+          return out;
+        }
+        out.add(new float[] {
+          g.vertices[4*v], g.vertices[4*v+1], g.vertices[4*v+2], g.colors[v]
+        });
+      }
+    }
+    return out;
+  }
+
+
+  // Every index of the copies has to be inside its own block, and the
+  // blocks have to follow each other.
+  static void checkBlocks(String name, Geometry g) {
+    PGraphicsOpenGL.IndexCache c = g.cache;
+    int total = 0;
+    for (int b = 0; b < c.size; b++) {
+      if (c.vertexOffset[b] != total) {
+        fail(name, "block " + b + " starts at " + c.vertexOffset[b]);
+        return;
+      }
+      for (int i = 0; i < c.indexCount[b]; i++) {
+        int index = g.indices[c.indexOffset[b] + i];
+        if (index < 0 || index >= c.vertexCount[b]) {
+          fail(name, "index " + index + " in block " + b + " of " +
+               c.vertexCount[b] + " vertices");
+          return;
+        }
+      }
+      total += c.vertexCount[b];
+    }
+    if (total != g.vertexCount) {
+      fail(name, "blocks have " + total + " vertices, not " + g.vertexCount);
+    }
+  }
+
+
+  static void compare(String name, List<float[]> proto, List<float[]> copies,
+                      PMatrix3D[] matrices) {
+    if (copies.size() != proto.size() * matrices.length) {
+      fail(name, copies.size() + " vertices in the copies, expected " +
+           proto.size() * matrices.length);
+      return;
+    }
+    float[] out = new float[3];
+    for (int k = 0; k < matrices.length; k++) {
+      for (int j = 0; j < proto.size(); j++) {
+        float[] p = proto.get(j);
+        float[] c = copies.get(k * proto.size() + j);
+        matrices[k].mult(new float[] { p[0], p[1], p[2] }, out);
+        if (Math.abs(out[0] - c[0]) > EPSILON ||
+            Math.abs(out[1] - c[1]) > EPSILON ||
+            Math.abs(out[2] - c[2]) > EPSILON || p[3] != c[3]) {
+          fail(name, "copy " + k + " differs at index " + j);
+          return;
+        }
+      }
+    }
+  }
+
+
+  static void run(String name, PGraphicsOpenGL pg, PShape shape) {
+    int before = failures;
+    PShapeOpenGL sh = (PShapeOpenGL) shape;
+    sh.prepareInstances();
+    PGraphicsOpenGL.TessGeometry src = sh.root.tessGeo;
+    PGraphicsOpenGL.TessGeometry dst =
+      PGraphicsOpenGL.newTessGeometry(pg, PGraphicsOpenGL.newAttributeMap(),
+                                      PGraphicsOpenGL.IMMEDIATE);
+
+    PMatrix3D[] matrices = new PMatrix3D[COPIES];
+    PMatrix3D nm = new PMatrix3D();
+    for (int k = 0; k < COPIES; k++) {
+      PMatrix3D mm = new PMatrix3D();
+      mm.translate(k, k % 7);
+      mm.rotateZ(0.01f * k);
+      mm.scale(1 + (k % 3));
+      matrices[k] = mm;
+      if (sh.hasPolys) {
+        dst.addPolyInstance(src, sh.firstPolyIndexCache,
+                            sh.lastPolyIndexCache, mm, nm, 0xFFFFFFFF);
+      }
+      if (pg.is3D()) {
+        if (sh.hasLines) {
+          dst.addLineInstance(src, sh.firstLineIndexCache,
+                              sh.lastLineIndexCache, mm, 0xFFFFFFFF);
+        }
+        if (sh.hasPoints) {
+          dst.addPointInstance(src, sh.firstPointIndexCache,
+                               sh.lastPointIndexCache, mm, 0xFFFFFFFF);
+        }
+      }
+    }
+
+    if (sh.hasPolys) {
+      checkBlocks(name + " polys", polys(dst));
+      compare(name + " polys",
+              referenced(name, polys(src), sh.firstPolyIndexCache,
+                         sh.lastPolyIndexCache),
+              referenced(name, polys(dst), 0, dst.polyIndexCache.size - 1),
+              matrices);
+    }
+    if (pg.is3D() && sh.hasLines) {
+      checkBlocks(name + " lines", lines(dst));
+      compare(name + " lines",
+              referenced(name, lines(src), sh.firstLineIndexCache,
+                         sh.lastLineIndexCache),
+              referenced(name, lines(dst), 0, dst.lineIndexCache.size - 1),
+              matrices);
+    }
+    if (pg.is3D() && sh.hasPoints) {
+      checkBlocks(name + " points", points(dst));
+      compare(name + " points",
+              referenced(name, points(src), sh.firstPointIndexCache,
+                         sh.lastPointIndexCache),
+              referenced(name, points(dst), 0, dst.pointIndexCache.size - 1),
+              matrices);
+    }
+    System.out.println(name + ": " + (failures == before ? "ok" : "FAILED"));
+  }
+
+
+  static void fail(String name, String what) {
+    System.err.println(name + ": " + what);
+    failures++;
+  }
+
+
+  static PShape polygon(PGraphicsOpenGL pg) {
+    PShape s = pg.createShape();
+    s.beginShape();
+    s.vertex(0, 0);
+    s.vertex(20, 0);
+    s.vertex(20, 5);
+    s.vertex(5, 20);
+    s.endShape(PConstants.CLOSE);
+    return s;
+  }
+
+
+  static PShape group(PGraphicsOpenGL pg) {
+    PShape g = pg.createShape(PConstants.GROUP);
+    g.addChild(pg.createShape(PConstants.RECT, 0, 0, 10, 10));
+    g.addChild(pg.createShape(PConstants.TRIANGLE, 0, 0, 10, 0, 5, 8));
+    return g;
+  }
+
+
+  static void setup(PGraphicsOpenGL pg, boolean stroke) {
+    pg.tessellator = new PGraphicsOpenGL.Tessellator();
+    pg.fill = true;
+    pg.fillColor = 0xFFFF0000;
+    pg.stroke = stroke;
+    pg.strokeColor = 0xFF00FF00;
+    pg.strokeWeight = 2;
+  }
+
+
+  public static void main(String[] args) {
+    PGraphics2D p2 = new PGraphics2D();
+    setup(p2, true);
+    run("P2D stroked rect", p2,
+        p2.createShape(PConstants.RECT, 0, 0, 10, 10));
+    run("P2D stroked polygon", p2, polygon(p2));
+    run("P2D stroked group", p2, group(p2));
+    setup(p2, false);
+    run("P2D rect", p2, p2.createShape(PConstants.RECT, 0, 0, 10, 10));
+
+    PGraphics3D p3 = new PGraphics3D();
+    setup(p3, true);
+    run("P3D stroked rect", p3,
+        p3.createShape(PConstants.RECT, 0, 0, 10, 10));
+    run("P3D stroked group", p3, group(p3));
+    run("P3D point", p3, p3.createShape(PConstants.POINT, 3, 4));
+    System.exit(failures == 0 ? 0 : 1);
+  }
+}
@@ -0,0 +1,271 @@
+package processing.opengl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import processing.core.PConstants;
+import processing.core.PShape;
+
+
+/**
+ * Tessellates the same mixed group with and without
+ * hint(ENABLE_PARALLEL_TESSELLATION), and checks that the geometry, the
+ * index caches and the ranges of every shape are identical. Needs more
+ * than one core (or -XX:ActiveProcessorCount) to take the parallel path.
+ * Exits with status 1 on a mismatch, run with "ant check".
+ */
+public class ParallelTessellationCheck {
+  static int failures;
+
+
+  static class Check2D extends PGraphics2D {
+    void parallel(boolean on) {
+      hints[ENABLE_PARALLEL_TESSELLATION] = on;
+    }
+  }
+
+
+  static class Check3D extends PGraphics3D {
+    void parallel(boolean on) {
+      hints[ENABLE_PARALLEL_TESSELLATION] = on;
+    }
+  }
+
+
+  static PShapeOpenGL build(PGraphicsOpenGL pg, boolean nested) {
+    Random r = new Random(7);
+    PShapeOpenGL group = (PShapeOpenGL) pg.createShape(PConstants.GROUP);
+    PShapeOpenGL sub = null;
+    for (int i = 0; i < 300; i++) {
+      pg.fillColor = 0xFF000000 | r.nextInt(0xFFFFFF);
+      pg.stroke = r.nextBoolean();
+      pg.strokeColor = 0xFF000000 | r.nextInt(0xFFFFFF);
+      pg.strokeWeight = 1 + r.nextInt(4);
+      float x = r.nextFloat() * 500;
+      float y = r.nextFloat() * 500;
+      PShape s;
+      switch (i % 6) {
+      case 0:
+        if (i % 18 == 0) {
+          // rounded corners, tessellated on the animation thread
+          s = pg.createShape(PConstants.RECT, x, y, 10, 20, 3);
+        } else if (i % 18 == 6) {
+          s = pg.createShape(PConstants.RECT, x, y, 10, 20, 1, 2, 3, 4);
+        } else {
+          s = pg.createShape(PConstants.RECT, x, y, 10, 20);
+        }
+        break;
+      case 1:
+        s = pg.createShape(PConstants.TRIANGLE, x, y, x + 10, y, x + 5, y + 9);
+        break;
+      case 2:
+        // tessellated on the animation thread
+        s = pg.createShape(PConstants.ELLIPSE, x, y, 30, 12);
+        break;
+      case 3:
+        s = pg.createShape();
+        s.beginShape();
+        s.vertex(x, y);
+        s.vertex(x + 20, y);
+        s.vertex(x + 25, y + 10);
+        s.vertex(x + 3, y + 18);
+        s.endShape(PConstants.CLOSE);
+        break;
+      case 4:
+        // also on the animation thread
+        s = pg.createShape();
+        s.beginShape();
+        s.curveVertex(x, y);
+        s.curveVertex(x, y);
+        s.curveVertex(x + 20, y + 5);
+        s.curveVertex(x + 10, y + 25);
+        s.curveVertex(x + 10, y + 25);
+        s.endShape();
+        break;
+      default:
+        if (i % 12 == 5) {
+          s = pg.createShape(PConstants.POINT, x, y);
+        } else {
+          s = pg.createShape(PConstants.QUAD, x, y, x + 8, y,
+                             x + 9, y + 9, x, y + 7);
+        }
+      }
+      if (nested && i % 10 == 5) {
+        sub = (PShapeOpenGL) pg.createShape(PConstants.GROUP);
+        group.addChild(sub);
+      }
+      if (nested && sub != null && i % 10 > 5) {
+        sub.addChild(s);
+      } else {
+        group.addChild(s);
+      }
+    }
+    return group;
+  }
+
+
+  static void check(String name, String what, boolean ok) {
+    if (!ok) {
+      System.err.println(name + ": " + what + " differs");
+      failures++;
+    }
+  }
+
+
+  static void compare(String name, String what, float[] a, float[] b, int n) {
+    check(name, what, Arrays.equals(Arrays.copyOf(a, n), Arrays.copyOf(b, n)));
+  }
+
+
+  static void compare(String name, String what, int[] a, int[] b, int n) {
+    check(name, what, Arrays.equals(Arrays.copyOf(a, n), Arrays.copyOf(b, n)));
+  }
+
+
+  static void compare(String name, String what, short[] a, short[] b, int n) {
+    check(name, what, Arrays.equals(Arrays.copyOf(a, n), Arrays.copyOf(b, n)));
+  }
+
+
+  static void compare(String name, String what,
+                      PGraphicsOpenGL.IndexCache a,
+                      PGraphicsOpenGL.IndexCache b) {
+    check(name, what + " size", a.size == b.size);
+    if (a.size != b.size) return;
+    compare(name, what + " indexCount", a.indexCount, b.indexCount, a.size);
+    compare(name, what + " indexOffset", a.indexOffset, b.indexOffset, a.size);
+    compare(name, what + " vertexCount", a.vertexCount, b.vertexCount, a.size);
+    compare(name, what + " vertexOffset", a.vertexOffset, b.vertexOffset, a.size);
+  }
+
+
+  static void compare(String name, PGraphicsOpenGL.TessGeometry a,
+                      PGraphicsOpenGL.TessGeometry b) {
+    int pv = a.polyVertexCount;
+    int lv = a.lineVertexCount;
+    int ptv = a.pointVertexCount;
+    check(name, "polyVertexCount", pv == b.polyVertexCount);
+    check(name, "polyIndexCount", a.polyIndexCount == b.polyIndexCount);
+    check(name, "lineVertexCount", lv == b.lineVertexCount);
+    check(name, "lineIndexCount", a.lineIndexCount == b.lineIndexCount);
+    check(name, "pointVertexCount", ptv == b.pointVertexCount);
+    check(name, "pointIndexCount", a.pointIndexCount == b.pointIndexCount);
+    if (failures > 0) return;
+
+    compare(name, "polyVertices", a.polyVertices, b.polyVertices, 4 * pv);
+    compare(name, "polyColors", a.polyColors, b.polyColors, pv);
+    compare(name, "polyNormals", a.polyNormals, b.polyNormals, 3 * pv);
+    compare(name, "polyTexCoords", a.polyTexCoords, b.polyTexCoords, 2 * pv);
+    compare(name, "polyAmbient", a.polyAmbient, b.polyAmbient, pv);
+    compare(name, "polySpecular", a.polySpecular, b.polySpecular, pv);
+    compare(name, "polyEmissive", a.polyEmissive, b.polyEmissive, pv);
+    compare(name, "polyShininess", a.polyShininess, b.polyShininess, pv);
+    compare(name, "polyIndices", a.polyIndices, b.polyIndices,
+            a.polyIndexCount);
+    compare(name, "lineVertices", a.lineVertices, b.lineVertices, 4 * lv);
+    compare(name, "lineColors", a.lineColors, b.lineColors, lv);
+    compare(name, "lineDirections", a.lineDirections, b.lineDirections,
+            4 * lv);
+    compare(name, "lineIndices", a.lineIndices, b.lineIndices,
+            a.lineIndexCount);
+    compare(name, "pointVertices", a.pointVertices, b.pointVertices, 4 * ptv);
+    compare(name, "pointColors", a.pointColors, b.pointColors, ptv);
+    compare(name, "pointOffsets", a.pointOffsets, b.pointOffsets, 2 * ptv);
+    compare(name, "pointIndices", a.pointIndices, b.pointIndices,
+            a.pointIndexCount);
+    compare(name, "polyIndexCache", a.polyIndexCache, b.polyIndexCache);
+    compare(name, "lineIndexCache", a.lineIndexCache, b.lineIndexCache);
+    compare(name, "pointIndexCache", a.pointIndexCache, b.pointIndexCache);
+  }
+
+
+  static int[] ranges(PShapeOpenGL s) {
+    return new int[] {
+      s.firstPolyIndexCache, s.lastPolyIndexCache,
+      s.firstLineIndexCache, s.lastLineIndexCache,
+      s.firstPointIndexCache, s.lastPointIndexCache,
+      s.firstPolyVertex, s.lastPolyVertex,
+      s.firstLineVertex, s.lastLineVertex,
+      s.firstPointVertex, s.lastPointVertex
+    };
+  }
+
+
+  static void compareShapes(String name, PShapeOpenGL a, PShapeOpenGL b,
+                            String path) {
+    check(name, "ranges of " + path, Arrays.equals(ranges(a), ranges(b)));
+    check(name, "tessGeo of " + path, b.tessGeo == b.root.tessGeo);
+    for (int i = 0; i < a.getChildCount(); i++) {
+      compareShapes(name, (PShapeOpenGL) a.getChild(i),
+                    (PShapeOpenGL) b.getChild(i), path + "/" + i);
+    }
+  }
+
+
+  static void run(String name, PGraphicsOpenGL pg, boolean nested) {
+    int before = failures;
+    pg.tessellator = new PGraphicsOpenGL.Tessellator();
+    pg.fill = true;
+    parallel(pg, false);
+    PShapeOpenGL serial = build(pg, nested);
+    serial.updateTessellation();
+    PShapeOpenGL parallel = build(pg, nested);
+    parallel(pg, true);
+    parallel.updateTessellation();
+    parallel(pg, false);
+
+    compare(name, serial.tessGeo, parallel.tessGeo);
+    compareShapes(name, serial, parallel, "");
+    System.out.println(name + ": " +
+                       (failures == before ? "identical" : "FAILED"));
+  }
+
+
+  // Shapes that use the bezier, curve or sphere settings or the matrices
+  // of the renderer can't be tessellated on another thread.
+  static void checkAnimationThreadOnly(PGraphicsOpenGL pg) {
+    int before = failures;
+    PShape[] shapes = {
+      pg.createShape(PConstants.RECT, 0, 0, 10, 20, 3),
+      pg.createShape(PConstants.RECT, 0, 0, 10, 20, 1, 2, 3, 4),
+      pg.createShape(PConstants.ELLIPSE, 0, 0, 10, 20),
+      pg.createShape(PConstants.ARC, 0, 0, 10, 20, 0, 1),
+    };
+    String[] names = {
+      "rounded rect", "rect with four radii", "ellipse", "arc"
+    };
+    for (int i = 0; i < shapes.length; i++) {
+      check("animation thread only", names[i],
+            !((PShapeOpenGL) shapes[i]).canTessellateInParallel());
+    }
+    PShapeOpenGL rect =
+      (PShapeOpenGL) pg.createShape(PConstants.RECT, 0, 0, 10, 20);
+    check("parallel", "rect", rect.canTessellateInParallel());
+    System.out.println("animation thread only shapes: " +
+                       (failures == before ? "ok" : "FAILED"));
+  }
+
+
+  static void parallel(PGraphicsOpenGL pg, boolean on) {
+    if (pg instanceof Check2D) {
+      ((Check2D) pg).parallel(on);
+    } else {
+      ((Check3D) pg).parallel(on);
+    }
+  }
+
+
+  public static void main(String[] args) {
+    if (Runtime.getRuntime().availableProcessors() < 2) {
+      System.out.println("Only one core, the parallel path won't be used");
+    }
+    Check2D pg = new Check2D();
+    pg.tessellator = new PGraphicsOpenGL.Tessellator();
+    checkAnimationThreadOnly(pg);
+    run("P2D flat", new Check2D(), false);
+    run("P2D nested", new Check2D(), true);
+    run("P3D flat", new Check3D(), false);
+    run("P3D nested", new Check3D(), true);
+    System.exit(failures == 0 ? 0 : 1);
+  }
+}
@@ -0,0 +1,172 @@
+package processing.opengl;
+
+import java.util.Random;
+
+import processing.core.PConstants;
+import processing.core.PMatrix3D;
+
+
+/**
+ * Triangulates random convex, star shaped and self-intersecting polygons
+ * with the fan/ear clipping path of the Tessellator and with GLU, and
+ * checks that both cover the same area with the same orientation, and
+ * that the fast path only uses the input vertices. Exits with status 1
+ * on a mismatch, run with "ant check".
+ */
+public class PolygonTriangulationCheck {
+  static final int POLYGONS = 600;
+
+  static int failures;
+
+
+  // Always hands the polygon to GLU.
+  static class GluTessellator extends PGraphicsOpenGL.Tessellator {
+    @Override
+    boolean triangulateSimplePolygon(boolean calcNormals) {
+      return false;
+    }
+  }
+
+
+  // Counts the polygons that didn't need GLU.
+  static class FastTessellator extends PGraphicsOpenGL.Tessellator {
+    int simple;
+
+    @Override
+    boolean triangulateSimplePolygon(boolean calcNormals) {
+      boolean done = super.triangulateSimplePolygon(calcNormals);
+      if (done) simple++;
+      return done;
+    }
+  }
+
+
+  // Signed and absolute area of the triangles, and the z of the first
+  // normal, after checking that all the indices are inside their blocks.
+  static double[] triangulate(PGraphicsOpenGL pg,
+                              PGraphicsOpenGL.Tessellator tess,
+                              PGraphicsOpenGL.InGeometry in,
+                              PGraphicsOpenGL.TessGeometry tg) {
+    tg.clear();
+    tess.setInGeometry(in);
+    tess.setTessGeometry(tg);
+    tess.setFill(true);
+    tess.setStroke(false);
+    tess.setTexCache(null, null);
+    tess.setRenderer(pg);
+    tess.setTransform(new PMatrix3D());
+    tess.set3D(false);
+    tess.tessellatePolygon(true, true, true);
+
+    PGraphicsOpenGL.IndexCache c = tg.polyIndexCache;
+    double signed = 0;
+    double abs = 0;
+    for (int b = 0; b < c.size; b++) {
+      for (int i = 0; i < c.indexCount[b]; i += 3) {
+        double[] xy = new double[6];
+        for (int k = 0; k < 3; k++) {
+          int index = tg.polyIndices[c.indexOffset[b] + i + k];
+          if (index < 0 || index >= c.vertexCount[b]) {
+            return null;
+          }
+          int v = c.vertexOffset[b] + index;
+          xy[2*k] = tg.polyVertices[4*v];
+          xy[2*k+1] = tg.polyVertices[4*v+1];
+        }
+        double area = ((xy[2] - xy[0]) * (xy[5] - xy[1]) -
+                       (xy[3] - xy[1]) * (xy[4] - xy[0])) / 2;
+        signed += area;
+        abs += Math.abs(area);
+      }
+    }
+    float nz = tg.polyVertexCount > 0 ? tg.polyNormals[2] : 0;
+    return new double[] { signed, abs, nz };
+  }
+
+
+  // The fast path must not add vertices, GLU only does at intersections.
+  static boolean usesInputVertices(PGraphicsOpenGL.InGeometry in,
+                                   PGraphicsOpenGL.TessGeometry tg) {
+    if (tg.polyVertexCount != in.vertexCount) return false;
+    for (int v = 0; v < in.vertexCount; v++) {
+      if (tg.polyVertices[4*v] != in.vertices[3*v] ||
+          tg.polyVertices[4*v+1] != in.vertices[3*v+1]) return false;
+    }
+    return true;
+  }
+
+
+  static boolean close(double a, double b) {
+    return Math.abs(a - b) <= 1e-3 * Math.max(1, Math.abs(b));
+  }
+
+
+  public static void main(String[] args) {
+    PGraphics2D pg = new PGraphics2D();
+    pg.tessellator = new PGraphicsOpenGL.Tessellator();
+    pg.fill = true;
+    pg.fillColor = 0xFFFF0000;
+    pg.stroke = false;
+
+    FastTessellator fast = new FastTessellator();
+    GluTessellator glu = new GluTessellator();
+    PGraphicsOpenGL.TessGeometry tg =
+      PGraphicsOpenGL.newTessGeometry(pg, PGraphicsOpenGL.newAttributeMap(),
+                                      PGraphicsOpenGL.RETAINED);
+    Random r = new Random(1);
+    for (int s = 0; s < POLYGONS; s++) {
+      PShapeOpenGL sh = (PShapeOpenGL) pg.createShape();
+      sh.beginShape();
+      int n = 3 + r.nextInt(40);
+      boolean cw = r.nextBoolean();
+      int kind = s % 4;
+      // with an even count, going around twice would repeat the vertices
+      if (kind == 3 && n % 2 == 0) n++;
+      for (int i = 0; i < n; i++) {
+        // the last kind visits the vertices twice around, crossing itself
+        double turns = (kind == 3) ? 4 : 2;
+        double angle = (cw ? -1 : 1) * turns * Math.PI * i / n;
+        double radius;
+        if (kind == 0) {
+          radius = 100;
+        } else if (kind == 1) {
+          radius = 50 + r.nextDouble() * 50;
+        } else {
+          radius = (i % 2 == 0) ? 100 : 40;
+        }
+        sh.vertex((float) (radius * Math.cos(angle)),
+                  (float) (radius * Math.sin(angle)));
+      }
+      sh.endShape(PConstants.CLOSE);
+
+      int simple = fast.simple;
+      double[] f = triangulate(pg, fast, sh.inGeo, tg);
+      boolean tookFastPath = fast.simple > simple;
+      if (tookFastPath && !usesInputVertices(sh.inGeo, tg)) {
+        System.err.println("polygon " + s + ": fast path added vertices");
+        failures++;
+      }
+      double[] g = triangulate(pg, glu, sh.inGeo, tg);
+      if (f == null || g == null) {
+        System.err.println("polygon " + s + ": index outside its block");
+        failures++;
+        continue;
+      }
+      if (!close(f[0], g[0]) || !close(f[1], g[1]) ||
+          Double.compare(Math.signum(f[2]), Math.signum(g[2])) != 0) {
+        System.err.println("polygon " + s + " (" + n + " vertices, kind " +
+                           kind + "): area " + f[0] + "/" + f[1] +
+                           " normal " + f[2] + ", GLU " + g[0] + "/" +
+                           g[1] + " normal " + g[2]);
+        failures++;
+      }
+    }
+    System.out.println(POLYGONS + " polygons, " + fast.simple +
+                       " without GLU: " + (failures == 0 ? "ok" : "FAILED"));
+    if (fast.simple == 0) {
+      System.err.println("the fast path was never taken");
+      failures++;
+    }
+    System.exit(failures == 0 ? 0 : 1);
+  }
+}
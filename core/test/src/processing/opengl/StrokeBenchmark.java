@@ -0,0 +1,98 @@
+package processing.opengl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import processing.core.PConstants;
+import processing.core.PMatrix3D;
+import processing.core.PShape;
+
+
+/**
+ * Time and allocation per shape of thick 2D polyline strokes, tessellated
+ * with the full stroking algorithm (LinePath, LineStroker, and GLU). Not
+ * part of "ant check", run it by hand after compiling the checks:
+ * <pre>
+ * java -cp bin:test/bin:library/jogl-all.jar:library/gluegen-rt.jar \
+ *   processing.opengl.StrokeBenchmark
+ * </pre>
+ */
+public class StrokeBenchmark {
+  static final int SHAPES = 500;
+  static final int ROUNDS = 10;
+
+  static final int[] CAPS = {
+    PConstants.ROUND, PConstants.SQUARE, PConstants.PROJECT
+  };
+  static final int[] JOINS = {
+    PConstants.ROUND, PConstants.MITER, PConstants.BEVEL
+  };
+
+
+  static PGraphicsOpenGL.InGeometry[] polylines(PGraphicsOpenGL pg) {
+    Random random = new Random(1);
+    PGraphicsOpenGL.InGeometry[] shapes =
+      new PGraphicsOpenGL.InGeometry[SHAPES];
+    for (int s = 0; s < shapes.length; s++) {
+      PShape sh = pg.createShape();
+      sh.beginShape();
+      sh.noFill();
+      sh.stroke(0);
+      sh.strokeWeight(12);
+      int count = 3 + random.nextInt(12);
+      for (int i = 0; i < count; i++) {
+        sh.vertex(random.nextFloat() * 400, random.nextFloat() * 400);
+      }
+      sh.endShape(s % 2 == 0 ? PConstants.CLOSE : PConstants.OPEN);
+      shapes[s] = ((PShapeOpenGL) sh).inGeo;
+    }
+    return shapes;
+  }
+
+
+  static void stroke(PGraphicsOpenGL pg, PGraphicsOpenGL.Tessellator tess,
+                     PGraphicsOpenGL.InGeometry in,
+                     PGraphicsOpenGL.TessGeometry tg, int s) {
+    tg.clear();
+    tess.setInGeometry(in);
+    tess.setTessGeometry(tg);
+    tess.setFill(false);
+    tess.setStroke(true);
+    tess.setStrokeColor(0xFF00FF00);
+    tess.setStrokeWeight(12);
+    tess.setStrokeCap(CAPS[s % 3]);
+    tess.setStrokeJoin(JOINS[(s / 3) % 3]);
+    tess.setAccurate2DStrokes(true);
+    tess.setTexCache(null, null);
+    tess.setRenderer(pg);
+    tess.setTransform(new PMatrix3D());
+    tess.set3D(false);
+    tess.tessellatePolygon(false, true, false);
+  }
+
+
+  public static void main(String[] args) {
+    PGraphics2D pg = new PGraphics2D();
+    pg.tessellator = new PGraphicsOpenGL.Tessellator();
+    PGraphicsOpenGL.Tessellator tess = new PGraphicsOpenGL.Tessellator();
+    PGraphicsOpenGL.TessGeometry tg =
+      PGraphicsOpenGL.newTessGeometry(pg, PGraphicsOpenGL.newAttributeMap(),
+                                      PGraphicsOpenGL.RETAINED);
+    com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long id = Thread.currentThread().getId();
+
+    for (int round = 0; round < ROUNDS; round++) {
+      PGraphicsOpenGL.InGeometry[] shapes = polylines(pg);
+      long bytes = threads.getThreadAllocatedBytes(id);
+      long start = System.nanoTime();
+      for (int s = 0; s < shapes.length; s++) {
+        stroke(pg, tess, shapes[s], tg, s);
+      }
+      long nanos = System.nanoTime() - start;
+      bytes = threads.getThreadAllocatedBytes(id) - bytes;
+      System.out.printf("%.1f us/shape, %d bytes/shape%n",
+                        nanos / 1e3 / SHAPES, bytes / SHAPES);
+    }
+  }
+}